@@ -0,0 +1,95 @@
+package convex.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+
+import convex.api.Convex;
+import convex.core.crypto.AKeyPair;
+import convex.core.data.AVector;
+import convex.core.data.AccountStatus;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.peer.API;
+import convex.peer.Server;
+import etch.EtchStore;
+
+/**
+ * Benchmark for the time taken by a client to acquire a large State from a Peer over a
+ * loopback connection.
+ *
+ * Each invocation acquires the whole State into a fresh empty store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AcquireBenchmark {
+
+	static final int ACCOUNT_COUNT = 100000;
+
+	static final AKeyPair KP = AKeyPair.generate();
+
+	static Server server;
+	static Hash stateHash;
+	static {
+		server = API.launchPeer();
+
+		convex.core.State state = Benchmarks.STATE;
+		AVector<AccountStatus> accounts = state.getAccounts();
+		for (int i = 0; i < ACCOUNT_COUNT; i++) {
+			accounts = accounts.conj(AccountStatus.create(i, KP.getAccountKey()));
+		}
+		state = state.withAccounts(accounts);
+
+		// State is only available in the Peer's store
+		AStore serverStore = server.getStore();
+		AStore temp = Stores.current();
+		try {
+			Stores.setCurrent(serverStore);
+			serverStore.storeTopRef(state.getRef(), Ref.PERSISTED, null);
+		} finally {
+			Stores.setCurrent(temp);
+		}
+		stateHash = state.getHash();
+	}
+
+	private EtchStore store;
+	private Convex client;
+
+	@Setup(Level.Invocation)
+	public void connect() throws IOException, TimeoutException {
+		store = EtchStore.createTemp("acquire-benchmark");
+		client = Convex.connect(server.getHostAddress(), null, null, store);
+	}
+
+	@Benchmark
+	public void acquireState() throws InterruptedException, ExecutionException, TimeoutException {
+		client.acquire(stateHash, store).get(60000, TimeUnit.MILLISECONDS);
+	}
+
+	@TearDown(Level.Invocation)
+	public void close() {
+		client.close();
+		store.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options opt = Benchmarks.createOptions(AcquireBenchmark.class);
+		new Runner(opt).run();
+	}
+}
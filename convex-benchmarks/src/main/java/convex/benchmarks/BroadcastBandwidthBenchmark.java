@@ -0,0 +1,106 @@
+package convex.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+
+import convex.api.Convex;
+import convex.core.Coin;
+import convex.core.Result;
+import convex.core.crypto.AKeyPair;
+import convex.core.data.Address;
+import convex.core.lang.ops.Constant;
+import convex.core.transactions.Invoke;
+import convex.core.util.Counters;
+import convex.net.KnownCells;
+import convex.peer.API;
+import convex.peer.Server;
+
+/**
+ * Benchmark for DATA bandwidth between a network of local Peers, with and without tracking
+ * of cells known to be held by each remote Peer.
+ *
+ * Each invocation is one consensus round for a small batch of transactions. DATA bytes sent
+ * and saved per round are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+public class BroadcastBandwidthBenchmark {
+
+	static final int TRANSACTIONS_PER_ROUND = 10;
+
+	static Address HERO = null;
+	static final AKeyPair KP = AKeyPair.generate();
+
+	static Server server;
+	static Convex client;
+	static {
+		List<Server> servers = API.launchLocalPeers(Benchmarks.PEER_KEYPAIRS, Benchmarks.STATE, null, null);
+		server = servers.get(0);
+		try {
+			Thread.sleep(1000);
+			Convex peer = Convex.connect(server, server.getPeerController(), server.getKeyPair());
+			HERO = peer.createAccountSync(KP.getAccountKey());
+			peer.transfer(HERO, Coin.EMERALD);
+			client = Convex.connect(server.getHostAddress(), HERO, KP);
+		} catch (IOException | TimeoutException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Param({"true", "false"})
+	public boolean knownCells;
+
+	private long rounds;
+	private long startSent;
+	private long startSaved;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		KnownCells.setEnabled(knownCells);
+		rounds = 0;
+		startSent = Counters.dataBytesSent;
+		startSaved = Counters.dataBytesSaved;
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public void consensusRound() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		CompletableFuture<Result>[] rs = new CompletableFuture[TRANSACTIONS_PER_ROUND];
+		for (int i = 0; i < TRANSACTIONS_PER_ROUND; i++) {
+			rs[i] = client.transact(Invoke.create(HERO, -1, Constant.of(i)));
+		}
+		CompletableFuture.allOf(rs).get(5000, TimeUnit.MILLISECONDS);
+		rounds++;
+	}
+
+	@TearDown(Level.Trial)
+	public void report() {
+		long sent = Counters.dataBytesSent - startSent;
+		long saved = Counters.dataBytesSaved - startSaved;
+		System.out.println();
+		System.out.println("Known cells tracking: " + knownCells);
+		System.out.println("DATA bytes sent per round:  " + (sent / Math.max(1, rounds)));
+		System.out.println("DATA bytes saved per round: " + (saved / Math.max(1, rounds)));
+		KnownCells.setEnabled(true);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options opt = Benchmarks.createOptions(BroadcastBandwidthBenchmark.class);
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,65 @@
+package convex.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+
+import convex.api.Convex;
+import convex.core.Coin;
+import convex.core.Result;
+import convex.core.crypto.AKeyPair;
+import convex.core.data.Address;
+import convex.core.lang.ops.Constant;
+import convex.core.transactions.Invoke;
+import convex.peer.API;
+import convex.peer.Server;
+
+/**
+ * Benchmark for transaction throughput from a single client instance shared by many
+ * submitting threads.
+ *
+ * Each operation is one transaction round trip, so the throughput score is in TPS.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentClientBenchmark {
+
+	static Address HERO = null;
+	static final AKeyPair KP = AKeyPair.generate();
+
+	static Server server;
+	static Convex client;
+	static {
+		List<Server> servers = API.launchLocalPeers(Benchmarks.PEER_KEYPAIRS, Benchmarks.STATE, null, null);
+		server = servers.get(0);
+		try {
+			Thread.sleep(1000);
+			Convex peer = Convex.connect(server, server.getPeerController(), server.getKeyPair());
+			HERO = peer.createAccountSync(KP.getAccountKey());
+			peer.transfer(HERO, Coin.EMERALD);
+			client = Convex.connect(server.getHostAddress(), HERO, KP);
+		} catch (IOException | TimeoutException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void transact64Threads() throws TimeoutException, IOException {
+		Result r = client.transactSync(Invoke.create(HERO, -1, Constant.of(1L)), 10000);
+		if (r.isError()) throw new Error("Transaction failed: " + r);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options opt = Benchmarks.createOptions(ConcurrentClientBenchmark.class);
+		new Runner(opt).run();
+	}
+}
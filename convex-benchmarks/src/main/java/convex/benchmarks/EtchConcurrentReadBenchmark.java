@@ -0,0 +1,63 @@
+package convex.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark for Etch read throughput with increasing numbers of reader threads,
+ * while a background thread is continuously writing new data.
+ * 
+ * Reads should scale with thread count since the Etch read path takes no locks.
+ */
+@State(Scope.Benchmark)
+public class EtchConcurrentReadBenchmark extends EtchBenchmark {
+	
+	static final int[] THREAD_COUNTS= {1,2,4,8,16,32};
+	
+	private volatile boolean writing=false;
+	private Thread writer;
+	
+	@Setup(Level.Trial)
+	public void startWriter() {
+		writing=true;
+		writer=new Thread(()->{
+			while (writing) {
+				writeData();
+			}
+		},"Etch benchmark writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	@TearDown(Level.Trial)
+	public void stopWriter() throws InterruptedException {
+		writing=false;
+		writer.join();
+	}
+	
+	@Benchmark
+	public void readDuringWrites() {
+		int ix=ThreadLocalRandom.current().nextInt(1000);
+		store.refForHash(refs[ix].getHash());
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Options base = Benchmarks.createOptions(EtchConcurrentReadBenchmark.class);
+		for (int threads: THREAD_COUNTS) {
+			Options opt=new OptionsBuilder().parent(base)
+					.include(EtchConcurrentReadBenchmark.class.getSimpleName()+".readDuringWrites")
+					.threads(threads)
+					.build();
+			new Runner(opt).run();
+		}
+	}
+}
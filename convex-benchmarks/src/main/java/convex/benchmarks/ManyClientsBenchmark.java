@@ -0,0 +1,71 @@
+package convex.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import convex.api.Convex;
+import convex.core.data.prim.CVMLong;
+import convex.net.NIOServer;
+import convex.peer.API;
+import convex.peer.Server;
+
+/**
+ * Benchmark for a Peer serving a large number of concurrent loopback client connections.
+ * 
+ * Queries are sent from randomly chosen clients by many benchmark threads, so load is spread
+ * across all connections and hence all NIO selector threads.
+ * 
+ * Note: each client uses two file descriptors in this process (client and server ends), so
+ * the open file limit may need to be raised, e.g. "ulimit -n 16384"
+ */
+@State(Scope.Benchmark)
+public class ManyClientsBenchmark {
+	
+	static final int CLIENT_COUNT=5000;
+	
+	static Server server;
+	static Convex[] clients=new Convex[CLIENT_COUNT];
+	
+	static {
+		server=API.launchPeer();
+		try {
+			for (int i=0; i<CLIENT_COUNT; i++) {
+				clients[i]=Convex.connect(server.getHostAddress(),server.getPeerController(),server.getKeyPair());
+			}
+		} catch (IOException | TimeoutException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Benchmark
+	public void queryRandomClient() throws TimeoutException, IOException {
+		Convex client=clients[ThreadLocalRandom.current().nextInt(CLIENT_COUNT)];
+		client.querySync(CVMLong.ONE);
+	}
+	
+	@TearDown(Level.Trial)
+	public void reportLoad() {
+		NIOServer nio=server.getNIOServer();
+		System.out.println("Connections: "+nio.getConnectionCount());
+		System.out.println("Connections per selector: "+Arrays.toString(nio.getSelectorConnectionCounts()));
+		System.out.println("Operations per selector: "+Arrays.toString(nio.getSelectorOpCounts()));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options opt = new OptionsBuilder().parent(Benchmarks.createOptions(ManyClientsBenchmark.class))
+				.threads(64)
+				.build();
+		new Runner(opt).run();
+	}
+}
@@ -5,6 +5,8 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 
 import convex.core.data.ACell;
+import convex.core.data.Symbol;
+import convex.core.data.prim.CVMLong;
 import convex.core.lang.AOp;
 import convex.core.lang.Context;
 import convex.core.lang.Core;
@@ -14,7 +16,8 @@ import convex.core.lang.ops.Invoke;
 
 public class OpBenchmark {
 	
-	static final Context<?> CTX=Benchmarks.context();
+	static final Context<?> CTX=Benchmarks.context().define(Symbol.create("foo"), CVMLong.ONE)
+			.eval(Reader.read("(defn sum-to [n] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (+ acc i)) acc)))"));
 	
 	private static final ACell runOp(AOp<ACell> op) {
 		return CTX.fork().execute(op).getResult();
@@ -26,6 +29,34 @@ public class OpBenchmark {
 		runOp(loopOp);
 	}
 	
+	// loop with dynamic lookup of a symbol defined in the current environment
+	static final AOp<ACell> lookupLoopOp=CTX.expandCompile(Reader.read("(dotimes [i 1000] foo)")).getResult();
+	@Benchmark
+	public void lookupLoop() {
+		runOp(lookupLoopOp);
+	}
+	
+	// loop with function calls binding parameters and locals
+	static final AOp<ACell> fnCallLoopOp=CTX.expandCompile(Reader.read("(let [f (fn [a b] (let [c (+ a b)] c))] (dotimes [i 1000] (f i 1)))")).getResult();
+	@Benchmark
+	public void fnCallLoop() {
+		runOp(fnCallLoopOp);
+	}
+
+	// loop with nested local bindings
+	static final AOp<ACell> letLoopOp=CTX.expandCompile(Reader.read("(dotimes [i 1000] (let [a i b a c b] c))")).getResult();
+	@Benchmark
+	public void letLoop() {
+		runOp(letLoopOp);
+	}
+
+	// call of a defined function, compiled to bytecode after BytecodeCompiler threshold
+	static final AOp<ACell> definedFnOp=CTX.expandCompile(Reader.read("(sum-to 1000)")).getResult();
+	@Benchmark
+	public void definedFn() {
+		runOp(definedFnOp);
+	}
+
 	static final AOp<ACell> constantOp=CTX.expandCompile(Reader.read("1")).getResult();
 	@Benchmark
 	public void constant() {
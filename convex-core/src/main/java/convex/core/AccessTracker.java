@@ -0,0 +1,131 @@
+package convex.core;
+
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records which parts of a State are accessed by the current thread while executing
+ * a transaction. Used to detect conflicts between transactions executed speculatively
+ * in parallel, see {@link BlockExecutor}.
+ *
+ * Tracking only happens on threads that have installed a tracker. While no tracker is
+ * installed anywhere, the cost to State accessors is a single volatile read.
+ */
+public final class AccessTracker {
+
+	private static final ThreadLocal<AccessTracker> current = new ThreadLocal<>();
+
+	/**
+	 * Number of trackers currently installed across all threads
+	 */
+	private static final AtomicInteger installed = new AtomicInteger();
+
+	final HashSet<Long> accountsRead = new HashSet<>();
+	final HashSet<Long> accountsWritten = new HashSet<>();
+
+	boolean countRead = false;
+	boolean countWritten = false;
+	boolean allAccountsRead = false;
+	boolean peersRead = false;
+	boolean scheduleRead = false;
+
+	/**
+	 * Set if the whole State (including globals) may have been observed
+	 */
+	boolean allRead = false;
+
+	/**
+	 * Set if accounts were replaced in a way that cannot be tracked individually
+	 */
+	boolean unknownWrite = false;
+
+	// States observed by the outermost transaction, before and after execution
+	State preparedState = null;
+	State executedState = null;
+
+	private AccessTracker() {
+	}
+
+	/**
+	 * Installs a new tracker for the current thread
+	 * @return New tracker instance
+	 */
+	static AccessTracker install() {
+		AccessTracker t = new AccessTracker();
+		current.set(t);
+		installed.incrementAndGet();
+		return t;
+	}
+
+	/**
+	 * Removes the tracker for the current thread
+	 */
+	static void uninstall() {
+		if (current.get() == null) return;
+		current.remove();
+		installed.decrementAndGet();
+	}
+
+	private static AccessTracker get() {
+		if (installed.get() == 0) return null;
+		return current.get();
+	}
+
+	static void readAccount(long ix, long count) {
+		AccessTracker t = get();
+		if (t == null) return;
+		if ((ix < 0) || (ix >= count)) {
+			t.countRead = true;
+		} else {
+			t.accountsRead.add(ix);
+		}
+	}
+
+	static void writeAccount(long ix, long count) {
+		AccessTracker t = get();
+		if (t == null) return;
+		t.accountsWritten.add(ix);
+		if (ix >= count) t.countWritten = true;
+	}
+
+	static void readCount() {
+		AccessTracker t = get();
+		if (t != null) t.countRead = true;
+	}
+
+	static void readAllAccounts() {
+		AccessTracker t = get();
+		if (t != null) t.allAccountsRead = true;
+	}
+
+	static void writeUnknown() {
+		AccessTracker t = get();
+		if (t != null) t.unknownWrite = true;
+	}
+
+	static void readPeers() {
+		AccessTracker t = get();
+		if (t != null) t.peersRead = true;
+	}
+
+	static void readSchedule() {
+		AccessTracker t = get();
+		if (t != null) t.scheduleRead = true;
+	}
+
+	/**
+	 * Records that the whole State may have been observed by the current thread,
+	 * e.g. via *state* in the CVM
+	 */
+	public static void readAll() {
+		AccessTracker t = get();
+		if (t != null) t.allRead = true;
+	}
+
+	static void recordExecution(State prepared, State executed) {
+		AccessTracker t = get();
+		if (t == null) return;
+		t.preparedState = prepared;
+		t.executedState = executed;
+	}
+}
@@ -187,6 +187,9 @@ public class Belief extends ARecord {
 		// Initialise result with existing Orders from this Belief
 		BlobMap<AccountKey, SignedData<Order>> result = this.orders;
 		
+		// Verify signatures on all received Orders in one batch
+		verifyOrders(mc, beliefs);
+		
 		// Iterate over each received Belief
 		for (Belief belief : beliefs) {
 			if (belief == null) continue; // ignore null beliefs, might happen if invalidated
@@ -202,17 +205,18 @@ public class Belief extends ARecord {
 				// Skip merging own Key. We should always have our own latest Order
 				if(key.equalsBytes(mc.getAccountKey())) continue; 
 				
-				SignedData<Order> a=result.get(key);
-				if (a == null) {result=result.assocEntry(be); continue;}
 				SignedData<Order> b=be.getValue();
 				if (b == null) continue;
 				
-				// Check signature
+				// Check signature. Already verified in batch, so this is cheap
 				if (!b.checkSignature()) {
 					// TODO: Better handling than just ignoring, e.g. slashing?
 					continue;
 				};
 				
+				SignedData<Order> a=result.get(key);
+				if (a == null) {result=result.assocEntry(be); continue;}
+				
 				if (a.equals(b)) continue; // PERF: fast path for no changes
 
 				Order ac = a.getValue();
@@ -237,6 +241,29 @@ public class Belief extends ARecord {
 		return result;
 	}
 
+	/**
+	 * Verifies the signatures of all Orders from other Peers in the given Beliefs as a single batch
+	 * @param mc
+	 * @param beliefs
+	 */
+	private void verifyOrders(MergeContext mc, Belief[] beliefs) {
+		ArrayList<SignedData<Order>> toVerify = new ArrayList<>();
+		for (Belief belief : beliefs) {
+			if (belief == null) continue;
+			if (belief.equals(this)) continue;
+			BlobMap<AccountKey, SignedData<Order>> bOrders = belief.orders;
+			long bcount=bOrders.count();
+			for (long i=0; i<bcount; i++) {
+				MapEntry<AccountKey,SignedData<Order>> be=bOrders.entryAt(i);
+				ABlob key=be.getKey();
+				if(key.equalsBytes(mc.getAccountKey())) continue; 
+				SignedData<Order> so=be.getValue();
+				if (so!=null) toVerify.add(so);
+			}
+		}
+		SignedData.checkSignatures(toVerify);
+	}
+
 	/**
 	 * Conducts a stake-weighted vote across a map of consistent chains, in the
 	 * given merge context
@@ -635,6 +662,42 @@ public class Belief extends ARecord {
 		return Belief.create(newOrders);
 	}
 
+	/**
+	 * Creates a delta Belief, containing only the Orders in this Belief that differ from the given
+	 * Orders, e.g. those last sent to another Peer. Merging the delta into a Belief that already
+	 * holds the given Orders has the same effect as merging this Belief.
+	 *
+	 * @param baseOrders Orders to compare against
+	 * @return Belief with changed Orders only, and the timestamp of this Belief
+	 */
+	public Belief createDelta(BlobMap<AccountKey, SignedData<Order>> baseOrders) {
+		BlobMap<AccountKey, SignedData<Order>> result = BlobMaps.empty();
+		long n = orders.count();
+		for (long i = 0; i < n; i++) {
+			MapEntry<AccountKey, SignedData<Order>> e = orders.entryAt(i);
+			SignedData<Order> base = baseOrders.get(e.getKey());
+			if ((base == null) || !base.equals(e.getValue())) result = result.assocEntry(e);
+		}
+		return create(result, timestamp);
+	}
+
+	/**
+	 * Applies a delta Belief to this Belief, replacing any Orders with those in the delta. Used
+	 * to accumulate Beliefs received from a Peer, so that no delta is lost before merging.
+	 *
+	 * @param delta Delta Belief, or a full Belief
+	 * @return Updated Belief, with the later of the two timestamps
+	 */
+	public Belief applyDelta(Belief delta) {
+		BlobMap<AccountKey, SignedData<Order>> result = orders;
+		BlobMap<AccountKey, SignedData<Order>> dOrders = delta.orders;
+		long n = dOrders.count();
+		for (long i = 0; i < n; i++) {
+			result = result.assocEntry(dOrders.entryAt(i));
+		}
+		return create(result, Math.max(timestamp, delta.timestamp));
+	}
+
 	@Override
 	public int encode(byte[] bs, int pos) {
 		bs[pos++]=getTag();
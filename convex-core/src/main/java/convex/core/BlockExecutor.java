@@ -0,0 +1,305 @@
+package convex.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import convex.core.data.AVector;
+import convex.core.data.AccountStatus;
+import convex.core.data.Address;
+import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
+import convex.core.lang.Context;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.core.transactions.ATransaction;
+import convex.core.util.Counters;
+import convex.core.util.Utils;
+
+/**
+ * Executes the transactions in a Block optimistically in parallel.
+ *
+ * Each transaction is first executed speculatively against the State at the start of the
+ * Block, recording the parts of the State it accesses with an {@link AccessTracker}. Results
+ * are then committed in Block order: if a transaction accessed nothing written by an earlier
+ * transaction in the Block, its writes are applied directly to the latest State, otherwise
+ * it is re-executed against the latest State.
+ *
+ * The resulting State and Results are identical to sequential execution. Disabled by default,
+ * see {@link #setEnabled(boolean)}.
+ */
+public final class BlockExecutor {
+
+	/**
+	 * Runtime switch for parallel execution, disabled by default so that consensus
+	 * execution is sequential unless explicitly enabled
+	 */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Pool for speculative execution, created on first use and shut down when parallel
+	 * execution is disabled
+	 */
+	private static ExecutorService executor = null;
+
+	private BlockExecutor() {
+	}
+
+	/**
+	 * Checks if parallel execution of Block transactions is enabled
+	 * @return True if enabled, false if all Blocks are executed sequentially
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables parallel execution of Block transactions. Disabling reverts
+	 * to plain sequential execution and releases the executor threads.
+	 * @param value True to enable, false to disable
+	 */
+	public static void setEnabled(boolean value) {
+		enabled = value;
+		if (!value) {
+			synchronized (BlockExecutor.class) {
+				if (executor != null) {
+					executor.shutdown();
+					executor = null;
+				}
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "Transaction executor");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Outcome of speculative execution of a single transaction
+	 */
+	private static final class Speculation {
+		final AccessTracker tracker;
+		final Context<?> ctx;
+
+		Speculation(AccessTracker tracker, Context<?> ctx) {
+			this.tracker = tracker;
+			this.ctx = ctx;
+		}
+	}
+
+	/**
+	 * Accumulated writes of transactions committed so far in the Block
+	 */
+	private static final class Writes {
+		final HashSet<Long> accounts = new HashSet<>();
+		boolean count = false;
+		boolean peers = false;
+		boolean schedule = false;
+		boolean fees = false;
+
+		/**
+		 * Set if writes cannot be tracked, forcing sequential execution of the rest of the Block
+		 */
+		boolean sequential = false;
+
+		boolean any() {
+			return count || peers || schedule || fees || !accounts.isEmpty();
+		}
+	}
+
+	/**
+	 * Executes the transactions of a Block, starting from a prepared State.
+	 *
+	 * SECURITY: Transaction signatures must be checked before execution, as with sequential execution
+	 *
+	 * @param base State after Block preparation
+	 * @param transactions Transactions to execute
+	 * @return BlockResult identical to sequential execution
+	 */
+	static BlockResult execute(State base, AVector<SignedData<ATransaction>> transactions) {
+		int n = Utils.checkedInt(transactions.count());
+		AStore store = Stores.current();
+
+		ExecutorService ex = getExecutor();
+		ArrayList<Future<Speculation>> futures = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			SignedData<ATransaction> signed = transactions.get(i);
+			try {
+				futures.add(ex.submit(() -> speculate(base, signed, store)));
+			} catch (RejectedExecutionException e) {
+				// executor shut down concurrently, so re-execute sequentially
+				futures.add(null);
+			}
+		}
+
+		Result[] results = new Result[n];
+		Writes committed = new Writes();
+		State state = base;
+		for (int i = 0; i < n; i++) {
+			Speculation spec = await(futures.get(i));
+			State next = null;
+			if ((spec != null) && !committed.sequential && !conflicts(spec, base, committed)) {
+				next = commit(state, base, spec, committed);
+			}
+
+			if (next != null) {
+				Counters.parallelCommit++;
+				results[i] = Result.fromContext(CVMLong.create(i), spec.ctx);
+				state = next;
+			} else {
+				Counters.parallelReexecute++;
+				AccessTracker tracker = AccessTracker.install();
+				try {
+					Context<?> ctx = state.applyTransaction(transactions.get(i));
+					results[i] = Result.fromContext(CVMLong.create(i), ctx);
+					State after = ctx.getState();
+					AccessTracker.uninstall();
+					recordWrites(committed, tracker, state, after);
+					state = after;
+				} catch (Throwable t) {
+					results[i] = State.fatalResult(i, t);
+				} finally {
+					AccessTracker.uninstall();
+				}
+			}
+		}
+		return BlockResult.create(state, results);
+	}
+
+	private static Speculation speculate(State base, SignedData<ATransaction> signed, AStore store) {
+		Stores.setCurrent(store);
+		AccessTracker tracker = AccessTracker.install();
+		try {
+			return new Speculation(tracker, base.applyTransaction(signed));
+		} catch (Throwable t) {
+			// re-executed sequentially, which will report the failure
+			return null;
+		} finally {
+			AccessTracker.uninstall();
+		}
+	}
+
+	private static Speculation await(Future<Speculation> f) {
+		if (f == null) return null;
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			// Finish the Block sequentially, keeping interrupt status
+			Thread.currentThread().interrupt();
+			f.cancel(false);
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if a speculative execution may have observed or overwritten anything written
+	 * by transactions already committed in this Block
+	 */
+	private static boolean conflicts(Speculation spec, State base, Writes w) {
+		AccessTracker t = spec.tracker;
+		State result = spec.ctx.getState();
+		if (t.unknownWrite) return true;
+		if (t.allRead && w.any()) return true;
+		if (t.allAccountsRead && (w.count || !w.accounts.isEmpty())) return true;
+		if (w.count && (t.countRead || t.countWritten)) return true;
+		if (w.peers && (t.peersRead || (result.getPeers() != base.getPeers()))) return true;
+		if (w.schedule && (t.scheduleRead || (result.getSchedule() != base.getSchedule()))) return true;
+
+		// Only fees may be changed by transactions, other globals must be merged sequentially
+		if (!result.getTimeStamp().equals(base.getTimeStamp())) return true;
+		if (!result.getJuicePrice().equals(base.getJuicePrice())) return true;
+
+		for (Long ix : t.accountsRead) {
+			if (w.accounts.contains(ix)) return true;
+		}
+		for (Long ix : t.accountsWritten) {
+			if (w.accounts.contains(ix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the writes of a non-conflicting speculative execution to the latest State.
+	 *
+	 * @return Updated State, or null if the transaction must be re-executed
+	 */
+	private static State commit(State state, State base, Speculation spec, Writes w) {
+		AccessTracker t = spec.tracker;
+		long[] written = sortedIndexes(t.accountsWritten);
+
+		// Memory accounting depends on the size of the whole State, so the memory used
+		// must be the same as it would be when executed against the latest State
+		if (t.preparedState != null) {
+			State prepared = t.preparedState;
+			State executed = t.executedState;
+			long specUsed = executed.getMemorySize() - prepared.getMemorySize();
+			State p = applyWrites(state, base, prepared, written);
+			State e = applyWrites(state, base, executed, written);
+			if ((e.getMemorySize() - p.getMemorySize()) != specUsed) return null;
+		}
+
+		State result = spec.ctx.getState();
+		State next = applyWrites(state, base, result, written);
+		long feeDelta = result.getGlobalFees().longValue() - base.getGlobalFees().longValue();
+		if (feeDelta != 0) {
+			next = next.withGlobalFees(CVMLong.create(next.getGlobalFees().longValue() + feeDelta));
+		}
+
+		w.accounts.addAll(t.accountsWritten);
+		w.count |= t.countWritten;
+		w.peers |= (result.getPeers() != base.getPeers());
+		w.schedule |= (result.getSchedule() != base.getSchedule());
+		w.fees |= (feeDelta != 0);
+		return next;
+	}
+
+	/**
+	 * Copies written Accounts, Peers and Schedule from a speculative State onto the latest State
+	 */
+	private static State applyWrites(State state, State base, State source, long[] written) {
+		AVector<AccountStatus> accounts = source.getAccounts();
+		long n = accounts.count();
+		for (long ix : written) {
+			if (ix >= n) break;
+			state = state.putAccount(Address.create(ix), accounts.get(ix));
+		}
+		if (source.getPeers() != base.getPeers()) state = state.withPeers(source.getPeers());
+		if (source.getSchedule() != base.getSchedule()) state = state.withSchedule(source.getSchedule());
+		return state;
+	}
+
+	private static void recordWrites(Writes w, AccessTracker t, State before, State after) {
+		w.accounts.addAll(t.accountsWritten);
+		w.count |= t.countWritten;
+		w.peers |= (after.getPeers() != before.getPeers());
+		w.schedule |= (after.getSchedule() != before.getSchedule());
+		w.fees |= !after.getGlobalFees().equals(before.getGlobalFees());
+		if (t.unknownWrite) w.sequential = true;
+		if (!after.getTimeStamp().equals(before.getTimeStamp())) w.sequential = true;
+		if (!after.getJuicePrice().equals(before.getJuicePrice())) w.sequential = true;
+	}
+
+	private static long[] sortedIndexes(HashSet<Long> set) {
+		long[] result = new long[set.size()];
+		int i = 0;
+		for (Long ix : set) {
+			result[i++] = ix;
+		}
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -60,6 +60,12 @@ public class Constants {
 	 */
 	public static final boolean ETCH_DELETE_TEMP_ON_EXIT = true;
 
+	/**
+	 * Option to maintain an in-memory Bloom filter over Etch keys, so that lookups for
+	 * absent values can usually avoid reading the index.
+	 */
+	public static final boolean ETCH_BLOOM_FILTER = true;
+
 	/**
 	 * Sequence number used for any new account
 	 */
@@ -128,6 +134,43 @@ public class Constants {
 	 */
 	public static final Integer DEFAULT_OUTGOING_CONNECTION_COUNT = 20;
 
+	/**
+	 * Default number of signature verification threads for a Peer. Zero verifies on the receive thread.
+	 */
+	public static final int DEFAULT_VERIFY_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+
+	/**
+	 * Default number of NIO selector threads for a Peer, each with a paired message decoder thread
+	 */
+	public static final int DEFAULT_SELECTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors()/4);
+
+	/**
+	 * Default maximum number of bytes a Peer reads from a client connection at a time. All complete
+	 * messages in each chunk are dispatched together. Zero reads exactly one message at a time, which
+	 * gives the strictest back-pressure.
+	 */
+	public static final int DEFAULT_RECEIVE_CHUNK_SIZE = 65536;
+
+	/**
+	 * Default number of latest States a Peer retains in memory. Older States are archived in the store.
+	 */
+	public static final long DEFAULT_RETAIN_STATES = 1000;
+
+	/**
+	 * Default time in milliseconds for which a Peer retains States in memory
+	 */
+	public static final long DEFAULT_RETAIN_TIME = 60000;
+
+	/**
+	 * Default interval in milliseconds between compactions of a Peer's Etch store. Zero disables compaction.
+	 */
+	public static final long DEFAULT_GC_INTERVAL = 3600000;
+
+	/**
+	 * Minimum number of transactions in a Block for optimistic parallel execution
+	 */
+	public static final int PARALLEL_BLOCK_THRESHOLD = 4;
+
 	/**
 	 * Number of milliseconds average time to drop low-staked Peers
 	 */
@@ -144,9 +187,60 @@ public class Constants {
 	public static final int RECEIVE_BUFFER_SIZE = Format.LIMIT_ENCODING_LENGTH*10+20;
 
 	/**
-	 * Default size for client receive buffers.
+	 * Number of bytes queued for sending on a connection at which further messages are rejected.
+	 */
+	public static final int SEND_QUEUE_HIGH_WATER = 1024*1024;
+
+	/**
+	 * Number of cell hashes tracked per connection as known to be held by the remote end. Must be a power of 2.
 	 */
-	public static final int SEND_BUFFER_SIZE = Format.LIMIT_ENCODING_LENGTH*10+20;
+	public static final int KNOWN_CELLS_SIZE = 4096;
+
+	/**
+	 * Number of Belief broadcasts to a Peer between full Beliefs. Other broadcasts send only
+	 * changed Orders, and a full Belief resyncs the Peer in case anything was missed.
+	 */
+	public static final int BELIEF_FULL_INTERVAL = 10;
+
+	/**
+	 * Maximum number of cells sent by a Peer in response to a single DATA_REQUEST
+	 */
+	public static final int DATA_REQUEST_LIMIT = 1024;
+
+	/**
+	 * Depth of child cells requested with each missing hash when acquiring data
+	 */
+	public static final int DATA_REQUEST_DEPTH = 1;
+
+	/**
+	 * Maximum number of missing hashes requested and not yet received while acquiring data
+	 */
+	public static final int ACQUIRE_WINDOW = 64;
+
+	/**
+	 * Time in milliseconds without data received after which missing data is requested again
+	 */
+	public static final long ACQUIRE_RETRY_INTERVAL = 500;
+
+	/**
+	 * Time in milliseconds without data received after which acquiring data fails
+	 */
+	public static final long ACQUIRE_TIMEOUT = 60000;
+
+	/**
+	 * Target number of subtrees acquired from each source Peer in a snapshot sync
+	 */
+	public static final int SNAPSHOT_PARTITIONS_PER_PEER = 4;
+
+	/**
+	 * Maximum number of tree levels fetched to find subtrees for a snapshot sync
+	 */
+	public static final int SNAPSHOT_PARTITION_LEVELS = 3;
+
+	/**
+	 * Interval in milliseconds between progress reports during a snapshot sync
+	 */
+	public static final long SNAPSHOT_PROGRESS_INTERVAL = 5000;
 
 
 	/**
@@ -202,6 +296,41 @@ public class Constants {
 	// TODO: Should ultimately be true for production usage
 	public static final boolean OPT_STATIC = false;
 
+	/**
+	 * Option for local binding frames. If true, local bindings made during execution are held
+	 * in a mutable array frame per function invocation, and only converted to a persistent
+	 * vector when captured by a closure. Off by default, since no measurable gain has been shown
+	 * over persistent vector bindings.
+	 */
+	public static final boolean OPT_LOCAL_FRAMES = false;
+
+	/**
+	 * Initial size of a local binding frame, if no better estimate is available
+	 */
+	public static final int LOCAL_FRAME_SIZE = 8;
+
+	/**
+	 * Maximum number of query Results cached by a Peer for the current consensus State
+	 */
+	public static final int QUERY_CACHE_SIZE = 10000;
+
+	/**
+	 * Maximum total memory size in bytes of query Results cached by a Peer
+	 */
+	public static final long QUERY_CACHE_BYTES = 64*1024*1024;
+
+	/**
+	 * Default number of invocations of a function before its body is compiled to JVM bytecode.
+	 * 0 disables compilation, so that all execution is interpreted unless compilation is enabled
+	 * with BytecodeCompiler.setThreshold(int)
+	 */
+	public static final int FN_COMPILE_THRESHOLD = 0;
+
+	/**
+	 * Maximum number of Ops in a function body compiled to JVM bytecode
+	 */
+	public static final int FN_COMPILE_MAX_OPS = 2000;
+
 	/**
 	 * Char to represent bad Unicode characters in printing
 	 */
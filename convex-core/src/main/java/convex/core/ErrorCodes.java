@@ -191,5 +191,10 @@ public class ErrorCodes {
 	 */
 	public static final Keyword FORMAT = Keyword.create("FORMAT");
 
+	/**
+	 * ErrorCode indicating a Peer is too busy to accept a request. The request may be retried later.
+	 */
+	public static final Keyword LOAD = Keyword.create("LOAD");
+
 
 }
@@ -1,6 +1,7 @@
 package convex.core;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.function.Consumer;
 
 import convex.core.crypto.AKeyPair;
@@ -11,11 +12,13 @@ import convex.core.data.AccountKey;
 import convex.core.data.Address;
 import convex.core.data.BlobMap;
 import convex.core.data.Hash;
+import convex.core.data.IRefFunction;
 import convex.core.data.Keyword;
 import convex.core.data.Keywords;
 import convex.core.data.Maps;
 import convex.core.data.PeerStatus;
 import convex.core.data.Ref;
+import convex.core.data.RefSoft;
 import convex.core.data.SignedData;
 import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
@@ -23,6 +26,7 @@ import convex.core.exceptions.BadSignatureException;
 import convex.core.exceptions.InvalidDataException;
 import convex.core.init.Init;
 import convex.core.lang.AOp;
+import convex.core.lang.CompileCache;
 import convex.core.lang.Context;
 import convex.core.store.AStore;
 import convex.core.store.Stores;
@@ -46,6 +50,11 @@ import convex.core.util.Utils;
  * consensus updates happen.
  * </p>
  *
+ * <p>
+ * Older States and BlockResults can be archived with {@link #archiveHistory(long, long)}, in
+ * which case they are released from memory and loaded lazily from the store when required.
+ * </p>
+ *
  *
  * "Don't worry about what anybody else is going to do. The best way to predict
  * the future is to invent it." - Alan Kay
@@ -158,6 +167,36 @@ public class Peer {
 		}
 	}
 
+	/**
+	 * Create a Peer instance from a remotely acquired snapshot of the consensus State and Belief,
+	 * without replaying Blocks from the genesis State. States before the snapshot are not
+	 * available, so the genesis State stands in for them, and BlockResults for Blocks before
+	 * the snapshot are null.
+	 *
+	 * @param peerKP Peer KeyPair
+	 * @param genesisState Genesis State of the network
+	 * @param consensusState Consensus State of a remote Peer, which must be persisted in the current store
+	 * @param consensusPoint Consensus Point of the remote Peer for its consensus State
+	 * @param remoteBelief Remote belief to sync with
+	 * @return New Peer instance
+	 */
+	public static Peer create(AKeyPair peerKP, State genesisState, State consensusState, long consensusPoint, Belief remoteBelief) {
+		Belief belief = Belief.createSingleOrder(peerKP);
+		SignedData<Belief> sb = peerKP.signData(belief);
+		ACell.createPersisted(sb);
+
+		int n = Utils.checkedInt(consensusPoint);
+		AVector<State> states = Vectors.repeat(genesisState, n).append(consensusState);
+		AVector<BlockResult> results = Vectors.repeat(null, n);
+		Peer peer = new Peer(peerKP, sb, states, results, consensusState.getTimeStamp().longValue());
+		try {
+			peer = peer.mergeBeliefs(remoteBelief);
+			return peer;
+		} catch (Throwable e) {
+			throw Utils.sneakyThrow(e);
+		}
+	}
+
 	/**
 	 * Restores a Peer from the Etch database specified in Config
 	 * @param store Store to restore from
@@ -252,7 +291,7 @@ public class Peer {
 			return ctx.withError(ErrorCodes.NOBODY,"Account does not exist for query: "+address);
 		}
 
-		Context<AOp<T>> ectx = ctx.expandCompile(form);
+		Context<AOp<T>> ectx = CompileCache.expandCompile(ctx,form);
 		if (ectx.isExceptional()) {
 			return (Context<T>) ectx;
 		}
@@ -432,22 +471,87 @@ public class Peer {
 	 * @param noveltyHandler Novelty handler for Belief
 	 * @return Updates Peer
 	 */
+	@SuppressWarnings("unchecked")
 	public Peer persistState(Consumer<Ref<ACell>> noveltyHandler) {
 		// Peer Belief must be announced using novelty handler
 		SignedData<Belief> sb=this.belief;
 		sb.announce(noveltyHandler);
 
-		// Persist states
-		AVector<State> newStates = this.states;
-		newStates=ACell.createPersisted(newStates).getValue();
-
-		// Persist results
-		AVector<BlockResult> newResults = this.blockResults;
-		newResults=ACell.createPersisted(newResults).getValue();
+		// Persist states and results in a single batch
+		List<Ref<ACell>> refs=Stores.current().storeRefs(List.of(states.getRef(),blockResults.getRef()), Ref.PERSISTED, null);
+		AVector<State> newStates = (AVector<State>) refs.get(0).getValue();
+		AVector<BlockResult> newResults = (AVector<BlockResult>) refs.get(1).getValue();
 
 		return new Peer(this.keyPair, sb, newStates, newResults, this.timestamp);
 	}
 
+	/**
+	 * Archives older States and BlockResults, so that they are no longer held in memory. Archived
+	 * values remain in the history vectors and are loaded lazily from the store if accessed,
+	 * e.g. by {@link #asOf(CVMLong)}.
+	 *
+	 * A State is retained in memory if it is one of the latest retainStates States, or if it is
+	 * within retainTime milliseconds of the consensus State. Only persisted values are archived,
+	 * so this should be called after {@link #persistState(Consumer)}.
+	 *
+	 * @param retainStates Number of latest States to retain in memory
+	 * @param retainTime Time in milliseconds for which States are retained in memory
+	 * @return Updated Peer
+	 */
+	public Peer archiveHistory(long retainStates, long retainTime) {
+		long n = states.count();
+		if (n <= retainStates) return this;
+		long countCutoff = states.get(n - Math.max(1, retainStates)).getTimeStamp().longValue();
+		long timeCutoff = getConsensusState().getTimeStamp().longValue() - retainTime;
+		long cutoff = Math.min(countCutoff, timeCutoff);
+
+		HistoryArchiver archiver = new HistoryArchiver(cutoff);
+		AVector<State> newStates = states.updateRefs(archiver);
+		AVector<BlockResult> newResults = blockResults.updateRefs(archiver);
+		if ((newStates == states) && (newResults == blockResults)) return this;
+		return new Peer(keyPair, belief, newStates, newResults, timestamp);
+	}
+
+	/**
+	 * Replaces in-memory Refs to persisted States and BlockResults older than a cutoff timestamp with
+	 * store-backed soft Refs. Vector nodes containing only old values are archived as a whole.
+	 */
+	private static final class HistoryArchiver implements IRefFunction {
+		private final long cutoff;
+
+		HistoryArchiver(long cutoff) {
+			this.cutoff = cutoff;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Ref<?> apply(Ref<?> ref) {
+			// only direct Refs hold values strongly, and only persisted values can be reloaded
+			if (!ref.isDirect() || (ref.getStatus() < Ref.PERSISTED)) return ref;
+			ACell value = ref.getValue();
+			if (value instanceof AVector) {
+				AVector<?> v = (AVector<?>) value;
+				if (v.isEmpty()) return ref;
+				if (isArchivable(v.get(v.count() - 1))) return archive(ref);
+				ACell updated = v.updateRefs(this);
+				return (updated == v) ? ref : ((Ref<ACell>) ref).withValue(updated);
+			}
+			if (isArchivable(value)) return archive(ref);
+			return ref;
+		}
+
+		private boolean isArchivable(ACell value) {
+			if (value instanceof BlockResult) value = ((BlockResult) value).getState();
+			if (!(value instanceof State)) return false;
+			return ((State) value).getTimeStamp().longValue() < cutoff;
+		}
+
+		private Ref<?> archive(Ref<?> ref) {
+			// soft Ref with no value, which will be loaded from the current store if needed
+			return RefSoft.createForHash(ref.getHash()).withFlags(ref.getFlags());
+		}
+	}
+
 	/**
 	 * Gets the vector of States maintained by this Peer, starting from the
 	 * Genesis state (index 0).
@@ -462,10 +566,12 @@ public class Peer {
 	 * Gets the result of a specific transaction
 	 * @param blockIndex Index of Block in Order
 	 * @param txIndex Index of transaction in block
-	 * @return Result from transaction
+	 * @return Result from transaction, or null if not available
 	 */
 	public Result getResult(long blockIndex, long txIndex) {
-		return blockResults.get(blockIndex).getResult(txIndex);
+		BlockResult br = blockResults.get(blockIndex);
+		if (br == null) return null; // before a snapshot
+		return br.getResult(txIndex);
 	}
 
 	/**
@@ -559,6 +665,7 @@ public class Peer {
 	 * @return Network ID
 	 */
 	public Hash getNetworkID() {
-		return getStates().get(0).getHash();
+		// avoid loading the genesis State if archived
+		return getStates().getElementRef(0).getHash();
 	}
 }
@@ -99,6 +99,7 @@ public class State extends ARecord {
 
 	@Override
 	public ACell get(ACell k) {
+		AccessTracker.readAll();
 		if (Keywords.ACCOUNTS.equals(k)) return accounts;
 		if (Keywords.PEERS.equals(k)) return peers;
 		if (Keywords.GLOBALS.equals(k)) return globals;
@@ -231,6 +232,7 @@ public class State extends ARecord {
 	 * @return Vector of Accounts
 	 */
 	public AVector<AccountStatus> getAccounts() {
+		AccessTracker.readAllAccounts();
 		return accounts;
 	}
 
@@ -240,6 +242,7 @@ public class State extends ARecord {
 	 * @return A map of addresses to PeerStatus records
 	 */
 	public BlobMap<AccountKey, PeerStatus> getPeers() {
+		AccessTracker.readPeers();
 		return peers;
 	}
 
@@ -273,9 +276,23 @@ public class State extends ARecord {
 	 * @return The BlockResult from applying the given Block to this State
 	 */
 	public BlockResult applyBlock(Block block) {
+		return applyBlock(block,BlockExecutor.isEnabled());
+	}
+
+	/**
+	 * Block level state transition function
+	 *
+	 * Updates the state by applying a given block of transactions, optionally executing
+	 * transactions optimistically in parallel. The result is identical in either case.
+	 *
+	 * @param block Block to Apply
+	 * @param parallel True to allow parallel execution of transactions
+	 * @return The BlockResult from applying the given Block to this State
+	 */
+	public BlockResult applyBlock(Block block, boolean parallel) {
 		Counters.applyBlock++;
 		State state = prepareBlock(block);
-		return state.applyTransactions(block);
+		return state.applyTransactions(block,parallel);
 	}
 
 	/**
@@ -364,7 +381,7 @@ public class State extends ARecord {
 		return state;
 	}
 
-	private State withSchedule(BlobMap<ABlob, AVector<ACell>> newSchedule) {
+	State withSchedule(BlobMap<ABlob, AVector<ACell>> newSchedule) {
 		if (schedule == newSchedule) return this;
 		return new State(accounts, peers, globals, newSchedule);
 	}
@@ -374,12 +391,17 @@ public class State extends ARecord {
 		return new State(accounts, peers, newGlobals, schedule);
 	}
 
-	private BlockResult applyTransactions(Block block) {
+	private BlockResult applyTransactions(Block block, boolean parallel) {
 		State state = this;
 		int blockLength = block.length();
 		Result[] results = new Result[blockLength];
 
 		AVector<SignedData<ATransaction>> transactions = block.getTransactions();
+		
+		if (parallel&&(blockLength>=Constants.PARALLEL_BLOCK_THRESHOLD)) {
+			return BlockExecutor.execute(state, transactions);
+		}
+		
 		for (int i = 0; i < blockLength; i++) {
 			// SECURITY: catch-all exception handler.
 			try {
@@ -393,10 +415,7 @@ public class State extends ARecord {
 				results[i] = Result.fromContext(CVMLong.create(i),ctx);
 				state = ctx.getState();
 			} catch (Throwable t) {
-				String msg= "Unexpected fatal exception applying transaction: "+t.toString();
-				results[i] = Result.create(CVMLong.create(i), Strings.create(msg),ErrorCodes.UNEXPECTED);
-				t.printStackTrace();
-				log.error(msg);
+				results[i] = fatalResult(i,t);
 			}
 		}
 
@@ -404,6 +423,19 @@ public class State extends ARecord {
 		return BlockResult.create(state, results);
 	}
 
+	/**
+	 * Creates the Result for a transaction that failed with an unexpected exception
+	 * @param i Index of transaction in Block
+	 * @param t Exception thrown
+	 * @return Result indicating an UNEXPECTED error
+	 */
+	static Result fatalResult(int i, Throwable t) {
+		String msg= "Unexpected fatal exception applying transaction: "+t.toString();
+		t.printStackTrace();
+		log.error(msg);
+		return Result.create(CVMLong.create(i), Strings.create(msg),ErrorCodes.UNEXPECTED);
+	}
+
 
 	/**
 	 * Applies a signed transaction to the State.
@@ -412,7 +444,7 @@ public class State extends ARecord {
 	 *
 	 * @return Context containing the updated chain State (may be exceptional)
 	 */
-	private <T extends ACell> Context<T> applyTransaction(SignedData<? extends ATransaction> signedTransaction) throws BadSignatureException {
+	<T extends ACell> Context<T> applyTransaction(SignedData<? extends ATransaction> signedTransaction) throws BadSignatureException {
 		// Extract transaction, performs signature check
 		ATransaction t=signedTransaction.getValue();
 		Address addr=t.getOrigin();
@@ -463,6 +495,7 @@ public class State extends ARecord {
 
 		// apply transaction. This may result in an error!
 		ctx = t.apply(ctx);
+		AccessTracker.recordExecution(preparedState, ctx.getState());
 
 		// complete transaction
 		// NOTE: completeTransaction handles error cases as well
@@ -509,6 +542,7 @@ public class State extends ARecord {
 	 * @return Map of Stakes
 	 */
 	public HashMap<AccountKey, Double> computeStakes() {
+		AccessTracker.readPeers();
 		HashMap<AccountKey, Double> hm = new HashMap<>(peers.size());
 		Double totalStake = peers.reduceEntries((acc, e) -> {
 			double stake = (double) (e.getValue().getTotalStake());
@@ -528,6 +562,7 @@ public class State extends ARecord {
 	 */
 	public State withAccounts(AVector<AccountStatus> newAccounts) {
 		if (newAccounts == accounts) return this;
+		AccessTracker.writeUnknown();
 		return create(newAccounts, peers,globals, schedule);
 	}
 
@@ -552,8 +587,10 @@ public class State extends ARecord {
 		} else {
 			newAccounts = accounts.assoc(ix, accountStatus);
 		}
+		AccessTracker.writeAccount(ix, n);
 
-		return withAccounts(newAccounts);
+		if (newAccounts == accounts) return this;
+		return create(newAccounts, peers, globals, schedule);
 	}
 
 	/**
@@ -564,7 +601,9 @@ public class State extends ARecord {
 	 */
 	public AccountStatus getAccount(Address target) {
 		long ix=target.longValue();
-		if ((ix<0)||(ix>=accounts.count())) return null;
+		long n=accounts.count();
+		AccessTracker.readAccount(ix, n);
+		if ((ix<0)||(ix>=n)) return null;
 		return accounts.get(ix);
 	}
 
@@ -603,8 +642,9 @@ public class State extends ARecord {
 	 */
 	public State addActor() {
 		AccountStatus as = AccountStatus.createActor();
+		AccessTracker.writeAccount(accounts.count(), accounts.count());
 		AVector<AccountStatus> newAccounts = accounts.conj(as);
-		return withAccounts(newAccounts);
+		return create(newAccounts, peers, globals, schedule);
 	}
 
 	/**
@@ -615,6 +655,7 @@ public class State extends ARecord {
 	 * @return The total value of all funds
 	 */
 	public long computeTotalFunds() {
+		AccessTracker.readAll();
 		long total = accounts.reduce((Long acc,AccountStatus as) -> acc + as.getBalance(), (Long)0L);
 		total += peers.reduceValues((Long acc, PeerStatus ps) -> acc + ps.getTotalStake(), 0L);
 		total += getGlobalFees().longValue();
@@ -662,6 +703,7 @@ public class State extends ARecord {
 	 * @return The updated State
 	 */
 	public State scheduleOp(long time, Address address, AOp<?> op) {
+		AccessTracker.readSchedule();
 		AVector<ACell> v = Vectors.of(address, op);
 
 		LongBlob key = LongBlob.create(time);
@@ -682,6 +724,7 @@ public class State extends ARecord {
 	 * @return The schedule data structure.
 	 */
 	public BlobMap<ABlob, AVector<ACell>> getSchedule() {
+		AccessTracker.readSchedule();
 		return schedule;
 	}
 
@@ -732,6 +775,7 @@ public class State extends ARecord {
 	 * @return Next address available
 	 */
 	public Address nextAddress() {
+		AccessTracker.readCount();
 		return Address.create(accounts.count());
 	}
 
@@ -751,6 +795,7 @@ public class State extends ARecord {
 	 * @return Vector of global values
 	 */
 	public AVector<ACell> getGlobals() {
+		AccessTracker.readAll();
 		return globals;
 	}
 
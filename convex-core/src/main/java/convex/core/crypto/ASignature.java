@@ -22,6 +22,20 @@ public abstract class ASignature extends ACell {
 	 */
 	public abstract boolean verify(ABlob message, AccountKey publicKey);
 	
+	/**
+	 * Verifies a batch of (signature, message, public key) tuples in one call.
+	 * 
+	 * Uses Ed25519
+	 * 
+	 * @param signatures Signatures to verify
+	 * @param messages Messages that were signed
+	 * @param publicKeys Public keys of signers
+	 * @return Array of results, true where the corresponding signature is valid
+	 */
+	public static boolean[] verifyBatch(ASignature[] signatures, ABlob[] messages, AccountKey[] publicKeys) {
+		return Ed25519Signature.verifyBatch(signatures, messages, publicKeys);
+	}
+	
 	/**
 	 * Reads a Signature from the given ByteBuffer. Assumes tag byte already read.
 	 * 
@@ -1,6 +1,7 @@
 package convex.core.crypto;
 
 import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
 
 import convex.core.data.ABlob;
 import convex.core.data.ACell;
@@ -29,6 +30,11 @@ public class Ed25519Signature extends ASignature {
 	 */
 	public static final Ed25519Signature ZERO = wrap(new byte[SIGNATURE_LENGTH]);
 	
+	/**
+	 * Minimum batch size for verifying signatures in parallel
+	 */
+	static final int PARALLEL_BATCH_THRESHOLD = 4;
+	
 	private final byte[] signatureBytes;
 	
 	private Ed25519Signature(byte[] signature) {
@@ -108,6 +114,33 @@ public class Ed25519Signature extends ASignature {
 	    return verified;
 	}
 	
+	/**
+	 * Verifies a batch of Ed25519 signatures. Previously verified signatures are taken
+	 * from the {@link SignatureCache}, remaining signatures are verified in parallel.
+	 * 
+	 * Each item is checked individually, so failures are identified precisely.
+	 * 
+	 * @param signatures Signatures to verify
+	 * @param messages Messages that were signed
+	 * @param publicKeys Public keys of signers
+	 * @return Array of results, true where the corresponding signature is valid
+	 */
+	public static boolean[] verifyBatch(ASignature[] signatures, ABlob[] messages, AccountKey[] publicKeys) {
+		int n=signatures.length;
+		if ((messages.length!=n)||(publicKeys.length!=n)) throw new IllegalArgumentException("Mismatched batch lengths");
+		boolean[] results=new boolean[n];
+		if (n<PARALLEL_BATCH_THRESHOLD) {
+			for (int i=0; i<n; i++) {
+				results[i]=SignatureCache.verify(signatures[i], messages[i], publicKeys[i]);
+			}
+		} else {
+			IntStream.range(0, n).parallel().forEach(i->{
+				results[i]=SignatureCache.verify(signatures[i], messages[i], publicKeys[i]);
+			});
+		}
+		return results;
+	}
+	
 //	private boolean verify(Hash hash, PublicKey publicKey) {
 //		try {
 //			Signature verifier = Signature.getInstance("Ed25519");
@@ -0,0 +1,92 @@
+package convex.core.crypto;
+
+import convex.core.data.ABlob;
+import convex.core.data.AccountKey;
+import convex.core.util.Counters;
+
+/**
+ * Global in-memory cache of successful signature verifications, keyed by
+ * (public key, message, signature).
+ *
+ * Avoids repeated verification of the same signed data when it is decoded again,
+ * e.g. Orders repeated in rebroadcast Beliefs. Only valid signatures are cached.
+ *
+ * Direct mapped and lock-free: entries are immutable and slots are overwritten on
+ * collision, so concurrent readers may miss but never see an invalid hit.
+ */
+public final class SignatureCache {
+
+	/**
+	 * Number of slots in the cache. Must be a power of 2.
+	 */
+	static final int CACHE_SIZE = 32768;
+
+	private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+	private static final class Entry {
+		final AccountKey publicKey;
+		final ABlob message;
+		final ABlob signature;
+
+		Entry(AccountKey publicKey, ABlob message, ABlob signature) {
+			this.publicKey = publicKey;
+			this.message = message;
+			this.signature = signature;
+		}
+	}
+
+	private SignatureCache() {}
+
+	/**
+	 * Verifies a signature, using the cache if a previous successful verification is held.
+	 *
+	 * @param signature Signature to check
+	 * @param message Message that was signed (usually a Hash)
+	 * @param publicKey Public key of signer
+	 * @return True if signature is valid, false otherwise
+	 */
+	public static boolean verify(ASignature signature, ABlob message, AccountKey publicKey) {
+		ABlob sigBlob = signature.getSignatureBlob();
+		int ix = calcIndex(message, publicKey);
+		Entry e = cache[ix];
+		if ((e != null) && e.message.equals(message) && e.publicKey.equals(publicKey) && e.signature.equals(sigBlob)) {
+			Counters.signatureCacheHit++;
+			return true;
+		}
+
+		Counters.signatureCacheMiss++;
+		boolean verified = signature.verify(message, publicKey);
+		if (verified) {
+			cache[ix] = new Entry(publicKey, message, sigBlob);
+		}
+		return verified;
+	}
+
+	/**
+	 * Checks if a successful verification is cached, without performing any verification.
+	 *
+	 * @param signature Signature to check
+	 * @param message Message that was signed (usually a Hash)
+	 * @param publicKey Public key of signer
+	 * @return True if a successful verification is cached, false otherwise
+	 */
+	public static boolean isCached(ASignature signature, ABlob message, AccountKey publicKey) {
+		Entry e = cache[calcIndex(message, publicKey)];
+		if (e == null) return false;
+		return e.message.equals(message) && e.publicKey.equals(publicKey) && e.signature.equals(signature.getSignatureBlob());
+	}
+
+	/**
+	 * Clears all entries in the cache
+	 */
+	public static void clear() {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			cache[i] = null;
+		}
+	}
+
+	private static int calcIndex(ABlob message, AccountKey publicKey) {
+		long h = message.toLong() ^ publicKey.toLong();
+		return Long.hashCode(h) & (CACHE_SIZE - 1);
+	}
+}
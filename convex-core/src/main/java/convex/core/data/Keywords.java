@@ -91,4 +91,12 @@ public class Keywords {
 	public static final Keyword TIMEOUT = Keyword.create("timeout");
 	public static final Keyword EVENT_HOOK = Keyword.create("event-hook");
 	public static final Keyword STATIC = Keyword.create("static");
+	public static final Keyword VERIFY_THREADS = Keyword.create("verify-threads");
+	public static final Keyword RETAIN_STATES = Keyword.create("retain-states");
+	public static final Keyword RETAIN_TIME = Keyword.create("retain-time");
+	public static final Keyword SELECTOR_THREADS = Keyword.create("selector-threads");
+	public static final Keyword RECEIVE_CHUNK_SIZE = Keyword.create("receive-chunk-size");
+	public static final Keyword GC_INTERVAL = Keyword.create("gc-interval");
+	public static final Keyword SNAPSHOT = Keyword.create("snapshot");
+	public static final Keyword SNAPSHOT_PEERS = Keyword.create("snapshot-peers");
 }
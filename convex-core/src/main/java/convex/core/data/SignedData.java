@@ -1,10 +1,13 @@
 package convex.core.data;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 
 import convex.core.crypto.AKeyPair;
 import convex.core.crypto.ASignature;
 import convex.core.crypto.Ed25519Signature;
+import convex.core.crypto.SignatureCache;
 import convex.core.exceptions.BadFormatException;
 import convex.core.exceptions.BadSignatureException;
 import convex.core.exceptions.InvalidDataException;
@@ -196,7 +199,7 @@ public class SignedData<T extends ACell> extends ACell {
 		if ((flags&Ref.VERIFIED_MASK)!=0) return true;
 
 		Hash hash=valueRef.getHash();
-		boolean check = signature.verify(hash, publicKey);
+		boolean check = SignatureCache.verify(signature, hash, publicKey);
 
 		if (check) {
 			markValidated();
@@ -206,6 +209,46 @@ public class SignedData<T extends ACell> extends ACell {
 		return check;
 	}
 	
+	/**
+	 * Validates the signatures of a collection of SignedData instances in one batch.
+	 * Results are cached in the same way as {@link #checkSignature()}, so subsequent
+	 * individual checks are cheap.
+	 *
+	 * @param items SignedData instances to check. Already checked instances are skipped.
+	 * @return Number of invalid signatures found in this batch
+	 */
+	public static int checkSignatures(Collection<? extends SignedData<?>> items) {
+		ArrayList<SignedData<?>> unchecked=new ArrayList<>(items.size());
+		for (SignedData<?> sd: items) {
+			if (!sd.isSignatureChecked()) unchecked.add(sd);
+		}
+		int n=unchecked.size();
+		if (n==0) return 0;
+		
+		ASignature[] sigs=new ASignature[n];
+		ABlob[] messages=new ABlob[n];
+		AccountKey[] keys=new AccountKey[n];
+		for (int i=0; i<n; i++) {
+			SignedData<?> sd=unchecked.get(i);
+			sigs[i]=sd.signature;
+			messages[i]=sd.valueRef.getHash();
+			keys[i]=sd.publicKey;
+		}
+		
+		boolean[] results=ASignature.verifyBatch(sigs, messages, keys);
+		int bad=0;
+		for (int i=0; i<n; i++) {
+			SignedData<?> sd=unchecked.get(i);
+			if (results[i]) {
+				sd.markValidated();
+			} else {
+				sd.markBadSignature();
+				bad++;
+			}
+		}
+		return bad;
+	}
+	
 	/**
 	 * Checks if the signature has already gone through verification. MAy or may 
 	 * not be a valid signature.
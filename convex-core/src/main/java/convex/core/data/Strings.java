@@ -21,6 +21,7 @@ public class Strings {
 	
 	public static final StringShort BAD_SIGNATURE = StringShort.create("Bad Signature!");
 	public static final StringShort BAD_FORMAT = StringShort.create("Bad Massage Format!");
+	public static final StringShort PEER_OVERLOADED = StringShort.create("Peer overloaded");
 	
 	public static final StringShort COLON = StringShort.create(":");
 	public static final StringShort HEX_PREFIX = StringShort.create("0x");
@@ -0,0 +1,616 @@
+package convex.core.lang;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.Constants;
+import convex.core.data.ACell;
+import convex.core.data.AVector;
+import convex.core.data.Hash;
+import convex.core.data.type.Types;
+import convex.core.lang.impl.RecurValue;
+import convex.core.lang.ops.AMultiOp;
+import convex.core.lang.ops.Let;
+import convex.core.util.Counters;
+
+/**
+ * Compiler from CVM Op trees to JVM bytecode, used for the bodies of frequently invoked functions.
+ *
+ * Each Op in the tree becomes a method of a generated class, so child Ops are called directly
+ * rather than by virtual dispatch through Refs. Invoke, Cond, Do and Let (including loops) are
+ * compiled, other Ops are executed by calling the original Op. Generated code performs the same
+ * sequence of Context operations as the interpreter, so juice, depth limits and results are
+ * identical.
+ *
+ * Compiled classes are cached by the Hash of the Op, in a direct mapped cache. Each class has its
+ * own ClassLoader, so it can be unloaded after eviction.
+ *
+ * Compilation is optional and disabled by default, so the interpreter executes consensus
+ * transactions unless enabled with {@link #setThreshold(int)}.
+ */
+public final class BytecodeCompiler {
+
+	private static final Logger log = LoggerFactory.getLogger(BytecodeCompiler.class.getName());
+
+	/**
+	 * Number of slots in the cache. Must be a power of 2.
+	 */
+	static final int CACHE_SIZE = 1024;
+
+	private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+	private static volatile int threshold = Constants.FN_COMPILE_THRESHOLD;
+
+	private static long classCount = 0;
+
+	private static final class Entry {
+		final Hash hash;
+		final Compiled compiled;
+
+		Entry(Hash hash, Compiled compiled) {
+			this.hash = hash;
+			this.compiled = compiled;
+		}
+	}
+
+	/**
+	 * Base class for generated code. Generated classes implement execute with the same
+	 * semantics as Context.execute for the compiled Op.
+	 */
+	public abstract static class Compiled {
+		/**
+		 * Ops by node index, for Ops executed by the interpreter
+		 */
+		protected final AOp<?>[] ops;
+
+		/**
+		 * Constant values used by generated code
+		 */
+		protected final ACell[] consts;
+
+		protected Compiled(AOp<?>[] ops, ACell[] consts) {
+			this.ops = ops;
+			this.consts = consts;
+		}
+
+		/**
+		 * Executes the compiled Op
+		 * @param ctx Context to execute in
+		 * @return Updated Context
+		 */
+		public abstract Context<?> execute(Context<?> ctx);
+	}
+
+	private BytecodeCompiler() {}
+
+	/**
+	 * Gets the number of invocations of a function before its body is compiled
+	 * @return Threshold, or 0 if compilation is disabled
+	 */
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Sets the number of invocations of a function before its body is compiled
+	 * @param newThreshold New threshold, or 0 to disable compilation
+	 */
+	public static void setThreshold(int newThreshold) {
+		threshold = Math.max(0, newThreshold);
+	}
+
+	/**
+	 * Gets compiled code for an Op, from the cache if available
+	 * @param op Op to compile
+	 * @return Compiled code, or null if the Op can't be compiled
+	 */
+	public static Compiled compile(AOp<?> op) {
+		Hash hash = op.getHash();
+		int ix = hash.hashCode() & (CACHE_SIZE - 1);
+		Entry e = cache[ix];
+		if ((e != null) && e.hash.equals(hash)) return e.compiled;
+
+		Compiled compiled = null;
+		try {
+			compiled = new Generator().generate(op);
+			Counters.compiledFns++;
+		} catch (Throwable t) {
+			// interpreter is still correct, so just don't compile this Op again
+			log.debug("Failed to compile Op {}: {}", hash, t.getMessage());
+			Counters.compileFailures++;
+		}
+		cache[ix] = new Entry(hash, compiled);
+		return compiled;
+	}
+
+	/**
+	 * Clears all entries in the cache
+	 */
+	public static void clear() {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			cache[i] = null;
+		}
+	}
+
+	// Support methods called by generated code
+
+	/**
+	 * Sets the depth of a Context, as in Context.execute.
+	 * @param ctx Context
+	 * @param depth New depth
+	 * @return Updated Context, exceptional if depth limit exceeded
+	 */
+	public static Context<?> withDepth(Context<?> ctx, int depth) {
+		return ctx.withDepth(depth);
+	}
+
+	/**
+	 * Gets the cast error for a non-function in an Invoke
+	 * @param ctx Context of Invoke
+	 * @return Exceptional Context
+	 */
+	public static Context<?> castFunctionError(Context<?> ctx) {
+		return ctx.withCastError(0, Types.FUNCTION);
+	}
+
+	/**
+	 * Gets recur values from a Context, as in a Let loop
+	 * @param ctx Context
+	 * @return Recur values, or null if the Context doesn't hold a RecurValue
+	 */
+	public static ACell[] recurValues(Context<?> ctx) {
+		Object o = ctx.getValue();
+		if (o instanceof RecurValue) return ((RecurValue) o).getValues();
+		return null;
+	}
+
+	/**
+	 * Gets the arity error for a recur with the wrong number of values in a Let loop
+	 * @param ctx Context
+	 * @param bindingCount Number of bindings in loop
+	 * @param values Recur values
+	 * @return Exceptional Context
+	 */
+	public static Context<?> recurArityError(Context<?> ctx, int bindingCount, ACell[] values) {
+		return ctx.withArityError("Expected " + bindingCount + " value(s) for recur but got: " + values.length);
+	}
+
+	/**
+	 * ClassLoader for a single generated class, so the class can be unloaded
+	 */
+	private static final class Loader extends ClassLoader {
+		Loader() {
+			super(BytecodeCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Generates a class for a single Op tree
+	 */
+	private static final class Generator implements Opcodes {
+		private static final String CONTEXT = Type.getInternalName(Context.class);
+		private static final String OP_DESC = "(L" + CONTEXT + ";)L" + CONTEXT + ";";
+		private static final String BASE = Type.getInternalName(Compiled.class);
+
+		// local variable slots in generated methods
+		private static final int THIS = 0;
+		private static final int CTX = 1;
+		private static final int C = 2;
+		private static final int AUX = 3;
+		private static final int ARGS = 4;
+
+		private final ArrayList<AOp<?>> nodes = new ArrayList<>();
+		private final ArrayList<ACell> consts = new ArrayList<>();
+		private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+		private final String name;
+
+		private final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+			@Override
+			protected String getCommonSuperClass(String a, String b) {
+				if (a.equals(b)) return a;
+				return "java/lang/Object";
+			}
+		};
+
+		Generator() {
+			long n;
+			synchronized (BytecodeCompiler.class) {
+				n = ++classCount;
+			}
+			name = "convex/core/lang/compiled/Op" + n;
+		}
+
+		Compiled generate(AOp<?> op) throws ReflectiveOperationException {
+			cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, BASE, null);
+			generateConstructor();
+
+			int root = node(op);
+			while (!pending.isEmpty()) {
+				int k = pending.poll();
+				generateWrapper(k);
+				generateBody(k);
+			}
+
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "execute", OP_DESC, null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitVarInsn(ALOAD, CTX);
+			mv.visitMethodInsn(INVOKESPECIAL, name, "op" + root, OP_DESC, false);
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+			cw.visitEnd();
+
+			Class<?> c = new Loader().define(name.replace('/', '.'), cw.toByteArray());
+			AOp<?>[] opArray = nodes.toArray(new AOp<?>[nodes.size()]);
+			ACell[] constArray = consts.toArray(new ACell[consts.size()]);
+			return (Compiled) c.getConstructor(AOp[].class, ACell[].class).newInstance(opArray, constArray);
+		}
+
+		private void generateConstructor() {
+			String desc = "([L" + Type.getInternalName(AOp.class) + ";[L" + Type.getInternalName(ACell.class) + ";)V";
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", desc, null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", desc, false);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		/**
+		 * Adds a node for an Op, to be generated later
+		 */
+		private int node(AOp<?> op) {
+			int k = nodes.size();
+			if (k >= Constants.FN_COMPILE_MAX_OPS) throw new IllegalStateException("Too many Ops to compile");
+			nodes.add(op);
+			pending.add(k);
+			return k;
+		}
+
+		private int constant(ACell value) {
+			consts.add(value);
+			return consts.size() - 1;
+		}
+
+		/**
+		 * Generates the method for executing node k with adjusted depth, as Context.execute
+		 */
+		private void generateWrapper(int k) throws ReflectiveOperationException {
+			MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "op" + k, OP_DESC, null, null);
+			mv.visitCode();
+			// int saved = ctx.getDepth() is held in the AUX slot
+			mv.visitVarInsn(ALOAD, CTX);
+			call(mv, Context.class, "getDepth");
+			mv.visitVarInsn(ISTORE, AUX);
+			mv.visitVarInsn(ALOAD, CTX);
+			mv.visitVarInsn(ILOAD, AUX);
+			mv.visitInsn(ICONST_1);
+			mv.visitInsn(IADD);
+			call(mv, BytecodeCompiler.class, "withDepth", Context.class, int.class);
+			mv.visitVarInsn(ASTORE, C);
+			returnIfExceptional(mv, C);
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitVarInsn(ALOAD, C);
+			mv.visitMethodInsn(INVOKESPECIAL, name, "body" + k, OP_DESC, false);
+			mv.visitVarInsn(ILOAD, AUX);
+			call(mv, BytecodeCompiler.class, "withDepth", Context.class, int.class);
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		/**
+		 * Generates the method for executing the Op of node k, as AOp.execute
+		 */
+		private void generateBody(int k) throws ReflectiveOperationException {
+			AOp<?> op = nodes.get(k);
+			MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "body" + k, OP_DESC, null, null);
+			mv.visitCode();
+			switch (op.opCode()) {
+			case Ops.INVOKE:
+				generateInvoke(mv, ((AMultiOp<?>) op).getOps());
+				break;
+			case Ops.COND:
+				generateCond(mv, ((AMultiOp<?>) op).getOps());
+				break;
+			case Ops.DO:
+				generateDo(mv, ((AMultiOp<?>) op).getOps());
+				break;
+			case Ops.LET:
+				generateLet(mv, (Let<?>) op);
+				break;
+			default:
+				generateInterpreted(mv, k, op);
+			}
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		private void generateInterpreted(MethodVisitor mv, int k, AOp<?> op) {
+			String owner = Type.getInternalName(op.getClass());
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitFieldInsn(GETFIELD, name, "ops", "[L" + Type.getInternalName(AOp.class) + ";");
+			pushInt(mv, k);
+			mv.visitInsn(AALOAD);
+			mv.visitTypeInsn(CHECKCAST, owner);
+			mv.visitVarInsn(ALOAD, CTX);
+			mv.visitMethodInsn(INVOKEVIRTUAL, owner, "execute", OP_DESC, false);
+			mv.visitInsn(ARETURN);
+		}
+
+		private void generateInvoke(MethodVisitor mv, AVector<AOp<ACell>> ops) throws ReflectiveOperationException {
+			int[] children = children(ops, 0);
+			int arity = children.length - 1;
+
+			executeChild(mv, CTX, children[0]);
+			returnIfExceptional(mv, C);
+
+			mv.visitVarInsn(ALOAD, C);
+			call(mv, Context.class, "getResult");
+			call(mv, RT.class, "castFunction", ACell.class);
+			mv.visitVarInsn(ASTORE, AUX);
+			Label isFn = new Label();
+			mv.visitVarInsn(ALOAD, AUX);
+			mv.visitJumpInsn(IFNONNULL, isFn);
+			mv.visitVarInsn(ALOAD, CTX);
+			call(mv, BytecodeCompiler.class, "castFunctionError", Context.class);
+			mv.visitInsn(ARETURN);
+			mv.visitLabel(isFn);
+
+			pushInt(mv, arity);
+			mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(ACell.class));
+			mv.visitVarInsn(ASTORE, ARGS);
+			for (int i = 0; i < arity; i++) {
+				executeChild(mv, C, children[i + 1]);
+				returnIfExceptional(mv, C);
+				mv.visitVarInsn(ALOAD, ARGS);
+				pushInt(mv, i);
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, Context.class, "getResult");
+				mv.visitInsn(AASTORE);
+			}
+
+			mv.visitVarInsn(ALOAD, C);
+			mv.visitVarInsn(ALOAD, AUX);
+			mv.visitVarInsn(ALOAD, ARGS);
+			call(mv, Context.class, "invoke", AFn.class, ACell[].class);
+			mv.visitInsn(ARETURN);
+		}
+
+		private void generateCond(MethodVisitor mv, AVector<AOp<ACell>> ops) throws ReflectiveOperationException {
+			int[] children = children(ops, 0);
+			int n = children.length;
+
+			consumeJuice(mv, Juice.COND_OP);
+			returnIfExceptional(mv, C);
+			for (int i = 0; i < (n - 1); i += 2) {
+				executeChild(mv, C, children[i]);
+				returnIfExceptional(mv, C);
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, Context.class, "getResult");
+				call(mv, RT.class, "bool", ACell.class);
+				Label next = new Label();
+				mv.visitJumpInsn(IFEQ, next);
+				executeChild(mv, C, children[i + 1]);
+				mv.visitVarInsn(ALOAD, C);
+				mv.visitInsn(ARETURN);
+				mv.visitLabel(next);
+			}
+			if ((n & 1) == 0) {
+				mv.visitVarInsn(ALOAD, C);
+				mv.visitInsn(ACONST_NULL);
+				call(mv, Context.class, "withResult", ACell.class);
+			} else {
+				executeChild(mv, C, children[n - 1]);
+				mv.visitVarInsn(ALOAD, C);
+			}
+			mv.visitInsn(ARETURN);
+		}
+
+		private void generateDo(MethodVisitor mv, AVector<AOp<ACell>> ops) throws ReflectiveOperationException {
+			int[] children = children(ops, 0);
+			int n = children.length;
+			if (n == 0) {
+				mv.visitVarInsn(ALOAD, CTX);
+				mv.visitLdcInsn(Juice.DO);
+				mv.visitInsn(ACONST_NULL);
+				call(mv, Context.class, "withResult", long.class, ACell.class);
+				mv.visitInsn(ARETURN);
+				return;
+			}
+
+			consumeJuice(mv, Juice.DO);
+			returnIfExceptional(mv, C);
+			for (int i = 0; i < n; i++) {
+				executeChild(mv, C, children[i]);
+				if (i < n - 1) returnIfExceptional(mv, C);
+			}
+			mv.visitVarInsn(ALOAD, C);
+			mv.visitInsn(ARETURN);
+		}
+
+		private void generateLet(MethodVisitor mv, Let<?> let) throws ReflectiveOperationException {
+			AVector<AOp<ACell>> ops = let.getOps();
+			AVector<ACell> symbols = let.getSymbols();
+			int bindingCount = symbols.size();
+			int[] children = children(ops, 0);
+			Label exit = new Label();
+
+			consumeJuice(mv, Juice.LET);
+			returnIfExceptional(mv, C);
+			mv.visitVarInsn(ALOAD, C);
+			call(mv, Context.class, "saveLocals");
+			mv.visitVarInsn(ASTORE, AUX);
+			mv.visitVarInsn(ALOAD, C);
+			call(mv, Context.class, "startScope");
+
+			for (int i = 0; i < bindingCount; i++) {
+				executeChild(mv, C, children[i]);
+				jumpIfExceptional(mv, C, exit);
+				mv.visitVarInsn(ALOAD, C);
+				pushConstant(mv, symbols.get(i));
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, Context.class, "getResult");
+				call(mv, Context.class, "updateBindings", ACell.class, Object.class);
+				mv.visitVarInsn(ASTORE, C);
+				jumpIfExceptional(mv, C, exit);
+			}
+
+			generateLetBody(mv, children, bindingCount);
+
+			if (let.isLoop()) {
+				Label loop = new Label();
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, Context.class, "isExceptional");
+				mv.visitJumpInsn(IFEQ, exit);
+
+				mv.visitLabel(loop);
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, BytecodeCompiler.class, "recurValues", Context.class);
+				mv.visitVarInsn(ASTORE, ARGS);
+				mv.visitVarInsn(ALOAD, ARGS);
+				mv.visitJumpInsn(IFNULL, exit);
+
+				Label arityOK = new Label();
+				mv.visitVarInsn(ALOAD, ARGS);
+				mv.visitInsn(ARRAYLENGTH);
+				pushInt(mv, bindingCount);
+				mv.visitJumpInsn(IF_ICMPEQ, arityOK);
+				mv.visitVarInsn(ALOAD, C);
+				pushInt(mv, bindingCount);
+				mv.visitVarInsn(ALOAD, ARGS);
+				call(mv, BytecodeCompiler.class, "recurArityError", Context.class, int.class, ACell[].class);
+				mv.visitVarInsn(ASTORE, C);
+				mv.visitJumpInsn(GOTO, exit);
+				mv.visitLabel(arityOK);
+
+				// restore old lexical environment, then add back new ones
+				mv.visitVarInsn(ALOAD, C);
+				mv.visitVarInsn(ALOAD, AUX);
+				call(mv, Context.class, "restoreLocals", Context.Locals.class);
+				mv.visitVarInsn(ASTORE, C);
+				mv.visitVarInsn(ALOAD, C);
+				call(mv, Context.class, "startScope");
+				mv.visitVarInsn(ALOAD, C);
+				pushConstant(mv, symbols);
+				mv.visitVarInsn(ALOAD, ARGS);
+				call(mv, Context.class, "updateBindings", ACell.class, Object.class);
+				mv.visitVarInsn(ASTORE, C);
+				jumpIfExceptional(mv, C, exit);
+
+				generateLetBody(mv, children, bindingCount);
+				mv.visitJumpInsn(GOTO, loop);
+			}
+
+			mv.visitLabel(exit);
+			mv.visitVarInsn(ALOAD, C);
+			mv.visitVarInsn(ALOAD, AUX);
+			call(mv, Context.class, "restoreLocals", Context.Locals.class);
+			mv.visitInsn(ARETURN);
+		}
+
+		/**
+		 * Generates the body of a Let as Let.executeBody, leaving the result in C
+		 */
+		private void generateLetBody(MethodVisitor mv, int[] children, int bindingCount) throws ReflectiveOperationException {
+			int end = children.length;
+			if (bindingCount == end) {
+				mv.visitVarInsn(ALOAD, C);
+				mv.visitInsn(ACONST_NULL);
+				call(mv, Context.class, "withResult", ACell.class);
+				mv.visitVarInsn(ASTORE, C);
+				return;
+			}
+			Label done = new Label();
+			for (int i = bindingCount; i < end; i++) {
+				executeChild(mv, C, children[i]);
+				if (i < end - 1) jumpIfExceptional(mv, C, done);
+			}
+			mv.visitLabel(done);
+		}
+
+		private int[] children(AVector<AOp<ACell>> ops, int start) {
+			int n = ops.size();
+			int[] result = new int[n - start];
+			for (int i = start; i < n; i++) {
+				result[i - start] = node(ops.get(i));
+			}
+			return result;
+		}
+
+		/**
+		 * Executes a child node with the Context in the given slot, storing the result in C
+		 */
+		private void executeChild(MethodVisitor mv, int slot, int k) {
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitVarInsn(ALOAD, slot);
+			mv.visitMethodInsn(INVOKESPECIAL, name, "op" + k, OP_DESC, false);
+			mv.visitVarInsn(ASTORE, C);
+		}
+
+		/**
+		 * Consumes juice from the Context in CTX, storing the result in C
+		 */
+		private void consumeJuice(MethodVisitor mv, long juice) throws ReflectiveOperationException {
+			mv.visitVarInsn(ALOAD, CTX);
+			mv.visitLdcInsn(juice);
+			call(mv, Context.class, "consumeJuice", long.class);
+			mv.visitVarInsn(ASTORE, C);
+		}
+
+		private void returnIfExceptional(MethodVisitor mv, int slot) throws ReflectiveOperationException {
+			Label ok = new Label();
+			mv.visitVarInsn(ALOAD, slot);
+			call(mv, Context.class, "isExceptional");
+			mv.visitJumpInsn(IFEQ, ok);
+			mv.visitVarInsn(ALOAD, slot);
+			mv.visitInsn(ARETURN);
+			mv.visitLabel(ok);
+		}
+
+		private void jumpIfExceptional(MethodVisitor mv, int slot, Label target) throws ReflectiveOperationException {
+			mv.visitVarInsn(ALOAD, slot);
+			call(mv, Context.class, "isExceptional");
+			mv.visitJumpInsn(IFNE, target);
+		}
+
+		private void pushConstant(MethodVisitor mv, ACell value) {
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitFieldInsn(GETFIELD, name, "consts", "[L" + Type.getInternalName(ACell.class) + ";");
+			pushInt(mv, constant(value));
+			mv.visitInsn(AALOAD);
+		}
+
+		private static void pushInt(MethodVisitor mv, int value) {
+			mv.visitLdcInsn(value);
+		}
+
+		/**
+		 * Calls a public method, finding its descriptor by reflection
+		 */
+		private static void call(MethodVisitor mv, Class<?> owner, String method, Class<?>... params) throws ReflectiveOperationException {
+			Method m = owner.getMethod(method, params);
+			boolean isStatic = Modifier.isStatic(m.getModifiers());
+			mv.visitMethodInsn(isStatic ? INVOKESTATIC : INVOKEVIRTUAL, Type.getInternalName(owner), method,
+					Type.getMethodDescriptor(m), false);
+		}
+	}
+}
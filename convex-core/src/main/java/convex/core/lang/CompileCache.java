@@ -0,0 +1,111 @@
+package convex.core.lang;
+
+import convex.core.State;
+import convex.core.data.ACell;
+import convex.core.data.AHashMap;
+import convex.core.data.AccountStatus;
+import convex.core.data.Address;
+import convex.core.data.Symbol;
+import convex.core.init.Init;
+import convex.core.util.Counters;
+
+/**
+ * Global in-memory cache of compiled forms, keyed by (form, address, environments used for
+ * expansion), so that forms sent repeatedly (e.g. balance checks in queries) are only expanded
+ * and compiled once.
+ *
+ * Expansion depends on the environment and metadata of the current account and the core account,
+ * which are compared by identity. A compiled form is only cached if expansion used only core
+ * expanders, which depend only on the form. A cache hit consumes the same juice as the original
+ * expansion and compilation, so results are identical with or without the cache.
+ *
+ * Direct mapped and lock-free: entries are immutable and slots are overwritten on collision.
+ */
+public final class CompileCache {
+
+	/**
+	 * Number of slots in the cache. Must be a power of 2.
+	 */
+	static final int CACHE_SIZE = 4096;
+
+	private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+	private static final class Entry {
+		final ACell form;
+		final Address address;
+		final AHashMap<Symbol, ACell> env;
+		final AHashMap<Symbol, AHashMap<ACell, ACell>> meta;
+		final AHashMap<Symbol, ACell> coreEnv;
+		final AHashMap<Symbol, AHashMap<ACell, ACell>> coreMeta;
+		final AOp<?> op;
+		final long juice;
+
+		Entry(ACell form, Address address, AccountStatus as, AccountStatus core, AOp<?> op, long juice) {
+			this.form = form;
+			this.address = address;
+			this.env = as.getEnvironment();
+			this.meta = as.getMetadata();
+			this.coreEnv = core.getEnvironment();
+			this.coreMeta = core.getMetadata();
+			this.op = op;
+			this.juice = juice;
+		}
+
+		boolean matches(ACell form, Address address, AccountStatus as, AccountStatus core) {
+			return (env == as.getEnvironment()) && (meta == as.getMetadata()) && (coreEnv == core.getEnvironment())
+					&& (coreMeta == core.getMetadata()) && this.address.equals(address) && this.form.equals(form);
+		}
+	}
+
+	private CompileCache() {}
+
+	/**
+	 * Expands and compiles a form in the given Context, using the cache if a previous compilation
+	 * of the form with the same environments is held. Equivalent to Context.expandCompile.
+	 *
+	 * @param <R> Return type of compiled op
+	 * @param ctx Context in which to compile
+	 * @param form Form to expand and compile
+	 * @return Updated Context with compiled Op as result
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R extends ACell> Context<AOp<R>> expandCompile(Context<?> ctx, ACell form) {
+		// Only top level compilation is cached, since depth and compiler state may affect results
+		if ((form == null) || (ctx.getDepth() != 0) || (ctx.getCompilerState() != null)) return ctx.expandCompile(form);
+		Address address = ctx.getAddress();
+		AccountStatus as = ctx.getAccountStatus();
+		AccountStatus core = ctx.getAccountStatus(Init.CORE_ADDRESS);
+		if ((as == null) || (core == null)) return ctx.expandCompile(form);
+
+		int ix = calcIndex(form, address);
+		Entry e = cache[ix];
+		if ((e != null) && (ctx.getJuice() >= e.juice) && e.matches(form, address, as, core)) {
+			Counters.compileCacheHit++;
+			Context<AOp<R>> rctx = ctx.consumeJuice(e.juice);
+			return rctx.withResult((AOp<R>) e.op);
+		}
+
+		Counters.compileCacheMiss++;
+		long juice = ctx.getJuice();
+		State state = ctx.getState();
+		ctx.setUncachedExpansion(false);
+		Context<AOp<R>> rctx = ctx.expandCompile(form);
+		if (rctx.isExceptional() || rctx.isUncachedExpansion() || (rctx.getState() != state)) return rctx;
+		cache[ix] = new Entry(form, address, as, core, rctx.getResult(), juice - rctx.getJuice());
+		return rctx;
+	}
+
+	/**
+	 * Clears all entries in the cache
+	 */
+	public static void clear() {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			cache[i] = null;
+		}
+	}
+
+	private static int calcIndex(ACell form, Address address) {
+		long h = form.getHash().toLong() ^ address.longValue();
+		return Long.hashCode(h) & (CACHE_SIZE - 1);
+	}
+}
@@ -1,5 +1,7 @@
 package convex.core.lang;
 
+import java.util.Arrays;
+
 import convex.core.Constants;
 import convex.core.ErrorCodes;
 import convex.core.State;
@@ -93,9 +95,29 @@ public class Context<T extends ACell> extends AObject {
 	private T result;
 	private AExceptional exception;
 	private int depth;
+
+	/**
+	 * Local bindings held in a persistent vector, e.g. the lexical environment of a closure
+	 */
 	private AVector<ACell> localBindings;
+
+	/**
+	 * Mutable frame of local bindings following localBindings, or null if none. Slots at or
+	 * above frameFloor belong to the innermost binding scope and may be updated in place. The
+	 * frame is copied before updating other slots, since they may be restored on scope exit.
+	 */
+	private ACell[] frame;
+	private int frameCount;
+	private long frameFloor;
+
 	private ChainState chainState;
 
+	/**
+	 * Set if expansion used an expander not defined in the core account, so the compiled
+	 * form can't be cached
+	 */
+	private boolean uncachedExpansion=false;
+
 	/**
 	 * Local log is a [vector of [address values] entries]
 	 */
@@ -216,10 +238,6 @@ public class Context<T extends ACell> extends AObject {
 			return withState(newState);
 		}
 
-		private ChainState withAccounts(AVector<AccountStatus> newAccounts) {
-			return withState(state.withAccounts(newAccounts));
-		}
-
 		public AHashMap<Symbol, AHashMap<ACell, ACell>> getMetadata() {
 			if (metadata==null) return Maps.empty();
 			return metadata;
@@ -448,6 +466,33 @@ public class Context<T extends ACell> extends AObject {
 		return chainState.getEnvironment();
 	}
 
+	/**
+	 * Gets the Environment for the given Address. Avoids a lookup in the State if the
+	 * Address is the current Address.
+	 * @param address Address of Account
+	 * @return Environment map, or null if the Account does not exist
+	 */
+	public AHashMap<Symbol,ACell> getEnvironment(Address address) {
+		if (address==null) return null;
+		// current environment defaults to core environment if no Account, so check in State
+		AHashMap<Symbol,ACell> env=chainState.environment;
+		if (address.equals(getAddress())&&(env!=Core.ENVIRONMENT)) return env;
+		AccountStatus as=getAccountStatus(address);
+		if (as==null) return null;
+		return as.getEnvironment();
+	}
+
+	/**
+	 * Gets the Environment of the core Account, used to resolve symbols not defined in
+	 * an Account's own Environment
+	 * @return Environment map, or null if the core Account does not exist
+	 */
+	public AHashMap<Symbol,ACell> getCoreEnvironment() {
+		AccountStatus as=getCoreAccount();
+		if (as==null) return null;
+		return as.getEnvironment();
+	}
+
 	/**
 	 * Gets the compiler state
 	 * @return CompilerState instance
@@ -1031,7 +1076,7 @@ public class Context<T extends ACell> extends AObject {
 			Symbol sym=(Symbol)bindingForm;
 			if (sym.equals(Symbols.UNDERSCORE)) return ctx;
 			// TODO: confirm must be an ACell at this point?
-			return withLocalBindings(localBindings.conj((ACell)args));
+			return appendLocal((ACell)args);
 		} else if (bindingForm instanceof AVector) {
 			AVector<ACell> v=(AVector<ACell>)bindingForm;
 			long vcount=v.count(); // count of binding form symbols (may include & etc.)
@@ -1097,8 +1142,49 @@ public class Context<T extends ACell> extends AObject {
 		return bb.check(limit);
 	}
 
+	/**
+	 * Gets the local bindings as a persistent vector. Copies the current frame, if any, e.g.
+	 * when a closure captures the local bindings.
+	 * @return Vector of local bindings
+	 */
 	public AVector<ACell> getLocalBindings() {
-		return localBindings;
+		if (frameCount==0) return localBindings;
+		return localBindings.concat(Vectors.create(frame, 0, frameCount));
+	}
+
+	/**
+	 * Gets the number of local bindings
+	 * @return Number of local bindings
+	 */
+	public long getLocalCount() {
+		return localBindings.count()+frameCount;
+	}
+
+	/**
+	 * Gets the value of a local binding
+	 * @param position Position of local binding, must be valid
+	 * @return Value of local binding
+	 */
+	public ACell getLocal(long position) {
+		long bc=localBindings.count();
+		if (position<bc) return localBindings.get(position);
+		return frame[(int)(position-bc)];
+	}
+
+	/**
+	 * Sets the value of a local binding, which lasts until the innermost binding scope exits.
+	 * @param position Position of local binding, must be valid
+	 * @param value New value
+	 */
+	public void setLocal(long position, ACell value) {
+		long bc=localBindings.count();
+		if (position<bc) {
+			localBindings=localBindings.assoc(position, value);
+			return;
+		}
+		// copy frame if slot belongs to an enclosing scope, which may restore the frame
+		if (position<frameFloor) frame=frame.clone();
+		frame[(int)(position-bc)]=value;
 	}
 
 	/**
@@ -1112,6 +1198,83 @@ public class Context<T extends ACell> extends AObject {
 		//if (localBindings==newBindings) return (Context<R>) this;
 		//return create(chainState,juice,newBindings,(R)result,depth);
 		localBindings=newBindings;
+		frame=null;
+		frameCount=0;
+		frameFloor=0;
+		return (Context<R>) this;
+	}
+
+	/**
+	 * Starts a new local binding frame for a function invocation, with the given persistent
+	 * bindings (e.g. a closure's lexical environment) followed by an empty frame.
+	 * @param <R> Return type of Context
+	 * @param newBindings Persistent local bindings to use
+	 * @param frameSize Expected number of local bindings in the frame
+	 * @return Updated context
+	 */
+	public <R extends ACell> Context<R> withLocalFrame(AVector<ACell> newBindings, int frameSize) {
+		Context<R> ctx=withLocalBindings(newBindings);
+		if (Constants.OPT_LOCAL_FRAMES) frame=new ACell[Math.max(1, frameSize)];
+		frameFloor=newBindings.count();
+		return ctx;
+	}
+
+	/**
+	 * Saved state of local bindings, for restoring on exit from a binding scope
+	 */
+	public static final class Locals {
+		private final AVector<ACell> bindings;
+		private final ACell[] frame;
+		private final int frameCount;
+		private final long frameFloor;
+
+		private Locals(AVector<ACell> bindings, ACell[] frame, int frameCount, long frameFloor) {
+			this.bindings=bindings;
+			this.frame=frame;
+			this.frameCount=frameCount;
+			this.frameFloor=frameFloor;
+		}
+	}
+
+	/**
+	 * Saves the current state of local bindings. Cheap, since the frame is not copied.
+	 * @return Saved local bindings
+	 */
+	public Locals saveLocals() {
+		return new Locals(localBindings,frame,frameCount,frameFloor);
+	}
+
+	/**
+	 * Restores local bindings previously saved with saveLocals
+	 * @param <R> Return type of Context
+	 * @param saved Saved local bindings
+	 * @return Updated context
+	 */
+	@SuppressWarnings("unchecked")
+	public <R extends ACell> Context<R> restoreLocals(Locals saved) {
+		localBindings=saved.bindings;
+		frame=saved.frame;
+		frameCount=saved.frameCount;
+		frameFloor=saved.frameFloor;
+		return (Context<R>) this;
+	}
+
+	/**
+	 * Starts a new binding scope, so that local bindings in enclosing scopes are copied
+	 * before being updated in place.
+	 */
+	public void startScope() {
+		frameFloor=getLocalCount();
+	}
+
+	/**
+	 * Appends a local binding
+	 */
+	@SuppressWarnings("unchecked")
+	private <R extends ACell> Context<R> appendLocal(ACell value) {
+		if (frame==null) return withLocalBindings(localBindings.conj(value));
+		if (frameCount==frame.length) frame=Arrays.copyOf(frame, frameCount*2);
+		frame[frameCount++]=value;
 		return (Context<R>) this;
 	}
 
@@ -1263,16 +1426,16 @@ public class Context<T extends ACell> extends AObject {
 				Context<R> rctx = ctx.invoke(lang,form);
 				return rctx.withDepth(saveDepth);
 			} else {
-				ctx=expandCompile(form);
+				ctx=CompileCache.expandCompile(ctx,form);
 				if (ctx.isExceptional()) return (Context<R>) ctx;
 				op=ctx.getResult();
 				ctx=ctx.withResult(null); // clear result for execution
 			}
 		}
-		AVector<ACell> savedBindings = ctx.getLocalBindings();
-		ctx=ctx.withLocalBindings(Vectors.empty());
+		Locals savedBindings = ctx.saveLocals();
+		ctx=ctx.withLocalFrame(Vectors.empty(),Constants.LOCAL_FRAME_SIZE);
 		Context<R> rctx= ctx.execute(op);
-		return rctx.withLocalBindings(savedBindings);
+		return rctx.restoreLocals(savedBindings);
 	}
 
 	/**
@@ -1456,11 +1619,10 @@ public class Context<T extends ACell> extends AObject {
 		if (amount<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative amount");
 		if (amount>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an amount beyond maximum limit");
 
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long currentBalance=sourceAccount.getBalance();
 		if (currentBalance<amount) {
@@ -1469,14 +1631,13 @@ public class Context<T extends ACell> extends AObject {
 
 		long newSourceBalance=currentBalance-amount;
 		AccountStatus newSourceAccount=sourceAccount.withBalance(newSourceBalance);
-		accounts=accounts.assoc(sourceIndex, newSourceAccount);
+		state=state.putAccount(source, newSourceAccount);
 
-		// new target account (note: could be source account, so we get from latest accounts)
-		long targetIndex=target.longValue();
-		if (targetIndex>=accounts.count()) {
+		// new target account (note: could be source account, so we get from latest state)
+		AccountStatus targetAccount=state.getAccount(target);
+		if (targetAccount==null) {
 			return this.withError(ErrorCodes.NOBODY,"Target account for transfer "+target+" does not exist");
 		}
-		AccountStatus targetAccount=accounts.get(targetIndex);
 
 		if (targetAccount.isActor()) {
 			// (call target amount (receive-coin source amount nil))
@@ -1492,10 +1653,10 @@ public class Context<T extends ACell> extends AObject {
 			long oldTargetBalance=targetAccount.getBalance();
 			long newTargetBalance=oldTargetBalance+amount;
 			AccountStatus newTargetAccount=targetAccount.withBalance(newTargetBalance);
-			accounts=accounts.assoc(targetIndex, newTargetAccount);
+			state=state.putAccount(target, newTargetAccount);
 
 			// SECURITY: new context with updated accounts
-			Context<CVMLong> result=withChainState(chainState.withAccounts(accounts)).withResult(CVMLong.create(amount));
+			Context<CVMLong> result=withState(state).withResult(CVMLong.create(amount));
 
 			return result;
 		}
@@ -1516,11 +1677,10 @@ public class Context<T extends ACell> extends AObject {
 		if (amount<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative allowance amount");
 		if (amount>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an allowance amount beyond maximum limit");
 
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long currentBalance=sourceAccount.getMemory();
 		if (currentBalance<amount) {
@@ -1529,21 +1689,20 @@ public class Context<T extends ACell> extends AObject {
 
 		long newSourceBalance=currentBalance-amount;
 		AccountStatus newSourceAccount=sourceAccount.withMemory(newSourceBalance);
-		accounts=accounts.assoc(sourceIndex, newSourceAccount);
+		state=state.putAccount(source, newSourceAccount);
 
-		// new target account (note: could be source account, so we get from latest accounts)
-		long targetIndex=target.longValue();
-		if (targetIndex>=accounts.count()) {
+		// new target account (note: could be source account, so we get from latest state)
+		AccountStatus targetAccount=state.getAccount(target);
+		if (targetAccount==null) {
 			return withError(ErrorCodes.NOBODY,"Cannot transfer memory allowance to non-existent account: "+target);
 		}
-		AccountStatus targetAccount=accounts.get(targetIndex);
 
 		long newTargetBalance=targetAccount.getMemory()+amount;
 		AccountStatus newTargetAccount=targetAccount.withMemory(newTargetBalance);
-		accounts=accounts.assoc(targetIndex, newTargetAccount);
+		state=state.putAccount(target, newTargetAccount);
 
 		// SECURITY: new context with updated accounts
-		Context<CVMLong> result=withChainState(chainState.withAccounts(accounts)).withResult(amountToSend);
+		Context<CVMLong> result=withState(state).withResult(amountToSend);
 		return result;
 	}
 
@@ -1554,20 +1713,19 @@ public class Context<T extends ACell> extends AObject {
 	 * @return Context indicating the price paid for the allowance change (may be zero or negative for refund)
 	 */
 	public Context<CVMLong> setMemory(long allowance) {
-		AVector<AccountStatus> accounts=getState().getAccounts();
+		State state=getState();
 		if (allowance<0) return withError(ErrorCodes.ARGUMENT,"Can't transfer a negative allowance amount");
 		if (allowance>Constants.MAX_SUPPLY) return withError(ErrorCodes.ARGUMENT,"Can't transfer an allowance amount beyond maximum limit");
 
 		Address source=getAddress();
-		long sourceIndex=source.longValue();
-		AccountStatus sourceAccount=accounts.get(sourceIndex);
+		AccountStatus sourceAccount=state.getAccount(source);
 
 		long current=sourceAccount.getMemory();
 		long balance=sourceAccount.getBalance();
 		long delta=allowance-current;
 		if (delta==0L) return this.withResult(CVMLong.ZERO);
 
-		AccountStatus pool=getState().getAccount(Init.MEMORY_EXCHANGE_ADDRESS);
+		AccountStatus pool=state.getAccount(Init.MEMORY_EXCHANGE_ADDRESS);
 
 		try {
 			long poolAllowance=pool.getMemory();
@@ -1580,10 +1738,10 @@ public class Context<T extends ACell> extends AObject {
 			pool=pool.withBalances(poolBalance+price, poolAllowance-delta);
 
 			// Update accounts
-			AVector<AccountStatus> newAccounts=accounts.assoc(sourceIndex, sourceAccount);
-			newAccounts=newAccounts.assoc(Init.MEMORY_EXCHANGE_ADDRESS.longValue(),pool);
+			state=state.putAccount(source, sourceAccount);
+			state=state.putAccount(Init.MEMORY_EXCHANGE_ADDRESS,pool);
 
-			return withChainState(chainState.withAccounts(newAccounts)).withResult(null);
+			return withState(state).withResult(null);
 		} catch (IllegalArgumentException e) {
 			return withError(ErrorCodes.FUNDS,"Cannot trade allowance: "+e.getMessage());
 		}
@@ -1814,10 +1972,8 @@ public class Context<T extends ACell> extends AObject {
 	public Context<Address> createAccount(AccountKey key) {
 		final State initialState=getState();
 		Address address=initialState.nextAddress();
-		AVector<AccountStatus> accounts=initialState.getAccounts();
 		AccountStatus as=AccountStatus.create(0L, key);
-		accounts=accounts.conj(as);
-		final State newState=initialState.withAccounts(accounts);
+		final State newState=initialState.putAccount(address,as);
 		Context<Address> rctx=this.withState(newState);
 		return rctx.withResult(address);
 	}
@@ -2144,7 +2300,7 @@ public class Context<T extends ACell> extends AObject {
 	 * @return A new forked Context
 	 */
 	public <R extends ACell> Context<R> fork() {
-		return new Context<R>(chainState, juice, localBindings, null,depth, null,log,compilerState);
+		return new Context<R>(chainState, juice, getLocalBindings(), null,depth, null,log,compilerState);
 	}
 
 	@Override
@@ -2244,6 +2400,8 @@ public class Context<T extends ACell> extends AObject {
 				addr = null;
 				me = lookupMeta(sym);
 			} else if (n == 3) {
+				// depends on another account, not covered by compiled form cache
+				uncachedExpansion=true;
 				ACell maybeAddress = listForm.get(1);
 				if (maybeAddress instanceof Symbol) {
 					// one lookup via Environment for alias
@@ -2268,11 +2426,34 @@ public class Context<T extends ACell> extends AObject {
 			// expand form using specified expander and continuation expander
 			ACell v = lookupValue(addr,sym);
 			AFn<ACell> expander = RT.castFunction(v);
-			if (expander != null) return expander;
+			if (expander != null) {
+				if (!isCoreDefinition(addr,sym)) uncachedExpansion=true;
+				return expander;
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Checks if a symbol used by this context is defined in the core account
+	 */
+	private boolean isCoreDefinition(Address addr, Symbol sym) {
+		if (addr!=null) return Init.CORE_ADDRESS.equals(addr);
+		return Init.CORE_ADDRESS.equals(getAddress())||!getEnvironment().containsKey(sym);
+	}
+
+	void setUncachedExpansion(boolean value) {
+		uncachedExpansion=value;
+	}
+
+	/**
+	 * Checks if expansion in this context used an expander not defined in the core account
+	 * @return True if expansion can't be cached
+	 */
+	boolean isUncachedExpansion() {
+		return uncachedExpansion;
+	}
+
 
 
 }
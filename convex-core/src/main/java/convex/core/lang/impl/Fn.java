@@ -2,6 +2,7 @@ package convex.core.lang.impl;
 
 import java.nio.ByteBuffer;
 
+import convex.core.Constants;
 import convex.core.data.ACell;
 import convex.core.data.AVector;
 import convex.core.data.BlobBuilder;
@@ -12,6 +13,7 @@ import convex.core.data.Tag;
 import convex.core.exceptions.BadFormatException;
 import convex.core.exceptions.InvalidDataException;
 import convex.core.lang.AOp;
+import convex.core.lang.BytecodeCompiler;
 import convex.core.lang.Context;
 import convex.core.lang.RT;
 import convex.core.lang.Symbols;
@@ -38,6 +40,18 @@ public class Fn<T extends ACell> extends AClosure<T> {
 	
 	private Long variadic=null;
 
+	/**
+	 * Number of invocations of this instance, until the body is compiled. Only a heuristic, so
+	 * updates lost to races between threads sharing this instance are harmless.
+	 */
+	private int calls=0;
+
+	/**
+	 * Compiled body, or null if not (yet) compiled. Volatile so that the compiled code is safely
+	 * published to other threads sharing this instance.
+	 */
+	private volatile BytecodeCompiler.Compiled compiled=null;
+
 	private Fn(AVector<ACell> params, AOp<T> body, AVector<ACell> lexicalEnv) {
 		super(lexicalEnv);
 		this.params = params;
@@ -87,18 +101,33 @@ public class Fn<T extends ACell> extends AClosure<T> {
 	@Override
 	public Context<T> invoke(Context context, ACell[] args) {
 		// update local bindings for the duration of this function call
-		final AVector<ACell> savedBindings = context.getLocalBindings();
+		final Context.Locals savedBindings = context.saveLocals();
 
-		// update to correct lexical environment, then bind function parameters
-		context = context.withLocalBindings(lexicalEnv);
+		// update to correct lexical environment with a new frame, then bind function parameters
+		context = context.withLocalFrame(lexicalEnv, Constants.LOCAL_FRAME_SIZE);
 
 		Context<T> boundContext = context.updateBindings(params, args);
-		if (boundContext.isExceptional()) return boundContext.withLocalBindings(savedBindings);
+		if (boundContext.isExceptional()) return boundContext.restoreLocals(savedBindings);
 
-		Context<T> ctx = boundContext.execute(body);
+		Context<T> ctx = executeBody(boundContext);
 
 		// return with restored bindings
-		return ctx.withLocalBindings(savedBindings);
+		return ctx.restoreLocals(savedBindings);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Context<T> executeBody(Context<T> ctx) {
+		BytecodeCompiler.Compiled code=compiled;
+		if (code==null) {
+			int threshold=BytecodeCompiler.getThreshold();
+			if ((threshold<=0)||(++calls<threshold)) return ctx.execute(body);
+			code=BytecodeCompiler.compile(body);
+			// don't count again if compilation failed
+			calls=Integer.MIN_VALUE;
+			if (code==null) return ctx.execute(body);
+			compiled=code;
+		}
+		return (Context<T>) code.execute(ctx);
 	}
 
 	@Override
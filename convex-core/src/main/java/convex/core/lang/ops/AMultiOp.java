@@ -24,6 +24,14 @@ public abstract class AMultiOp<T extends ACell> extends AOp<T> {
 		this.ops = ops;
 	}
 
+	/**
+	 * Gets the child Ops of this MultiOp
+	 * @return Vector of child Ops
+	 */
+	public AVector<AOp<ACell>> getOps() {
+		return ops;
+	}
+
 	/**
 	 * Recreates this object with an updated list of child Ops.
 	 * 
@@ -47,6 +47,22 @@ public class Let<T extends ACell> extends AMultiOp<T> {
 		return new Let<T>(syms, ops, isLoop);
 	}
 
+	/**
+	 * Gets the binding forms of this Let
+	 * @return Vector of binding forms
+	 */
+	public AVector<ACell> getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Checks if this Let is a loop, i.e. a target for recur
+	 * @return True if a loop, false otherwise
+	 */
+	public boolean isLoop() {
+		return isLoop;
+	}
+
 	@Override
 	public Let<T> updateRefs(IRefFunction func) {
 		ASequence<AOp<ACell>> newOps = ops.updateRefs(func);
@@ -83,7 +99,8 @@ public class Let<T extends ACell> extends AMultiOp<T> {
 		Context<?> ctx = context.consumeJuice(Juice.LET);
 		if (ctx.isExceptional()) return (Context<T>) ctx;
 
-		AVector<ACell> savedEnv = ctx.getLocalBindings();
+		Context.Locals savedEnv = ctx.saveLocals();
+		ctx.startScope();
 		
 		// execute each operation for bound values in turn
 		for (int i = 0; i < bindingCount; i++) {
@@ -92,7 +109,7 @@ public class Let<T extends ACell> extends AMultiOp<T> {
 			if (ctx.isExceptional()) {
 				// return if exception during initial binding. 
 				// No chance to recur since we didn't enter loop body
-				return ctx.withLocalBindings(savedEnv);
+				return ctx.restoreLocals(savedEnv);
 			}
 		}
 
@@ -112,7 +129,8 @@ public class Let<T extends ACell> extends AMultiOp<T> {
 				}
 
 				// restore old lexical environment, then add back new ones
-				ctx=ctx.withLocalBindings(savedEnv);
+				ctx=ctx.restoreLocals(savedEnv);
+				ctx.startScope();
 				ctx = ctx.updateBindings(symbols, newArgs);
 				if (ctx.isExceptional()) break;
 
@@ -121,7 +139,7 @@ public class Let<T extends ACell> extends AMultiOp<T> {
 			}
 		}
 		// restore old lexical environment before returning
-		return ctx.withLocalBindings(savedEnv);
+		return ctx.restoreLocals(savedEnv);
 	}
 
 	public Context<?> executeBody(Context<?> ctx) {
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 
 import convex.core.ErrorCodes;
 import convex.core.data.ACell;
+import convex.core.data.AHashMap;
 import convex.core.data.Address;
 import convex.core.data.BlobBuilder;
 import convex.core.data.Format;
@@ -17,6 +18,7 @@ import convex.core.lang.Context;
 import convex.core.lang.Juice;
 import convex.core.lang.Ops;
 import convex.core.lang.RT;
+import convex.core.util.Counters;
 
 /**
  * Op to look up a Symbol in the current execution context.
@@ -25,6 +27,11 @@ import convex.core.lang.RT;
  * the current environment.
  * 
  * Consumes juice for lookup when executed.
+ * 
+ * Holds an inline cache of the last value resolved, keyed on the identity of the (immutable)
+ * environment map it was found in. If the symbol was resolved through the core environment,
+ * the identity of the core environment is checked as well. Juice consumed is the same
+ * whether or not the cache is hit.
  *
  * @param <T> Result type of Op
  */
@@ -32,6 +39,23 @@ public class Lookup<T extends ACell> extends AOp<T> {
 	private final AOp<Address> address;
 	private final Symbol symbol;
 
+	/**
+	 * Inline cache of last resolved value. Immutable, so safe to share between threads.
+	 */
+	private static final class CacheEntry {
+		final AHashMap<Symbol,ACell> env;
+		final AHashMap<Symbol,ACell> coreEnv;
+		final ACell value;
+
+		CacheEntry(AHashMap<Symbol,ACell> env, AHashMap<Symbol,ACell> coreEnv, ACell value) {
+			this.env=env;
+			this.coreEnv=coreEnv;
+			this.value=value;
+		}
+	}
+
+	private CacheEntry cache=null;
+
 	private Lookup(AOp<Address> address,Symbol symbol) {
 		this.address=address;
 		this.symbol = symbol;
@@ -72,7 +96,25 @@ public class Lookup<T extends ACell> extends AOp<T> {
 		
 		// Do a dynamic lookup, with address if specified or address from current context otherwise
 		namespaceAddress=(address==null)?context.getAddress():namespaceAddress;
-		return rctx.lookupDynamic(namespaceAddress,symbol).consumeJuice(Juice.LOOKUP_DYNAMIC);
+
+		// Fast path if environment is unchanged since last lookup
+		AHashMap<Symbol,ACell> env=rctx.getEnvironment(namespaceAddress);
+		CacheEntry ce=cache;
+		if ((env!=null)&&(ce!=null)&&(ce.env==env)) {
+			if ((ce.coreEnv==null)||(ce.coreEnv==rctx.getCoreEnvironment())) {
+				Counters.lookupCacheHit++;
+				return rctx.withResult(Juice.LOOKUP_DYNAMIC,(T)ce.value);
+			}
+		}
+		Counters.lookupCacheMiss++;
+
+		rctx=rctx.lookupDynamic(namespaceAddress,symbol);
+		if ((env!=null)&&!rctx.isExceptional()) {
+			// cache value, noting if it was resolved via the core environment
+			AHashMap<Symbol,ACell> coreEnv=(env.containsKey(symbol))?null:rctx.getCoreEnvironment();
+			cache=new CacheEntry(env,coreEnv,rctx.getResult());
+		}
+		return rctx.consumeJuice(Juice.LOOKUP_DYNAMIC);
 	}
 
 	@Override
@@ -55,7 +55,8 @@ public class Query<T extends ACell> extends AMultiOp<T> {
 		Context<T> ctx = (Context<T>) context.consumeJuice(Juice.QUERY);
 		if (ctx.isExceptional()) return ctx;
 		
-		AVector<ACell> savedBindings=context.getLocalBindings();
+		Context.Locals savedBindings=ctx.saveLocals();
+		ctx.startScope();
 
 		// execute each operation in turn
 		// TODO: early return
@@ -68,7 +69,7 @@ public class Query<T extends ACell> extends AMultiOp<T> {
 		}
 		// restore state unconditionally.
 		ctx=ctx.withState(savedState);
-		ctx=ctx.withLocalBindings(savedBindings);
+		ctx=ctx.restoreLocals(savedBindings);
 		return ctx;
 	}
 
@@ -1,6 +1,8 @@
 package convex.core.store;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import convex.core.data.ABlob;
@@ -57,6 +59,26 @@ public abstract class AStore {
 	 */
 	public abstract <T extends ACell> Ref<T> storeTopRef(Ref<T> ref, int status,Consumer<Ref<ACell>> noveltyHandler);
 
+
+	/**
+	 * Stores a collection of top level Refs in a single batch. Stores may override this
+	 * to group writes, e.g. committing once for the whole batch rather than once per Ref.
+	 * 
+	 * Novelty handler is called as for storeTopRef(...)
+	 * 
+	 * @param refs Refs to store
+	 * @param status Status to store at
+	 * @param noveltyHandler Novelty Handler function for Novelty detected. May be null.
+	 * @return List of persisted Refs, in the same order as given
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Ref<ACell>> storeRefs(List<? extends Ref<?>> refs, int status,Consumer<Ref<ACell>> noveltyHandler) {
+		ArrayList<Ref<ACell>> result=new ArrayList<>(refs.size());
+		for (Ref<?> ref: refs) {
+			result.add(storeTopRef((Ref<ACell>)ref,status,noveltyHandler));
+		}
+		return result;
+	}
 	
 	/**
 	 * Gets the stored Ref for a given hash value, or null if not found.
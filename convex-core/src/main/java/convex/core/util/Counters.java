@@ -6,20 +6,83 @@ package convex.core.util;
 public class Counters {
 
 	public static volatile long sendCount = 0;
+	public static volatile long sendQueueFull = 0;
+	public static volatile long beliefSuperseded = 0;
+	public static volatile long beliefFullSent = 0;
+	public static volatile long beliefDeltaSent = 0;
+	public static volatile long dataBytesSent = 0;
+	public static volatile long dataBytesSaved = 0;
+	public static volatile long acquireCells = 0;
+	public static volatile long acquireBytes = 0;
+	public static volatile long beliefPolls = 0;
+	public static volatile long beliefPollFailures = 0;
+	public static volatile long beliefPollMillis = 0;
+	public static volatile long beliefPollBytes = 0;
 	public static volatile long beliefMerge = 0;
 	public static volatile long applyBlock = 0;
 	
 	public static volatile long etchRead = 0;
 	public static volatile long etchWrite = 0;
 	public static volatile long etchMiss =0;
+	public static volatile long etchFilterReject =0;
+	public static volatile long etchFilterFalsePositive =0;
+	public static volatile long etchFilterBytes =0;
+	
+	public static volatile long signatureCacheHit = 0;
+	public static volatile long signatureCacheMiss = 0;
+	
+	public static volatile long lookupCacheHit = 0;
+	public static volatile long lookupCacheMiss = 0;
+	
+	public static volatile long compileCacheHit = 0;
+	public static volatile long compileCacheMiss = 0;
+	
+	public static volatile long queryCacheHit = 0;
+	public static volatile long queryCacheMiss = 0;
+	
+	public static volatile long compiledFns = 0;
+	public static volatile long compileFailures = 0;
+	
+	public static volatile long parallelCommit = 0;
+	public static volatile long parallelReexecute = 0;
 	
 	public String getStats() {
 		StringBuffer sb=new StringBuffer();
 		
+		sb.append("Sends rejected (queue full):  "+sendQueueFull);
+		sb.append("Beliefs superseded before send:  "+beliefSuperseded);
+		sb.append("Beliefs sent full / delta:  "+beliefFullSent+" / "+beliefDeltaSent);
+		sb.append("DATA bytes sent:  "+dataBytesSent);
+		sb.append("DATA bytes saved (known by remote):  "+dataBytesSaved);
+		sb.append("Cells / bytes acquired:  "+acquireCells+" / "+acquireBytes);
+		sb.append("Belief polls / failed:  "+beliefPolls+" / "+beliefPollFailures);
+		sb.append("Belief poll avg latency (ms):  "+(beliefPollMillis/Math.max(1, beliefPolls)));
+		sb.append("Belief poll bytes fetched:  "+beliefPollBytes);
 		sb.append("Etch writes:  "+etchWrite);
 		sb.append("Etch reads:   "+etchRead);
 		sb.append("Etch hit(%):  "+Text.toPercentString(100.0*(etchRead-etchMiss)/etchRead));
 		
+		long filterChecks=etchFilterReject+etchFilterFalsePositive;
+		sb.append("Etch filter false positive(%):  "+Text.toPercentString(100.0*etchFilterFalsePositive/filterChecks));
+		sb.append("Etch filter bytes:  "+etchFilterBytes);
+		
+		long sigChecks=signatureCacheHit+signatureCacheMiss;
+		sb.append("Sig cache hit(%):  "+Text.toPercentString(100.0*signatureCacheHit/sigChecks));
+		
+		long lookups=lookupCacheHit+lookupCacheMiss;
+		sb.append("Lookup cache hit(%):  "+Text.toPercentString(100.0*lookupCacheHit/lookups));
+		
+		long compiles=compileCacheHit+compileCacheMiss;
+		sb.append("Compile cache hit(%):  "+Text.toPercentString(100.0*compileCacheHit/compiles));
+		
+		long queries=queryCacheHit+queryCacheMiss;
+		sb.append("Query cache hit(%):  "+Text.toPercentString(100.0*queryCacheHit/queries));
+		
+		sb.append("Functions compiled / failed:  "+compiledFns+" / "+compileFailures);
+		
+		long parallelTx=parallelCommit+parallelReexecute;
+		sb.append("Parallel tx commit(%):  "+Text.toPercentString(100.0*parallelCommit/parallelTx));
+		
 		return sb.toString();
 	}
 }
@@ -0,0 +1,100 @@
+package etch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import convex.core.util.Utils;
+
+/**
+ * Bloom filter over 32-byte Etch keys, used to answer lookups for absent keys without
+ * touching the index in the database file.
+ *
+ * Keys are expected to be hashes, so bit positions are taken directly from the key bytes
+ * without further hashing. May give false positives, never false negatives.
+ *
+ * CONCURRENCY: Adds are expected from a single writer at a time. Lookups are lock-free.
+ */
+public final class BloomFilter {
+
+	/**
+	 * Number of filter bits maintained per key before the filter is considered full.
+	 * Filters are created with twice this, so the false positive rate stays below about 0.25%
+	 */
+	static final int BITS_PER_KEY=16;
+
+	/**
+	 * Number of bit positions set per key. Each uses a separate 8 byte section of the key.
+	 */
+	private static final int NUM_PROBES=4;
+
+	private static final long MIN_BITS=1L<<16;
+	private static final long MAX_BITS=1L<<37;
+
+	private final AtomicLongArray words;
+	private final long mask;
+	private long count=0;
+
+	/**
+	 * Creates an empty Bloom filter sized for the expected number of keys
+	 * @param expectedKeys Number of keys expected to be added
+	 */
+	public BloomFilter(long expectedKeys) {
+		long bits=MIN_BITS;
+		long target=Math.max(0L, expectedKeys)*BITS_PER_KEY*2;
+		while ((bits<target)&&(bits<MAX_BITS)) bits*=2;
+		this.words=new AtomicLongArray(Utils.checkedInt(bits/64));
+		this.mask=bits-1;
+	}
+
+	/**
+	 * Adds a key to the filter
+	 * @param key Byte array containing key
+	 * @param offset Offset of 32 byte key in array
+	 */
+	public void add(byte[] key, int offset) {
+		for (int i=0; i<NUM_PROBES; i++) {
+			long bit=Utils.readLong(key, offset+i*8)&mask;
+			long bitMask=1L<<(bit&63);
+			int ix=(int)(bit>>>6);
+			if ((words.get(ix)&bitMask)==0) words.accumulateAndGet(ix, bitMask, (a,b)->a|b);
+		}
+		count++;
+	}
+
+	/**
+	 * Checks if a key might be present in the filter
+	 * @param key Byte array containing key
+	 * @param offset Offset of 32 byte key in array
+	 * @return false if the key is definitely absent, true if it may be present
+	 */
+	public boolean mightContain(byte[] key, int offset) {
+		for (int i=0; i<NUM_PROBES; i++) {
+			long bit=Utils.readLong(key, offset+i*8)&mask;
+			if ((words.get((int)(bit>>>6))&(1L<<(bit&63)))==0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of keys added to this filter
+	 * @return Number of keys
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Checks if this filter holds enough keys that it should be replaced by a larger filter
+	 * @return true if full, false otherwise
+	 */
+	public boolean isFull() {
+		return (count*BITS_PER_KEY>mask)&&(mask<MAX_BITS-1);
+	}
+
+	/**
+	 * Gets the memory used by the filter bits
+	 * @return Size in bytes
+	 */
+	public long getMemorySize() {
+		return words.length()*8L;
+	}
+}
@@ -5,13 +5,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +64,12 @@ import convex.core.util.Utils;
  *    - 8 bytes Memory Size (TODO: might be negative for unknown?)
  * - 2 bytes data length N (a short)
  * - N byes actual data
+ *
+ * Writes are serialised by synchronising on the Etch instance. Reads take no locks: data is
+ * only ever appended, slots are updated with single writes, and region mappings are replaced
+ * copy-on-write. Chain collapses are guarded by a sequence counter: the writer issues a release
+ * fence after marking a collapse in progress, and readers issue an acquire fence before re-checking
+ * the counter, so slot reads and writes cannot be reordered across the check.
  */
 public class Etch {
 	// structural constants for data block
@@ -126,15 +136,33 @@ public class Etch {
 	 */
 	private static long tempIndex=0;
 
-	private final File file;
+	private File file;
 	private final RandomAccessFile data;
 
 	/**
-	 * List of MappedByteBuffers for each region of the database file.
+	 * MappedByteBuffers for each region of the database file.
+	 *
+	 * CONCURRENCY: Copy-on-write. The array is replaced, never mutated, so readers need no locks.
+	 */
+	private volatile MappedByteBuffer[] regionMap=new MappedByteBuffer[0];
+
+	/**
+	 * Length of data in the file. Volatile since it publishes appended data to lock-free readers.
 	 */
-	private final ArrayList<MappedByteBuffer> regionMap=new ArrayList<>();
+	private volatile long dataLength=0;
 
-	private long dataLength=0;
+	/**
+	 * Sequence counter for chain collapses, odd while a collapse is in progress. Readers
+	 * retry a failed lookup if a collapse overlapped it, since entries are briefly unlinked
+	 * while being moved to a new index block. Slots are plain memory accesses, so fences order
+	 * them against this counter.
+	 */
+	private volatile long collapseSequence=0;
+
+	/**
+	 * Filter over all keys in the file, or null if disabled. Replaced by a larger filter as the file grows.
+	 */
+	private volatile BloomFilter filter=null;
 
 	private boolean BUILD_CHAINS=true;
 	private EtchStore store;
@@ -186,6 +214,8 @@ public class Etch {
 			dataLength=length;
 		}
 
+		if (Constants.ETCH_BLOOM_FILTER) setFilter(buildFilter());
+
 		// shutdown hook to close file / release lock
 		convex.core.util.Shutdown.addHook(Shutdown.ETCH,new Runnable() {
 		    public void run() {
@@ -245,9 +275,10 @@ public class Etch {
 		}
 		int mapIndex=Utils.checkedInt(position/MAX_REGION_SIZE); // 1GB chunks
 
-		ByteBuffer bb=getInternalBuffer(mapIndex).duplicate();
+		int offset=Utils.checkedInt(position-MAX_REGION_SIZE*(long)mapIndex);
+		ByteBuffer bb=getInternalBuffer(mapIndex,offset).duplicate();
 		MappedByteBuffer mbb=(MappedByteBuffer) bb;
-		mbb.position(Utils.checkedInt(position-MAX_REGION_SIZE*(long)mapIndex));
+		mbb.position(offset);
 		return mbb;
 	}
 
@@ -255,31 +286,45 @@ public class Etch {
 	 * Gets the internal mapped byte buffer for the specified region of the Etch database
 	 * 
 	 * @param regionIndex Index of region 
+	 * @param offset Offset within region that must be accessible
 	 * @return Mapped Byte Buffer for specified region
 	 * @throws IOException
 	 */
-	private MappedByteBuffer getInternalBuffer(int regionIndex) throws IOException {
+	private MappedByteBuffer getInternalBuffer(int regionIndex, int offset) throws IOException {
 		// Get current mapped region, or null if out of range
-		int regionMapSize=regionMap.size();
-		MappedByteBuffer mbb=(regionIndex<regionMapSize)?regionMap.get(regionIndex):null;
+		MappedByteBuffer mbb=getRegion(regionIndex,offset);
 
 		// Call createBuffer if mapped region does not exist, or is too small
-		if ((mbb==null)||(mbb.capacity()<dataLength+REGION_MARGIN)) mbb=createBuffer(regionIndex);
+		if (mbb==null) mbb=createBuffer(regionIndex,offset);
 
 		return mbb;
 	}
 
+	/**
+	 * Gets the current mapped region if it covers the given offset plus margin, without locking.
+	 * @return Mapped region, or null if it needs to be (re)created
+	 */
+	private MappedByteBuffer getRegion(int regionIndex, int offset) {
+		MappedByteBuffer[] regions=regionMap;
+		MappedByteBuffer mbb=(regionIndex<regions.length)?regions[regionIndex]:null;
+		if ((mbb==null)||(mbb.capacity()<(long)offset+REGION_MARGIN)) return null;
+		return mbb;
+	}
+
 	/**
 	 * Create a MappedByteBuffer at the specified region index position.
 	 *
-	 * CONCURRENCY: should be the only place where regionMap is modified.
+	 * CONCURRENCY: should be the only place where regionMap is modified. Another thread
+	 * may have already mapped the region while we waited for the lock.
 	 *
 	 * @param regionIndex Index of database file region
+	 * @param offset Offset within region that must be accessible
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized MappedByteBuffer createBuffer(int regionIndex) throws IOException {
-		while(regionMap.size()<=regionIndex) regionMap.add(null);
+	private synchronized MappedByteBuffer createBuffer(int regionIndex, int offset) throws IOException {
+		MappedByteBuffer existing=getRegion(regionIndex,offset);
+		if (existing!=null) return existing;
 
 		long pos=regionIndex*(long)MAX_REGION_SIZE;
 
@@ -291,7 +336,10 @@ public class Etch {
 
 		length+=REGION_MARGIN; // include margin in buffer length
 		MappedByteBuffer mbb= data.getChannel().map(MapMode.READ_WRITE, pos, length);
-		regionMap.set(regionIndex, mbb);
+		MappedByteBuffer[] regions=regionMap;
+		MappedByteBuffer[] newRegions=Arrays.copyOf(regions, Math.max(regions.length, regionIndex+1));
+		newRegions[regionIndex]=mbb;
+		regionMap=newRegions;
 		return mbb;
 	}
 
@@ -307,7 +355,90 @@ public class Etch {
 	 */
 	public synchronized Ref<ACell> write(AArrayBlob key, Ref<ACell> value) throws IOException {
 		Counters.etchWrite++;
-		return write(key,0,value,INDEX_START);
+		Ref<ACell> result=write(key,0,value,INDEX_START);
+		checkFilter();
+		return result;
+	}
+
+	/**
+	 * Writes a batch of values to the immutable store, keyed by their hashes. Values are appended
+	 * in the given order, and the data length header is updated once at the end of the batch.
+	 *
+	 * CONCURRENCY: Holds the writer lock for the whole batch
+	 *
+	 * @param values Refs to write. Should be in dependency order (children before parents)
+	 * @return List of Refs after writing to store, in the same order
+	 * @throws IOException If an IO error occurs
+	 */
+	public synchronized List<Ref<ACell>> writeAll(List<Ref<ACell>> values) throws IOException {
+		int n=values.size();
+		ArrayList<Ref<ACell>> results=new ArrayList<>(n);
+		for (int i=0; i<n; i++) {
+			Ref<ACell> value=values.get(i);
+			Counters.etchWrite++;
+			results.add(write(value.getHash(),0,value,INDEX_START));
+		}
+		writeDataLength();
+		checkFilter();
+		return results;
+	}
+
+	/**
+	 * Replaces the key filter with a larger one if it is full. Must be called by the writer
+	 * with no write in progress, since the index is traversed to rebuild the filter.
+	 * @throws IOException
+	 */
+	private void checkFilter() throws IOException {
+		BloomFilter f=filter;
+		if ((f!=null)&&f.isFull()) setFilter(buildFilter());
+	}
+
+	private void setFilter(BloomFilter f) {
+		BloomFilter old=filter;
+		if (old!=null) Counters.etchFilterBytes-=old.getMemorySize();
+		if (f!=null) Counters.etchFilterBytes+=f.getMemorySize();
+		filter=f;
+	}
+
+	/**
+	 * Builds a key filter for all data currently in the index. Readers can continue to use
+	 * the existing filter, which also contains all keys, until the new one is set.
+	 * @return New BloomFilter
+	 * @throws IOException
+	 */
+	private BloomFilter buildFilter() throws IOException {
+		long n=visitKeys(INDEX_START,null,null);
+		BloomFilter f=new BloomFilter(n);
+		visitKeys(INDEX_START,f,new byte[KEY_SIZE]);
+		log.debug("Etch filter built on file: {} with keys: {}",file,n);
+		return f;
+	}
+
+	/**
+	 * Visits all data keys reachable from an index block, adding them to a filter if specified
+	 * @param indexPosition Position of index block
+	 * @param f Filter to add keys to, or null to just count keys
+	 * @param temp Temporary array for keys, may be null if f is null
+	 * @return Number of keys visited
+	 * @throws IOException
+	 */
+	private long visitKeys(long indexPosition, BloomFilter f, byte[] temp) throws IOException {
+		long count=0;
+		for (int digit=0; digit<256; digit++) {
+			long slotValue=readSlot(indexPosition,digit);
+			if (slotValue==0L) continue;
+			if (slotType(slotValue)==PTR_INDEX) {
+				count+=visitKeys(slotPointer(slotValue),f,temp);
+			} else {
+				// plain pointer, or entry in a chain
+				if (f!=null) {
+					seekMap(slotPointer(slotValue)).get(temp,0,KEY_SIZE);
+					f.add(temp,0);
+				}
+				count++;
+			}
+		}
+		return count;
 	}
 
 	private Ref<ACell> write(AArrayBlob key, int keyOffset, Ref<ACell> value, long indexPosition) throws IOException {
@@ -400,17 +531,23 @@ public class Etch {
 			long newDataPointer=appendData(key,value);
 			long newIndexPos=appendLeafIndex(key.byteAt(keyOffset+1),newDataPointer);
 
-			// for each element in chain, move existing data to new index block. i is the length of chain
-			for (int j=0; j<i; j++) {
-				int movingDigit=digit+j;
-				long movingSlotValue=readSlot(indexPosition,movingDigit);
-				long dp=slotPointer(movingSlotValue); // just the raw pointer
-				writeExistingData(newIndexPos,keyOffset+1,dp);
-				if (j!=0) writeSlot(indexPosition,movingDigit,0L); // clear the old chain
-			}
+			collapseSequence++;
+			VarHandle.releaseFence(); // slot writes must not become visible before the odd sequence
+			try {
+				// for each element in chain, move existing data to new index block. i is the length of chain
+				for (int j=0; j<i; j++) {
+					int movingDigit=digit+j;
+					long movingSlotValue=readSlot(indexPosition,movingDigit);
+					long dp=slotPointer(movingSlotValue); // just the raw pointer
+					writeExistingData(newIndexPos,keyOffset+1,dp);
+					if (j!=0) writeSlot(indexPosition,movingDigit,0L); // clear the old chain
+				}
 
-			// finally update this index with the new index pointer
-			writeSlot(indexPosition,digit,newIndexPos|PTR_INDEX);
+				// finally update this index with the new index pointer
+				writeSlot(indexPosition,digit,newIndexPos|PTR_INDEX);
+			} finally {
+				collapseSequence++;
+			}
 			return value;
 		} else if (type==PTR_CHAIN) {
 			// need to collapse existing chain
@@ -420,15 +557,21 @@ public class Etch {
 
 			int n=(chainStartDigit==chainEndDigit)?256:(chainEndDigit-chainStartDigit)&0xFF;
 			long newIndexPos=appendNewIndexBlock();
-			for (int j=0; j<n; j++) {
-				int movingDigit=chainStartDigit+j;
-				long movingSlotValue=readSlot(indexPosition,movingDigit);
-				long dp=slotPointer(movingSlotValue); // just the raw pointer
-				writeExistingData(newIndexPos,keyOffset+1,dp);
-				if (j!=0) writeSlot(indexPosition,movingDigit,0L); // clear the old chain
-			}
+			collapseSequence++;
+			VarHandle.releaseFence(); // slot writes must not become visible before the odd sequence
+			try {
+				for (int j=0; j<n; j++) {
+					int movingDigit=chainStartDigit+j;
+					long movingSlotValue=readSlot(indexPosition,movingDigit);
+					long dp=slotPointer(movingSlotValue); // just the raw pointer
+					writeExistingData(newIndexPos,keyOffset+1,dp);
+					if (j!=0) writeSlot(indexPosition,movingDigit,0L); // clear the old chain
+				}
 
-			writeSlot(indexPosition,chainStartDigit,newIndexPos|PTR_INDEX);
+				writeSlot(indexPosition,chainStartDigit,newIndexPos|PTR_INDEX);
+			} finally {
+				collapseSequence++;
+			}
 
 			// write to the current slot
 			return writeNewData(indexPosition,digit,key,value,PTR_PLAIN);
@@ -565,7 +708,8 @@ public class Etch {
 			// Send writes to disk
 			flush();
 			
-			regionMap.clear();
+			setFilter(null);
+			regionMap=new MappedByteBuffer[0];
 			System.gc();
 
 			data.close();
@@ -645,9 +789,17 @@ public class Etch {
 	public Ref<ACell> read(AArrayBlob key) throws IOException {
 		Counters.etchRead++;
 
+		BloomFilter f=filter;
+		if ((f!=null)&&!f.mightContain(key.getInternalArray(),key.getInternalOffset())) {
+			Counters.etchMiss++;
+			Counters.etchFilterReject++;
+			return null; // definitely not present
+		}
+
 		long pointer=seekPosition(key);
 		if (pointer<0) {
 			Counters.etchMiss++;
+			if (f!=null) Counters.etchFilterFalsePositive++;
 			return null; // not found
 		}
 
@@ -684,6 +836,33 @@ public class Etch {
 		}
 	}
 
+	/**
+	 * Gets the status of a stored value, without reading the value
+	 * @param key Key to check
+	 * @return Ref status of the stored value, or Ref.INVALID if not found
+	 * @throws IOException If an IO error occurs
+	 */
+	public int readStatus(AArrayBlob key) throws IOException {
+		BloomFilter f=filter;
+		if ((f!=null)&&!f.mightContain(key.getInternalArray(),key.getInternalOffset())) return Ref.INVALID;
+		long pointer=seekPosition(key);
+		if (pointer<0) return Ref.INVALID;
+		MappedByteBuffer mbb=seekMap(pointer+KEY_SIZE);
+		return mbb.get()&Ref.STATUS_MASK;
+	}
+
+	/**
+	 * Checks if the database contains a value for the given key, without reading the value
+	 * @param key Key to check
+	 * @return true if a value is present, false otherwise
+	 * @throws IOException If an IO error occurs
+	 */
+	public boolean contains(AArrayBlob key) throws IOException {
+		BloomFilter f=filter;
+		if ((f!=null)&&!f.mightContain(key.getInternalArray(),key.getInternalOffset())) return false;
+		return seekPosition(key)>=0;
+	}
+
 	/**
 	 * Flushes any changes to persistent storage.
 	 * @throws IOException If an IO error occurs
@@ -702,7 +881,16 @@ public class Etch {
 	 * @throws IOException
 	 */
 	private long seekPosition(AArrayBlob key) throws IOException {
-		return seekPosition(key,0,INDEX_START);
+		while (true) {
+			long seq=collapseSequence;
+			long position=seekPosition(key,0,INDEX_START);
+			if (position>=0) return position; // keys are checked, so a hit is always valid
+
+			// a miss is only reliable if no chain collapse overlapped the search
+			VarHandle.acquireFence(); // slot reads must complete before the sequence is re-read
+			if (((seq&1)==0)&&(seq==collapseSequence)) return -1;
+			Thread.onSpinWait();
+		}
 	}
 
 	/**
@@ -810,18 +998,16 @@ public class Etch {
 			// continuation of chain from some previous index, therefore key can't be present
 			return -1;
 		} else if (type==PTR_START) {
-			synchronized (this) {
-				// start of chain, so scan chain of entries
-				int i=0;
-				while (i<256) {
-					long ptr=slotValue&(~TYPE_MASK);
-					if (checkMatchingKey(key,ptr)) return ptr;
-
-					i++; // advance to next position
-					slotValue=readSlot(indexPosition,digit+i);
-					type=(slotValue&TYPE_MASK);
-					if (!(type==PTR_CHAIN)) return -1; // reached end of chain
-				}
+			// start of chain, so scan chain of entries
+			int i=0;
+			while (i<256) {
+				long ptr=slotValue&(~TYPE_MASK);
+				if (checkMatchingKey(key,ptr)) return ptr;
+
+				i++; // advance to next position
+				slotValue=readSlot(indexPosition,digit+i);
+				type=(slotValue&TYPE_MASK);
+				if (!(type==PTR_CHAIN)) return -1; // reached end of chain
 			}
 			return -1;
 		} else {
@@ -874,6 +1060,8 @@ public class Etch {
 
 		// append key
 		mbb.put(key.getInternalArray(),key.getInternalOffset(),KEY_SIZE);
+		BloomFilter f=filter;
+		if (f!=null) f.add(key.getInternalArray(),key.getInternalOffset());
 
 		// append flags (1 byte)
 		int flags=value.flagsWithStatus(Math.max(value.getStatus(),Ref.STORED));
@@ -919,6 +1107,25 @@ public class Etch {
 		return file;
 	}
 
+	/**
+	 * Gets the current length of the database in bytes
+	 * @return Data length
+	 */
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * Moves the database file to a new location, replacing any existing file. The
+	 * database remains open.
+	 * @param dest Destination file
+	 * @throws IOException If the file could not be moved
+	 */
+	synchronized void moveTo(File dest) throws IOException {
+		Files.move(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		file=dest;
+	}
+
 	public synchronized Hash getRootHash() throws IOException {
 		MappedByteBuffer mbb=seekMap(OFFSET_ROOT_HASH);
 		byte[] bs=new byte[Hash.LENGTH];
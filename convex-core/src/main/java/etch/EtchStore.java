@@ -2,7 +2,11 @@ package etch;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -12,7 +16,9 @@ import convex.core.data.ACell;
 import convex.core.data.Hash;
 import convex.core.data.IRefFunction;
 import convex.core.data.Ref;
+import convex.core.exceptions.MissingDataException;
 import convex.core.store.AStore;
+import convex.core.store.Stores;
 import convex.core.util.Utils;
 
 /**
@@ -25,7 +31,16 @@ import convex.core.util.Utils;
  * Objects are keyed by cryptographic hash. That solves naming. Objects are
  * immutable. That solves cache invalidation.
  *
- * Garbage collection is left as an exercise for the reader.
+ * Garbage collection copies all Cells reachable from the root data into a new Etch
+ * file while the store remains available, then swaps files. During collection, reads
+ * check the new file first and new writes go only to the new file.
+ *
+ * Refs created before a swap may still point to Cells that were not reachable from the
+ * root (e.g. queued transactions or client data). The replaced file is therefore kept open
+ * until the start of the next GC cycle: reads fall back to it, and writes copy forward any
+ * existing Cell missing from the current file. It is then closed, which releases its disk
+ * space, so at most one replaced file is held at any time. Data that must outlive the
+ * next cycle should be reachable from the root data.
  */
 public class EtchStore extends AStore {
 	private static final Logger log = LoggerFactory.getLogger(EtchStore.class.getName());
@@ -33,12 +48,38 @@ public class EtchStore extends AStore {
 	/**
 	 * Etch file instance for the current store
 	 */
-	private Etch etch;
+	private volatile Etch etch;
 	
 	/**
 	 * Etch file instance for GC destination
 	 */
-	private Etch target;
+	private volatile Etch target;
+
+	/**
+	 * Etch file replaced by the last GC cycle, or null if none. Kept open for reads and
+	 * copying forward until the next cycle starts, see class comment. Modified only while
+	 * holding the GC write lock.
+	 */
+	private volatile Etch previous = null;
+
+	/**
+	 * Size on disk of the previous file when it was replaced
+	 */
+	private long previousSize = 0;
+
+	/**
+	 * Lock held shared by write batches, and exclusively while starting or finishing a GC cycle
+	 */
+	private final ReentrantReadWriteLock gcLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Thread running the current GC cycle, if any
+	 */
+	private Thread gcThread = null;
+
+	private long gcReclaimed = 0;
+	private long gcPauseTime = 0;
+	private long gcTotalTime = 0;
 
 	public EtchStore(Etch etch) {
 		this.etch = etch;
@@ -47,23 +88,225 @@ public class EtchStore extends AStore {
 	}
 	
 	/**
-	 * Starts a GC cycle. Creates a new Etch file for collection, and directs all new writes to
-	 * the new store
+	 * Starts a GC cycle. Releases the file replaced by the last cycle, creates a new Etch
+	 * file for collection, and directs all new writes to the new store
 	 * @throws IOException If an IO exception occurs
 	 */
 	public synchronized void startGC() throws IOException {
-		if (target!=null) throw new Error("Already collecting!");
-		File temp=new File(etch.getFile().getCanonicalPath()+"~");
-		target=Etch.create(temp);
-		
-		// copy across current root hash
-		target.setRootHash(etch.getRootHash());
+		gcLock.writeLock().lock();
+		try {
+			if (target!=null) throw new Error("Already collecting!");
+			releasePrevious();
+			File temp=new File(etch.getFile().getCanonicalPath()+"~");
+			temp.delete(); // discard any incomplete collection
+			Etch newTarget=Etch.create(temp);
+			newTarget.setStore(this);
+
+			// copy across current root hash
+			newTarget.setRootHash(etch.getRootHash());
+			target=newTarget;
+		} finally {
+			gcLock.writeLock().unlock();
+		}
 	}
-	
-	private Etch getWriteEtch() {
-		if (target!=null) synchronized(this) {
-			if (target!=null) return target;
+
+	/**
+	 * Runs a complete GC cycle in the current thread. All Cells reachable from the root data
+	 * are copied to a new Etch file, which then replaces the current file. The store remains
+	 * available for reads and writes except for a short pause while files are swapped.
+	 *
+	 * @throws IOException If an IO exception occurs
+	 */
+	public void collectGarbage() throws IOException {
+		long start=System.nanoTime();
+		if (target==null) startGC();
+		Etch gcTarget=target;
+
+		AStore tempStore=Stores.current();
+		try {
+			Stores.setCurrent(this);
+			Hash root=gcTarget.getRootHash();
+			Ref<ACell> rootRef=readPrevious(gcTarget,root);
+			if (rootRef!=null) {
+				copyForward(gcTarget,rootRef);
+				// root data is stored by hash even if embedded
+				if (gcTarget.readStatus(root)==Ref.INVALID) gcTarget.write(root,rootRef);
+			}
+		} finally {
+			Stores.setCurrent(tempStore);
+		}
+
+		long pauseStart=System.nanoTime();
+		finishGC();
+		long end=System.nanoTime();
+		synchronized (this) {
+			gcPauseTime=end-pauseStart;
+			gcTotalTime=end-start;
+		}
+		log.info("Etch GC complete on {}: {} bytes live, {} bytes to release at next cycle, in {} ms with {} ms pause",
+				etch.getFile(),etch.getFile().length(),previousSize,gcTotalTime/1000000,gcPauseTime/1000000);
+	}
+
+	/**
+	 * Starts a GC cycle in a background thread. Does nothing if a GC cycle is already running.
+	 *
+	 * @return Thread running the GC cycle
+	 */
+	public synchronized Thread launchGC() {
+		if ((gcThread!=null)&&gcThread.isAlive()) return gcThread;
+		Thread t=new Thread(()->{
+			try {
+				collectGarbage();
+			} catch (Throwable e) {
+				log.error("Etch GC failed on {}: {}",etch.getFile(),e);
+			}
+		},"Etch GC on file: "+etch.getFile().getName());
+		t.setDaemon(true);
+		gcThread=t;
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Completes a GC cycle, replacing the current Etch file with the collected file.
+	 * Writes are blocked while files are swapped. If the swap fails, the cycle remains
+	 * in progress and may be completed by a later call to collectGarbage().
+	 * @throws IOException If an IO exception occurs
+	 */
+	private void finishGC() throws IOException {
+		gcLock.writeLock().lock();
+		try {
+			Etch old=etch;
+			Etch newEtch=target;
+			long oldSize=old.getFile().length();
+			newEtch.writeDataLength();
+			newEtch.flush();
+
+			// Old file is unlinked but remains open and readable until the next cycle
+			newEtch.moveTo(old.getFile());
+			previous=old;
+			previousSize=oldSize;
+			etch=newEtch;
+			target=null;
+		} finally {
+			gcLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Closes the file replaced by the last GC cycle, if any, releasing its disk space.
+	 * Must be called while synchronized and holding the GC write lock.
+	 */
+	private void releasePrevious() {
+		Etch old=previous;
+		if (old==null) return;
+		previous=null;
+		old.close();
+		gcReclaimed=previousSize;
+		log.debug("Released replaced Etch file, reclaimed {} bytes",gcReclaimed);
+	}
+
+	/**
+	 * Ensures a Cell and everything reachable from it is present in the destination file, copying
+	 * from previous Etch files where needed. Children are always written before parents, and a
+	 * Cell is only written at PERSISTED status or above if its complete subtree is present, so
+	 * copying can stop at any Cell already persisted in the destination.
+	 *
+	 * @return true if the Ref and its complete subtree are now available in the destination, false otherwise
+	 */
+	private boolean copyForward(Etch dest, Ref<?> ref) throws IOException {
+		ACell cell;
+		Ref<ACell> stored=null;
+		if (ref.isEmbedded()) {
+			cell=ref.getValue();
+			if (cell==null) return true;
+		} else {
+			Hash hash=ref.getHash();
+			if (dest.readStatus(hash)>=Ref.PERSISTED) return true;
+			stored=readPrevious(dest,hash);
+			if (stored==null) return false;
+			cell=stored.getValue();
 		}
+
+		boolean complete=true;
+		int n=cell.getRefCount();
+		for (int i=0; i<n; i++) {
+			try {
+				if (!copyForward(dest,cell.getRef(i))) complete=false;
+			} catch (MissingDataException e) {
+				complete=false;
+			}
+		}
+
+		if (stored!=null) {
+			if (!complete) {
+				// partial data is retained, but must not claim a complete subtree
+				stored=stored.withFlags(stored.flagsWithStatus(Math.min(stored.getStatus(), Ref.STORED)));
+			}
+			dest.write(stored.getHash(),stored);
+		}
+		return complete;
+	}
+
+	/**
+	 * Reads a Cell from the Etch files preceding the given destination file
+	 * @return Ref to the Cell, or null if not found
+	 */
+	private Ref<ACell> readPrevious(Etch dest, Hash hash) throws IOException {
+		Etch e=etch;
+		if (e!=dest) {
+			Ref<ACell> r=e.read(hash);
+			if (r!=null) return r;
+		}
+		Etch old=previous;
+		if (old!=null) return old.read(hash);
+		return null;
+	}
+
+	/**
+	 * Checks if a GC cycle is currently in progress
+	 * @return true if collecting, false otherwise
+	 */
+	public boolean isCollecting() {
+		return target!=null;
+	}
+
+	/**
+	 * Gets the disk space freed when the file replaced by a GC cycle was last released
+	 * @return Bytes reclaimed
+	 */
+	public synchronized long getGCReclaimed() {
+		return gcReclaimed;
+	}
+
+	/**
+	 * Gets the time writes were paused during the last GC cycle
+	 * @return Pause time in nanoseconds
+	 */
+	public synchronized long getGCPauseTime() {
+		return gcPauseTime;
+	}
+
+	/**
+	 * Gets the total time taken by the last GC cycle
+	 * @return Total time in nanoseconds
+	 */
+	public synchronized long getGCTotalTime() {
+		return gcTotalTime;
+	}
+
+	/**
+	 * Gets the number of Etch files currently held open by this store, including any GC
+	 * target and any file replaced by the last GC cycle
+	 * @return Number of open files
+	 */
+	public int getOpenFileCount() {
+		return 1+((target!=null)?1:0)+((previous!=null)?1:0);
+	}
+
+	private Etch getWriteEtch() {
+		Etch t=target;
+		if (t!=null) return t;
 		return etch;
 	}
 
@@ -124,11 +367,22 @@ public class EtchStore extends AStore {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends ACell> Ref<T> refForHash(Hash hash) {
+		Etch e=etch;
+		Etch old=previous;
 		try {
-			Ref<ACell> existing = etch.read(hash);
-			return (Ref<T>) existing;
-		} catch (IOException e) {
-			throw Utils.sneakyThrow(e);
+			Etch t=target;
+			if (t!=null) {
+				Ref<ACell> existing = t.read(hash);
+				if (existing!=null) return (Ref<T>) existing;
+			}
+			Ref<ACell> existing = e.read(hash);
+			if (existing!=null) return (Ref<T>) existing;
+			if (old!=null) return (Ref<T>) old.read(hash);
+			return null;
+		} catch (IOException ex) {
+			// file may have been swapped or released by GC while reading, in which case retry
+			if ((e!=etch)||(old!=previous)) return refForHash(hash);
+			throw Utils.sneakyThrow(ex);
 		}
 	}
 
@@ -143,73 +397,163 @@ public class EtchStore extends AStore {
 	}
 
 	@SuppressWarnings("unchecked")
+	@Override
+	public List<Ref<ACell>> storeRefs(List<? extends Ref<?>> refs, int status, Consumer<Ref<ACell>> noveltyHandler) {
+		gcLock.readLock().lock();
+		try {
+			WriteBatch batch = new WriteBatch(status);
+			ArrayList<Ref<ACell>> result = new ArrayList<>(refs.size());
+			for (Ref<?> ref : refs) {
+				result.add(batch.collect((Ref<ACell>) ref, true));
+			}
+			batch.commit(noveltyHandler);
+			for (int i = 0; i < result.size(); i++) {
+				result.set(i, batch.getWritten(result.get(i)));
+			}
+			return result;
+		} finally {
+			gcLock.readLock().unlock();
+		}
+	}
+
 	public <T extends ACell> Ref<T> storeRef(Ref<T> ref, Consumer<Ref<ACell>> noveltyHandler, int requiredStatus,
 			boolean topLevel) {
-		// first check if the Ref is already persisted to required level
-		if (ref.getStatus() >= requiredStatus) {
-			// we are done as long as not top level
-			if (!topLevel) return ref;
+		gcLock.readLock().lock();
+		try {
+			WriteBatch batch = new WriteBatch(requiredStatus);
+			Ref<T> result = batch.collect(ref, topLevel);
+			batch.commit(noveltyHandler);
+			return batch.getWritten(result);
+		} finally {
+			gcLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * A batch of Refs to be written to the Etch file in a single group commit.
+	 *
+	 * Novel cells are collected depth first, so children are always written before their parents.
+	 */
+	private final class WriteBatch {
+		private final int requiredStatus;
+
+		/**
+		 * Etch file to write to. Fixed for the batch, since GC cannot start or finish while a batch holds the lock
+		 */
+		private final Etch writeEtch = getWriteEtch();
+
+		/**
+		 * Write file if collecting or a replaced file is still held, in which case existing Cells
+		 * only present in the previous file must be copied forward. Null otherwise.
+		 */
+		private final Etch copyTarget = ((target!=null)||(previous!=null))?writeEtch:null;
+		private final ArrayList<Ref<ACell>> pending = new ArrayList<>();
+		private final HashMap<Hash, Integer> pendingIndex = new HashMap<>();
+		private List<Ref<ACell>> written = null;
+
+		WriteBatch(int requiredStatus) {
+			this.requiredStatus = requiredStatus;
 		}
 
-		final ACell cell = ref.getValue();
-		// Quick handling for null
-		if (cell == null) return (Ref<T>) Ref.NULL_VALUE;
-
-		// check store for existing ref first.
-		boolean embedded = cell.isEmbedded();
-		Hash hash = null;
-		// if not embedded, worth checking store first for existing value
-		if (!embedded) {
-			hash = ref.getHash();
-			Ref<T> existing = refForHash(hash);
-			if (existing != null) {
-				// Return existing ref if status is sufficient
-				if (existing.getStatus() >= requiredStatus) {
-					cell.attachRef(existing);
-					return existing;
+		@SuppressWarnings("unchecked")
+		<T extends ACell> Ref<T> collect(Ref<T> ref, boolean topLevel) {
+			// first check if the Ref is already persisted to required level
+			if (ref.getStatus() >= requiredStatus) {
+				// we are done as long as not top level, and present in the write file if copying forward
+				if (!topLevel) {
+					if (copyTarget == null) return ref;
+					if (copyForward(ref)) return ref;
 				}
 			}
-		}
 
-		// beyond STORED level, need to recursively persist child refs if they exist
-		if ((requiredStatus > Ref.STORED)&&(cell.getRefCount()>0)) {
-			IRefFunction func = r -> {
-				return storeRef((Ref<ACell>) r, noveltyHandler, requiredStatus, false);
-			};
+			final ACell cell = ref.getValue();
+			// Quick handling for null
+			if (cell == null) return (Ref<T>) Ref.NULL_VALUE;
 
-			// need to do recursive persistence
-			// TODO: maybe switch to a queue? Mitigate risk of stack overflow?
-			ACell newObject = cell.updateRefs(func);
+			// check store for existing ref first.
+			boolean embedded = cell.isEmbedded();
+			Hash hash = null;
+			// if not embedded, worth checking batch and store first for existing value
+			if (!embedded) {
+				hash = ref.getHash();
+				Integer ix = pendingIndex.get(hash);
+				if (ix != null) return (Ref<T>) pending.get(ix);
 
-			// perhaps need to update Ref
-			if (cell != newObject) ref = ref.withValue((T) newObject);
+				Ref<T> existing = refForHash(hash);
+				if (existing != null) {
+					// Return existing ref if status is sufficient
+					if ((existing.getStatus() >= requiredStatus) && ((copyTarget == null) || copyForward(existing))) {
+						cell.attachRef(existing);
+						return existing;
+					}
+				}
+			}
+
+			// beyond STORED level, need to recursively persist child refs if they exist
+			if ((requiredStatus > Ref.STORED) && (cell.getRefCount() > 0)) {
+				IRefFunction func = r -> {
+					return collect((Ref<ACell>) r, false);
+				};
+
+				// need to do recursive persistence
+				// TODO: maybe switch to a queue? Mitigate risk of stack overflow?
+				ACell newObject = cell.updateRefs(func);
+
+				// perhaps need to update Ref
+				if (cell != newObject) ref = ref.withValue((T) newObject);
+			}
+
+			// ensure status is set when we write to store
+			ref = ref.withMinimumStatus(requiredStatus);
+			if (topLevel || !embedded) {
+				final Hash fHash = (hash != null) ? hash : ref.getHash();
+				if (log.isTraceEnabled()) {
+					log.trace("Etch persisting at status=" + requiredStatus + " hash = 0x" + fHash.toHexString()
+							+ " ref of class " + Utils.getClassName(cell) + " with store " + EtchStore.this);
+				}
+				pendingIndex.put(fHash, pending.size());
+				pending.add((Ref<ACell>) ref);
+			}
+			return ref;
 		}
 
-		if (topLevel || !embedded) {
-			// Do actual write to store
-			final Hash fHash = (hash != null) ? hash : ref.getHash();
-			if (log.isTraceEnabled()) {
-				log.trace( "Etch persisting at status=" + requiredStatus + " hash = 0x"
-						+ fHash.toHexString() + " ref of class " + Utils.getClassName(cell) + " with store " + this);
+		private boolean copyForward(Ref<?> ref) {
+			try {
+				return EtchStore.this.copyForward(copyTarget, ref);
+			} catch (IOException e) {
+				throw Utils.sneakyThrow(e);
 			}
+		}
 
-			Ref<ACell> result;
+		/**
+		 * Writes all collected Refs, then calls the novelty handler for each newly
+		 * persisted non-embedded Ref in write order
+		 */
+		void commit(Consumer<Ref<ACell>> noveltyHandler) {
+			if (pending.isEmpty()) return;
 			try {
-				// ensure status is set when we write to store
-				ref = ref.withMinimumStatus(requiredStatus);
-				result = etch.write(fHash, (Ref<ACell>) ref);
+				written = writeEtch.writeAll(pending);
 			} catch (IOException e) {
 				throw Utils.sneakyThrow(e);
 			}
 
-			// call novelty handler if newly persisted non-embedded
 			if (noveltyHandler != null) {
-				if (!embedded) noveltyHandler.accept(result);
+				for (Ref<ACell> r : written) {
+					if (!r.getValue().isEmbedded()) noveltyHandler.accept(r);
+				}
 			}
-			return (Ref<T>) result;
-		} else {
-			// no need to write, just tag updated status
-			return ref.withMinimumStatus(requiredStatus);
+		}
+
+		/**
+		 * Gets the Ref as returned by the store for a collected Ref, which may have
+		 * merged flags if the value was already present
+		 */
+		@SuppressWarnings("unchecked")
+		<T extends ACell> Ref<T> getWritten(Ref<T> ref) {
+			if ((written == null) || (ref.getValue() == null)) return ref;
+			Integer ix = pendingIndex.get(ref.getHash());
+			if ((ix == null) || (pending.get(ix) != ref)) return ref;
+			return (Ref<T>) written.get(ix);
 		}
 	}
 
@@ -228,7 +572,26 @@ public class EtchStore extends AStore {
 	}
 
 	public void close() {
+		// let any running GC cycle complete, so that recent writes are not left in the GC target
+		Thread t;
+		synchronized (this) {
+			t=gcThread;
+		}
+		if (t!=null) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Etch target=this.target;
+		if (target!=null) {
+			log.warn("Closing Etch store during incomplete GC: {}",target.getFile());
+			target.close();
+		}
 		etch.close();
+		Etch old=previous;
+		if (old!=null) old.close();
 	}
 
 	/**
@@ -252,12 +615,18 @@ public class EtchStore extends AStore {
 
 	@Override
 	public void setRootData(ACell data) throws IOException {
-		// Ensure data if persisted at sufficient level
-		Ref<ACell> ref=storeTopRef(data.getRef(), Ref.PERSISTED,null);
-		Hash h=ref.getHash();
-		Etch etch=getWriteEtch();
-		etch.setRootHash(h);
-		etch.writeDataLength(); // ensure data length updated for root data addition
+		// hold GC lock so that root data and root hash are written to the same file
+		gcLock.readLock().lock();
+		try {
+			// Ensure data if persisted at sufficient level
+			Ref<ACell> ref=storeTopRef(data.getRef(), Ref.PERSISTED,null);
+			Hash h=ref.getHash();
+			Etch etch=getWriteEtch();
+			etch.setRootHash(h);
+			etch.writeDataLength(); // ensure data length updated for root data addition
+		} finally {
+			gcLock.readLock().unlock();
+		}
 	}
 
 	/**
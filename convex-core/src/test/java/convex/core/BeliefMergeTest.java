@@ -166,6 +166,29 @@ public class BeliefMergeTest {
 		assertEquals(b1a.getPeerOrder().getBlocks(), bm2.getPeerOrder().getBlocks());
 	}
 
+	@Test
+	public void testDeltaMerge() throws BadSignatureException, InvalidDataException {
+		Peer[] bs = shareBeliefs(initialBeliefs());
+		Belief base = bs[1].getBelief();
+
+		// peer 1 proposes a new block, so only its own Order changes
+		Peer p1 = bs[1].updateTimestamp(bs[1].getTimeStamp() + 200);
+		p1 = p1.proposeBlock(Block.of(TEST_TIMESTAMP + 200));
+		Belief full = p1.getBelief();
+		Belief delta = full.createDelta(base.getOrders());
+		assertEquals(1, delta.getOrders().count());
+		assertEquals(full.getTimestamp(), delta.getTimestamp());
+		assertEquals(full.getOrders(), base.applyDelta(delta).getOrders());
+
+		// merging the delta has the same effect as merging the full Belief
+		Peer mFull = bs[0].mergeBeliefs(full);
+		Peer mDelta = bs[0].mergeBeliefs(delta);
+		assertEquals(mFull.getBelief().getOrders(), mDelta.getBelief().getOrders());
+
+		// no changes gives an empty delta
+		assertEquals(0, full.createDelta(full.getOrders()).getOrders().count());
+	}
+
 	/**
 	 * This test creates a set of peers, and a single transaction sending tokens
 	 * from the first peers to the last peer Each round of peers updates is
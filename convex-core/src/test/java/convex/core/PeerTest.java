@@ -2,20 +2,30 @@ package convex.core;
 
 import static convex.test.Assertions.assertNobodyError;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import convex.core.data.AVector;
 import convex.core.data.AccountKey;
 import convex.core.data.PeerStatus;
 import convex.core.data.RecordTest;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadSignatureException;
+import convex.core.exceptions.InvalidDataException;
+import convex.core.init.Init;
 import convex.core.init.InitTest;
 import convex.core.lang.RT;
 import convex.core.lang.Reader;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
 import convex.test.Samples;
+import etch.EtchStore;
 
 public class PeerTest {
 	static State STATE=InitTest.STATE;
@@ -115,4 +125,51 @@ public class PeerTest {
 		assertEquals(5, p.asOfRange(initialTimestamp, 1000 * 60, 5).count());
 	}
 
+	@Test
+	public void testArchiveHistory() throws BadSignatureException, InvalidDataException {
+		AStore saved=Stores.current();
+		try {
+			Stores.setCurrent(EtchStore.createTemp());
+			State genesis=Init.createState(List.of(InitTest.FIRST_PEER_KEY));
+			Peer p = Peer.create(InitTest.FIRST_PEER_KEYPAIR, genesis);
+			long ts=genesis.getTimeStamp().longValue();
+
+			int BLOCKS=20;
+			for (int i=1; i<=BLOCKS; i++) {
+				p=p.proposeBlock(Block.of(ts+i*1000));
+				p=p.mergeBeliefs();
+				p=p.persistState(null);
+			}
+			long n=p.getStates().count();
+			assertTrue(n>10);
+			AVector<State> states=p.getStates();
+
+			// retain only the last 2 States in memory
+			Peer archived=p.archiveHistory(2, 0);
+			AVector<State> archivedStates=archived.getStates();
+			assertEquals(states.getHash(),archivedStates.getHash());
+			assertTrue(archivedStates.getElementRef(n-1).isDirect());
+			assertFalse(archivedStates.getElementRef(0).isDirect());
+			assertEquals(p.getNetworkID(),archived.getNetworkID());
+
+			// archived States are loaded lazily from the store
+			for (int i=0; i<n; i++) {
+				assertEquals(states.get(i),archivedStates.get(i));
+			}
+			for (int i=0; i<n-1; i++) {
+				assertEquals(p.getBlockResult(i).getState(),archived.getBlockResult(i).getState());
+			}
+			CVMLong early=CVMLong.create(ts+1500);
+			assertEquals(p.asOf(early),archived.asOf(early));
+			assertEquals(p.asOfRange(early, 1000, 5),archived.asOfRange(early, 1000, 5));
+
+			// further blocks still extend the archived history
+			archived=archived.proposeBlock(Block.of(ts+(BLOCKS+1)*1000));
+			archived=archived.mergeBeliefs();
+			assertTrue(archived.getStates().count()>=n);
+		} finally {
+			Stores.setCurrent(saved);
+		}
+	}
+
 }
@@ -7,6 +7,10 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 import convex.core.crypto.AKeyPair;
@@ -21,6 +25,7 @@ import convex.core.data.BlobMap;
 import convex.core.data.SignedData;
 import convex.core.data.Vectors;
 import convex.core.exceptions.BadSignatureException;
+import convex.core.init.Init;
 import convex.core.init.InitTest;
 import convex.core.lang.Juice;
 import convex.core.lang.Reader;
@@ -28,6 +33,7 @@ import convex.core.lang.TestState;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Invoke;
 import convex.core.transactions.Transfer;
+import convex.core.util.Counters;
 import convex.core.util.Utils;
 
 /**
@@ -265,6 +271,109 @@ public class StateTransitionsTest {
 		assertTrue(initialMem<newMem);
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testParallelExecution() throws BadSignatureException {
+		State s = TestState.STATE;
+		AKeyPair[] kps=InitTest.KEYPAIRS;
+		ArrayList<SignedData<ATransaction>> txs=new ArrayList<>();
+
+		// independent transactions from different accounts
+		for (int i=1; i<kps.length; i++) {
+			Address origin=Init.getGenesisPeerAddress(i);
+			txs.add(kps[i].signData(Invoke.create(origin,1,Reader.read("(def a [\"some data to store\" "+i+" (str *address*) [1 2 3 4 5 6 7 8 9]])"))));
+		}
+
+		// conflicting transactions: same origin, shared target, new accounts, state reads
+		AKeyPair kp = InitTest.HERO_KEYPAIR;
+		Address HERO=InitTest.HERO;
+		txs.add(kp.signData(Transfer.create(HERO,1, InitTest.VILLAIN, 1000)));
+		txs.add(kp.signData(Invoke.create(HERO,2,Reader.read("(transfer "+InitTest.VILLAIN+" 2000)"))));
+		txs.add(kp.signData(Invoke.create(HERO,3,Reader.read("(deploy '(def x 1))"))));
+		txs.add(kp.signData(Invoke.create(HERO,4,Reader.read("(create-account *key*)"))));
+		txs.add(kp.signData(Invoke.create(HERO,5,Reader.read("(count (str *state*))"))));
+		txs.add(kp.signData(Invoke.create(HERO,7,Reader.read("(bad sequence)"))));
+		txs.add(kp.signData(Invoke.create(HERO,6,Reader.read("(schedule (+ *timestamp* 1000) (def y 2))"))));
+		for (int i=1; i<kps.length; i++) {
+			Address origin=Init.getGenesisPeerAddress(i);
+			txs.add(kps[i].signData(Invoke.create(origin,2,Reader.read("(do (def b (str a)) (transfer "+HERO+" 100) (balance "+InitTest.VILLAIN+"))"))));
+		}
+
+		Block b = Block.of(s.getTimeStamp().longValue(), txs.toArray(new SignedData[txs.size()]));
+		BlockResult seq=s.applyBlock(b,false);
+
+		long commits=Counters.parallelCommit;
+		BlockResult par=s.applyBlock(b,true);
+		assertTrue(Counters.parallelCommit>commits);
+
+		assertEquals(seq.getResults(),par.getResults());
+		assertEquals(seq.getState().getHash(),par.getState().getHash());
+		assertEquals(s.computeTotalFunds(),par.getState().computeTotalFunds());
+	}
+
+	@Test
+	public void testParallelExecutionRandom() throws BadSignatureException {
+		long commits=Counters.parallelCommit;
+		for (long seed=0; seed<50; seed++) {
+			Random r=new Random(seed);
+			State s = TestState.STATE;
+			HashMap<Address,Long> sequences=new HashMap<>();
+			long ts=s.getTimeStamp().longValue();
+			for (int blockNum=0; blockNum<3; blockNum++) {
+				int n=4+r.nextInt(40);
+				ArrayList<SignedData<ATransaction>> txs=new ArrayList<>();
+				for (int i=0; i<n; i++) {
+					txs.add(randomTransaction(r,s,sequences));
+				}
+				ts+=r.nextInt(2000);
+				Block b = Block.of(ts, txs.toArray(new SignedData[txs.size()]));
+				BlockResult seq=s.applyBlock(b,false);
+				BlockResult par=s.applyBlock(b,true);
+
+				String info="seed "+seed+" block "+blockNum;
+				assertEquals(seq.getResults(),par.getResults(),info);
+				assertEquals(seq.getState().getHash(),par.getState().getHash(),info);
+				s=seq.getState();
+			}
+		}
+		assertTrue(Counters.parallelCommit>commits);
+	}
+
+	/**
+	 * Creates a random transaction for parallel execution tests, with a mix of independent
+	 * and conflicting operations. Sequence numbers are usually, but not always, correct.
+	 */
+	private static SignedData<ATransaction> randomTransaction(Random r, State s, HashMap<Address,Long> sequences) {
+		AKeyPair[] kps=InitTest.KEYPAIRS;
+		int oi=r.nextInt(kps.length+1);
+		Address origin=(oi==kps.length)?InitTest.HERO:Init.getGenesisPeerAddress(oi);
+		AKeyPair kp=(oi==kps.length)?InitTest.HERO_KEYPAIR:kps[oi];
+		Address target=Init.getGenesisPeerAddress(r.nextInt(kps.length));
+		String peerKey=kps[r.nextInt(kps.length)].getAccountKey().toString();
+
+		long seq=sequences.computeIfAbsent(origin, a->s.getAccount(a).getSequence())+1;
+		if (r.nextInt(20)>0) sequences.put(origin, seq); else seq+=r.nextInt(3)-1;
+
+		String source;
+		switch (r.nextInt(14)) {
+			case 0: return kp.signData(Transfer.create(origin,seq,target,r.nextInt(1000000)));
+			case 1: source="(transfer "+target+" "+r.nextInt(1000000)+")"; break;
+			case 2: source="(transfer "+target+" (- *balance* "+r.nextInt(100000)+"))"; break;
+			case 3: source="(create-account *key*)"; break;
+			case 4: source="(schedule (+ *timestamp* "+r.nextInt(3000)+") (def sched "+r.nextInt()+"))"; break;
+			case 5: source="(set-peer-stake "+peerKey+" "+r.nextInt(1000000)+")"; break;
+			case 6: source="(create-peer "+Ed25519KeyPair.createSeeded(100+r.nextInt(10)).getAccountKey()+" "+r.nextInt(1000000)+")"; break;
+			case 7: source="(def data (vec (range "+r.nextInt(200)+")))"; break;
+			case 8: source="(transfer-memory "+target+" "+r.nextInt(2000)+")"; break;
+			case 9: source="(set-memory "+r.nextInt(100000)+")"; break;
+			case 10: source="(loop [i 0] (if (< i "+r.nextInt(2000)+") (recur (inc i)) *juice*))"; break;
+			case 11: source="(do (def b (balance "+target+")) [*juice-price* *memory* (count (str *state*))])"; break;
+			case 12: source="(def a (str *address* "+r.nextInt()+"))"; break;
+			default: source="(fail :random)"; break;
+		}
+		return kp.signData(Invoke.create(origin,seq,Reader.read(source)));
+	}
+
 	@Test
 	public void testScheduleOps() throws BadSignatureException {
 		State s = TestState.STATE;
@@ -16,14 +16,17 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Base64;
 
 import org.junit.jupiter.api.Test;
 
+import convex.core.data.ABlob;
 import convex.core.data.ACell;
 import convex.core.data.AccountKey;
 import convex.core.data.Blob;
 import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
 import convex.core.exceptions.InvalidDataException;
 import convex.core.lang.RT;
@@ -37,6 +40,36 @@ public class Ed25519Test {
 		assertNotEquals(kp1,kp2);
 	}
 
+	@Test
+	public void testBatchVerify() {
+		AKeyPair kp=Ed25519KeyPair.generate();
+		int n=10;
+		ArrayList<SignedData<CVMLong>> items=new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			SignedData<CVMLong> good=kp.signData(RT.cvm(1000+i));
+			// Fresh unchecked instance so that batch does the verification
+			items.add(SignedData.create(kp.getAccountKey(), good.getSignature(), good.getDataRef()));
+		}
+		// Corrupt one item with a signature for different data
+		SignedData<CVMLong> other=kp.signData(RT.cvm(-1));
+		items.set(3, SignedData.create(kp.getAccountKey(), other.getSignature(), items.get(3).getDataRef()));
+
+		assertEquals(1,SignedData.checkSignatures(items));
+		for (int i=0; i<n; i++) {
+			assertTrue(items.get(i).isSignatureChecked());
+			assertEquals(i!=3,items.get(i).checkSignature());
+		}
+
+		// Already checked, so nothing to do
+		assertEquals(0,SignedData.checkSignatures(items));
+
+		// Direct use of batch API
+		ASignature[] sigs=new ASignature[] {items.get(0).getSignature(),items.get(3).getSignature()};
+		ABlob[] msgs=new ABlob[] {items.get(0).getDataRef().getHash(),items.get(3).getDataRef().getHash()};
+		AccountKey[] keys=new AccountKey[] {kp.getAccountKey(),kp.getAccountKey()};
+		assertArrayEquals(new boolean[] {true,false},ASignature.verifyBatch(sigs, msgs, keys));
+	}
+
 	@Test
 	public void testPublicKeyBytes() {
 		Ed25519KeyPair kp1=Ed25519KeyPair.generate();
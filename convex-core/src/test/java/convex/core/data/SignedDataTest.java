@@ -11,10 +11,12 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 import convex.core.crypto.AKeyPair;
+import convex.core.crypto.SignatureCache;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadSignatureException;
 import convex.core.init.InitTest;
 import convex.core.lang.RT;
+import convex.core.util.Counters;
 import convex.test.Samples;
 
 public class SignedDataTest {
@@ -83,6 +85,30 @@ public class SignedDataTest {
 		assertTrue(sd1.checkSignature());
 	}
 
+	@Test 
+	public void testGlobalVerificationCache() {
+		CVMLong cl=RT.cvm(987654321);
+		AKeyPair kp = InitTest.HERO_KEYPAIR;
+		SignedData<CVMLong> signed = kp.signData(cl);
+		
+		// fresh unverified instance with same key, value and signature
+		SignedData<CVMLong> sd1 = SignedData.create(kp.getAccountKey(), signed.getSignature(), Ref.get(cl));
+		assertFalse(sd1.isSignatureChecked());
+		assertTrue(sd1.checkSignature());
+		assertTrue(SignatureCache.isCached(sd1.getSignature(), sd1.getDataRef().getHash(), kp.getAccountKey()));
+		
+		// another fresh instance should hit the cache
+		long hits=Counters.signatureCacheHit;
+		SignedData<CVMLong> sd2 = SignedData.create(kp.getAccountKey(), signed.getSignature(), Ref.get(cl));
+		assertTrue(sd2.checkSignature());
+		assertTrue(Counters.signatureCacheHit>hits);
+		
+		// different signature for same key and value must not hit the cache
+		SignedData<CVMLong> bad = SignedData.create(kp.getAccountKey(), Samples.BAD_SIGNATURE, Ref.get(cl));
+		assertFalse(SignatureCache.isCached(bad.getSignature(), bad.getDataRef().getHash(), kp.getAccountKey()));
+		assertFalse(bad.checkSignature());
+	}
+
 	@Test
 	public void testNullValueSignings() throws BadSignatureException {
 		SignedData<ACell> sd = SignedData.create(InitTest.HERO_KEYPAIR, null);
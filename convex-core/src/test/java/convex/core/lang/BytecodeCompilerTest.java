@@ -0,0 +1,111 @@
+package convex.core.lang;
+
+import static convex.test.Assertions.assertDepthError;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.ErrorCodes;
+import convex.core.data.ACell;
+import convex.core.util.Counters;
+
+/**
+ * Tests that functions compiled to JVM bytecode behave identically to the interpreter
+ */
+public class BytecodeCompilerTest extends ACVMTest {
+
+	/**
+	 * Runs source with compilation disabled, then with functions compiled on first invocation,
+	 * and checks results, juice and depth are identical.
+	 */
+	private Context<?> checkSame(String source) {
+		int saved = BytecodeCompiler.getThreshold();
+		try {
+			BytecodeCompiler.setThreshold(0);
+			Context<?> interpreted = step(source);
+			long compiledCount = Counters.compiledFns;
+			long failures = Counters.compileFailures;
+			BytecodeCompiler.clear();
+			BytecodeCompiler.setThreshold(1);
+			Context<?> compiled = step(source);
+
+			assertEquals(interpreted.isExceptional(), compiled.isExceptional(), source);
+			if (interpreted.isExceptional()) {
+				assertEquals(interpreted.getErrorCode(), compiled.getErrorCode(), source);
+			} else {
+				assertEquals(interpreted.getResult(), compiled.getResult(), source);
+				assertEquals(interpreted.getLocalBindings(), compiled.getLocalBindings(), source);
+			}
+			assertEquals(interpreted.getJuice(), compiled.getJuice(), source);
+			assertEquals(interpreted.getDepth(), compiled.getDepth(), source);
+			assertEquals(interpreted.getState(), compiled.getState(), source);
+			assertTrue(Counters.compiledFns > compiledCount, source);
+			assertEquals(failures, Counters.compileFailures, source);
+			return compiled;
+		} finally {
+			BytecodeCompiler.setThreshold(saved);
+		}
+	}
+
+	@Test
+	public void testOps() {
+		checkSame("((fn [] 1))");
+		checkSame("((fn [a b] (+ a b)) 1 2)");
+		checkSame("((fn [x] (do)) 1)");
+		checkSame("((fn [x] (do (inc x) (dec x))) 1)");
+		checkSame("((fn [x] (cond (= x 1) :one (= x 2) :two :other)) 2)");
+		checkSame("((fn [x] (cond (= x 1) :one)) 3)");
+		checkSame("((fn [x] (if x :yes :no)) nil)");
+		checkSame("((fn [x] (let [a x [b c] [a a]] (+ a b c))) 3)");
+		checkSame("((fn [x] (let [a x] (set! a 10) a)) 3)");
+		checkSame("((fn [x] (let [])) 3)");
+		checkSame("((fn [x] (query (def y x) y)) 3)");
+		checkSame("((fn [x] (let [f (fn [y] (* x y))] (f 7))) 3)");
+	}
+
+	@Test
+	public void testLoops() {
+		checkSame("((fn [n] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (+ acc i)) acc))) 100)");
+		checkSame("((fn [n] (loop [i 0] (if (< i n) (recur (inc i))))) 10)");
+		checkSame("((fn [n] (loop [i 0] (if (< i n) (recur (inc i) 2) i))) 10)");
+		checkSame("((fn [n] (dotimes [i n] (inc i))) 10)");
+		checkSame("(do (defn fact [n] (if (<= n 1) 1 (* n (fact (dec n))))) (fact 10))");
+		checkSame("((fn [n] (if (> n 0) (recur (dec n)) :done)) 10)");
+	}
+
+	@Test
+	public void testErrors() {
+		checkSame("((fn [x] (x 1)) 2)");
+		checkSame("((fn [x] (undeclared-symbol x)) 2)");
+		checkSame("((fn [x] (let [[a b] x] a)) 2)");
+		checkSame("((fn [x] (return x) 3) 2)");
+		checkSame("((fn [x] (halt x) 3) 2)");
+		checkSame("((fn [x] (rollback x) 3) 2)");
+		checkSame("((fn [x] (fail :FOO \"bar\")) 2)");
+
+		// depth limit is reached at the same point
+		Context<?> ctx = checkSame("(do (defn f [n] (f (inc n))) (f 0))");
+		assertDepthError(ctx);
+
+		// juice limit is reached at the same point
+		ctx = checkSame("((fn [] (loop [] (recur))))");
+		assertEquals(ErrorCodes.JUICE, ctx.getErrorCode());
+	}
+
+	@Test
+	public void testCache() {
+		AOp<ACell> op = comp("(let [a 1] (+ a 2))");
+		BytecodeCompiler.Compiled c = BytecodeCompiler.compile(op);
+		assertNotNull(c);
+		assertSame(c, BytecodeCompiler.compile(op));
+
+		Context<?> ctx = context();
+		Context<?> r1 = ctx.fork().execute(op);
+		Context<?> r2 = c.execute(ctx.fork());
+		assertEquals(r1.getResult(), r2.getResult());
+		assertEquals(r1.getJuice(), r2.getJuice());
+	}
+}
@@ -0,0 +1,104 @@
+package convex.core.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.ErrorCodes;
+import convex.core.data.ACell;
+import convex.core.init.Init;
+import convex.core.util.Counters;
+
+/**
+ * Tests for the compiled form cache
+ */
+public class CompileCacheTest extends ACVMTest {
+
+	private Context<AOp<ACell>> cachedCompile(Context<?> ctx, String source) {
+		return CompileCache.expandCompile(ctx.fork(), Reader.read(source));
+	}
+
+	private void assertCached(Context<?> ctx, String source) {
+		Context<AOp<ACell>> expected = ctx.fork().expandCompile(Reader.read(source));
+		cachedCompile(ctx, source);
+		long hits = Counters.compileCacheHit;
+		Context<AOp<ACell>> cached = cachedCompile(ctx, source);
+		assertEquals(hits + 1, Counters.compileCacheHit, source);
+		assertEquals(expected.getResult(), cached.getResult());
+		assertEquals(expected.getJuice(), cached.getJuice());
+	}
+
+	private void assertNotCached(Context<?> ctx, String source) {
+		cachedCompile(ctx, source);
+		long hits = Counters.compileCacheHit;
+		cachedCompile(ctx, source);
+		assertEquals(hits, Counters.compileCacheHit, source);
+	}
+
+	@Test
+	public void testCacheHit() {
+		Context<?> ctx = context();
+		assertCached(ctx, "(+ 1 2)");
+		assertCached(ctx, "(balance *address*)");
+		assertCached(ctx, "(if (> 1 2) :foo (dotimes [i 10] i))");
+		assertCached(ctx, "(defn f [x] (when x (inc x)))");
+
+		// same op instance from cache
+		AOp<ACell> op = cachedCompile(ctx, "(+ 1 2)").getResult();
+		assertSame(op, cachedCompile(ctx, "(+ 1 2)").getResult());
+	}
+
+	@Test
+	public void testInvalidation() {
+		Context<?> ctx = context();
+		AOp<ACell> op = cachedCompile(ctx, "(foo 1)").getResult();
+
+		// defining a macro changes the environment, so form is compiled again
+		ctx = step(ctx, "(defmacro foo [x] x)");
+		AOp<ACell> op2 = cachedCompile(ctx, "(foo 1)").getResult();
+		assertTrue(!op.equals(op2));
+		assertEquals(1L, evalL(ctx, "(foo 1)"));
+
+		// user defined expanders can depend on anything, so are never cached
+		assertNotCached(ctx, "(foo 1)");
+		assertNotCached(ctx, "(if (foo true) 1 2)");
+
+		// expanders in other accounts are not cached
+		assertNotCached(ctx, "((lookup "+Init.CORE_ADDRESS+" count) [1 2])");
+
+		// different address doesn't use cached entry
+		Context<?> vctx = ctx.forkWithAddress(VILLAIN);
+		assertEquals(VILLAIN, eval(vctx, "*address*"));
+		assertCached(vctx, "(+ 1 2)");
+	}
+
+	@Test
+	public void testJuice() {
+		Context<?> ctx = context();
+		String source = "(dotimes [i 10] (if i 1 2))";
+		Context<AOp<ACell>> full = cachedCompile(ctx, source);
+		long used = ctx.getJuice() - full.getJuice();
+		assertTrue(used > 0);
+
+		// hit with just enough juice
+		Context<AOp<ACell>> r = cachedCompile(ctx.fork().withJuice(used), source);
+		assertEquals(0, r.getJuice());
+		assertEquals(full.getResult(), r.getResult());
+
+		// not enough juice, so fails as if compiled
+		Context<AOp<ACell>> expected = ctx.fork().withJuice(used - 1).expandCompile(Reader.read(source));
+		r = cachedCompile(ctx.fork().withJuice(used - 1), source);
+		assertEquals(ErrorCodes.JUICE, r.getErrorCode());
+		assertEquals(expected.getJuice(), r.getJuice());
+	}
+
+	@Test
+	public void testErrorsNotCached() {
+		Context<?> ctx = context();
+		Context<AOp<ACell>> r = cachedCompile(ctx, "(fn [x 1] x)");
+		assertTrue(r.isExceptional());
+		assertNotCached(ctx, "(fn [x 1] x)");
+	}
+}
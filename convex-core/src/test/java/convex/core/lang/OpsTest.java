@@ -35,6 +35,7 @@ import convex.core.lang.ops.Let;
 import convex.core.lang.ops.Local;
 import convex.core.lang.ops.Lookup;
 import convex.core.lang.ops.Special;
+import convex.core.util.Counters;
 import convex.core.util.Utils;
 
 /**
@@ -252,6 +253,58 @@ public class OpsTest extends ACVMTest {
 		doOpTest(l2);
 	}
 
+	@Test
+	public void testLookupCache() {
+		Context<?> c=context();
+		Symbol sym=Symbol.create("lookup-cache-test");
+		c=c.define(sym, RT.cvm(1L));
+		Lookup<?> op=Lookup.create(sym);
+
+		// first lookup fills the cache, second hits it with the same juice
+		long hits=Counters.lookupCacheHit;
+		Context<?> c1=c.fork().execute(op);
+		assertEquals(RT.cvm(1L),c1.getResult());
+		Context<?> c2=c.fork().execute(op);
+		assertEquals(RT.cvm(1L),c2.getResult());
+		assertEquals(hits+1,Counters.lookupCacheHit);
+		assertEquals(c1.getJuice(),c2.getJuice());
+
+		// new environment invalidates cache
+		c=c.define(sym, RT.cvm(2L));
+		assertEquals(RT.cvm(2L),c.fork().execute(op).getResult());
+
+		// undeclared in a different environment
+		Context<?> c3=context().forkWithAddress(VILLAIN).execute(op);
+		assertUndeclaredError(c3);
+
+		// core symbols resolved via core environment are cached too
+		Lookup<?> core=Lookup.create("count");
+		assertEquals(Core.COUNT,c.fork().execute(core).getResult());
+		hits=Counters.lookupCacheHit;
+		assertEquals(Core.COUNT,c.fork().execute(core).getResult());
+		assertEquals(hits+1,Counters.lookupCacheHit);
+	}
+
+	@Test
+	public void testLocalFrames() {
+		// closures capture the current value of locals in the frame
+		assertEquals(Vectors.of(1L,2L),eval("(let [a 1 f (fn [] a)] (set! a 2) [(f) a])"));
+		assertEquals(Vectors.of(1L,3L),eval("((fn [x] (let [y x g (fn [] y)] (set! y 3) [(g) y])) 1)"));
+
+		// set! of an outer local in a nested scope is restored on exit, even after growing the frame
+		assertEquals(1L,evalL("((fn [a] (let [b 2 c 3 d 4 e 5 f 6 g 7 h 8 i 9 j 10] (set! a 2)) a) 1)"));
+		assertEquals(55L,evalL("((fn [a] (let [b 2 c 3 d 4 e 5 f 6 g 7 h 8 i 9 j 10] (+ a b c d e f g h i j))) 1)"));
+
+		// set! in the current scope persists within the scope
+		assertEquals(3L,evalL("((fn [a] (set! a (inc a)) (set! a (inc a)) a) 1)"));
+
+		// loops rebind with fresh scope each iteration
+		assertEquals(10L,evalL("(loop [i 0 acc 0] (if (< i 5) (let [x i] (set! i (inc i)) (recur i (+ acc x))) acc))"));
+
+		// recursion gets a separate frame per invocation
+		assertEquals(120L,evalL("(do (defn fact [n] (let [m n] (if (<= m 1) 1 (* m (fact (dec m)))))) (fact 5))"));
+	}
+
 	@Test
 	public void testLocal() throws InvalidDataException {
 		Context<?> c=Context.createFake(State.EMPTY);
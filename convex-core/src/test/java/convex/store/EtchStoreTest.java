@@ -1,6 +1,7 @@
 package convex.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -11,6 +12,7 @@ import static org.junit.jupiter.api.Assertions.assertSame;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -217,6 +219,175 @@ public class EtchStoreTest {
 		}
 	}
 	
+	@Test
+	public void testStoreRefs() {
+		AStore oldStore = Stores.current();
+		ArrayList<Ref<ACell>> al = new ArrayList<>();
+		try {
+			Stores.setCurrent(store);
+			AVector<Blob> shared = Vectors.of(Blob.createRandom(new Random(), 100),Blob.createRandom(new Random(), 100));
+			AVector<ACell> a = Vectors.of(shared,Blob.createRandom(new Random(), 200));
+			AVector<ACell> b = Vectors.of(shared,CVMLong.ONE);
+
+			List<Ref<ACell>> refs=store.storeRefs(List.of(a.getRef(),b.getRef()),Ref.PERSISTED,r -> al.add(r));
+			assertEquals(2,refs.size());
+			assertEquals(a,refs.get(0).getValue());
+			assertEquals(b,refs.get(1).getValue());
+			assertTrue(refs.get(0).isPersisted());
+
+			// shared value only reported as novelty once
+			int sharedCount=0;
+			for (Ref<ACell> r: al) {
+				if (shared.equals(r.getValue())) sharedCount++;
+			}
+			assertEquals(1,sharedCount);
+
+			// all values readable from store
+			assertEquals(a,store.refForHash(a.getHash()).getValue());
+			assertEquals(shared,store.refForHash(shared.getHash()).getValue());
+
+			// storing again produces no novelty
+			int num=al.size();
+			store.storeRefs(List.of(a.getRef()),Ref.PERSISTED,r -> al.add(r));
+			assertEquals(num,al.size());
+		} finally {
+			Stores.setCurrent(oldStore);
+		}
+	}
+
+	@Test
+	public void testGarbageCollection() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore es = EtchStore.createTemp("gc-test");
+		try {
+			Stores.setCurrent(es);
+			File file=es.getFile();
+			AVector<Blob> live = Vectors.of(Blob.createRandom(new Random(), 200),Blob.createRandom(new Random(), 200));
+			AVector<Blob> garbage = Vectors.of(Blob.createRandom(new Random(), 200),Blob.createRandom(new Random(), 200));
+			es.setRootData(live);
+			ACell.createPersisted(garbage);
+			assertNotNull(es.refForHash(garbage.getHash()));
+
+			// start collection, then write new root data sharing old cells while collecting
+			es.startGC();
+			assertTrue(es.isCollecting());
+			AVector<ACell> newRoot = Vectors.of(live.get(0),Blob.createRandom(new Random(), 200));
+			es.setRootData(newRoot);
+			assertEquals(newRoot,es.getRootData());
+
+			es.collectGarbage();
+			assertFalse(es.isCollecting());
+			assertEquals(file,es.getFile());
+			assertEquals(2,es.getOpenFileCount()); // replaced file held until next cycle
+
+			// live data retained, garbage removed from current file
+			assertEquals(newRoot.getHash(),es.getRootHash());
+			assertEquals(newRoot,es.refForHash(newRoot.getHash()).getValue());
+			assertEquals(live.get(0),es.refForHash(live.get(0).getHash()).getValue());
+			assertNull(es.getEtch().read(garbage.getHash()));
+			assertNull(es.getEtch().read(garbage.get(0).getHash()));
+
+			// store still writable after swap
+			AVector<Blob> later = Vectors.of(Blob.createRandom(new Random(), 200),Blob.createRandom(new Random(), 200));
+			ACell.createPersisted(later);
+			assertEquals(later,es.refForHash(later.getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			es.close();
+		}
+	}
+
+	@Test
+	public void testGarbageCollectionUnrooted() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore es = EtchStore.createTemp("gc-unrooted-test");
+		File file=es.getFile();
+		AVector<Blob> held = Vectors.empty();
+		for (int i=0; i<10; i++) {
+			held=held.conj(Blob.createRandom(new Random(), 200));
+		}
+		try {
+			Stores.setCurrent(es);
+			es.setRootData(Vectors.of(Blob.createRandom(new Random(), 200)));
+
+			// persisted but not reachable from root, e.g. a queued transaction
+			Ref<AVector<Blob>> heldRef=ACell.createPersisted(held);
+			assertFalse(heldRef.isEmbedded());
+			assertTrue(heldRef.getStatus()>=Ref.PERSISTED);
+
+			es.collectGarbage();
+			assertNull(es.getEtch().read(held.getHash()));
+
+			// still readable by Refs created before the swap
+			assertEquals(held,es.refForHash(held.getHash()).getValue());
+
+			// new root data referencing the held cell copies it forward with its children
+			AVector<ACell> newRoot = Vectors.of(held,Blob.createRandom(new Random(), 200));
+			es.setRootData(newRoot);
+			assertNotNull(es.getEtch().read(held.getHash()));
+			assertNotNull(es.getEtch().read(held.get(0).getHash()));
+
+			// complete after a further cycle and reopening the file
+			es.collectGarbage();
+		} finally {
+			Stores.setCurrent(oldStore);
+			es.close();
+		}
+
+		EtchStore es2 = EtchStore.create(file);
+		try {
+			Stores.setCurrent(es2);
+			AVector<ACell> root=es2.getRootData();
+			assertEquals(held,root.get(0));
+			assertEquals(held,es2.refForHash(held.getHash()).getValue());
+			assertEquals(held.get(1),es2.refForHash(held.get(1).getHash()).getValue());
+		} finally {
+			Stores.setCurrent(oldStore);
+			es2.close();
+		}
+	}
+
+	@Test
+	public void testGarbageCollectionCycles() throws IOException {
+		AStore oldStore = Stores.current();
+		EtchStore es = EtchStore.createTemp("gc-cycles-test");
+		try {
+			Stores.setCurrent(es);
+			File file=es.getFile();
+			File temp=new File(file.getCanonicalPath()+"~");
+			AVector<Blob> live = Vectors.of(Blob.createRandom(new Random(), 200),Blob.createRandom(new Random(), 200));
+			es.setRootData(live);
+
+			long collectedSize=0;
+			long replacedSize=0;
+			for (int i=0; i<5; i++) {
+				// about 1MB of garbage per cycle
+				for (int j=0; j<1000; j++) {
+					ACell.createPersisted(Blob.createRandom(new Random(), 1000));
+				}
+				long size=file.length();
+				es.collectGarbage();
+				assertEquals(live,es.getRootData());
+				assertFalse(temp.exists());
+				assertTrue(file.length()<size);
+
+				// at most the current file and the file replaced by this cycle are open
+				assertEquals(2,es.getOpenFileCount());
+				if (i==0) {
+					collectedSize=file.length();
+				} else {
+					// file does not grow over cycles, and each cycle releases the last replaced file
+					assertTrue(file.length()<=collectedSize);
+					assertEquals(replacedSize,es.getGCReclaimed());
+				}
+				replacedSize=size;
+			}
+		} finally {
+			Stores.setCurrent(oldStore);
+			es.close();
+		}
+	}
+
 	@Test public void testDecodeCache() throws BadFormatException {
 		Address a1=Address.create(12345678);
 		ACell cell=store.decode(a1.getEncoding());
@@ -1,11 +1,18 @@
 package etch.api;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
@@ -16,6 +23,7 @@ import convex.core.data.Ref;
 import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadFormatException;
+import convex.core.util.Counters;
 import etch.Etch;
 import etch.EtchStore;
 
@@ -72,6 +80,107 @@ public class TestEtch {
 		}
 	}
 
+	@Test
+	public void testWriteAll() throws IOException {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+
+		int COUNT = 1000;
+		ArrayList<Ref<ACell>> refs=new ArrayList<>();
+		for (int i = 0; i < COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i,"batch");
+			refs.add(v.getRef());
+		}
+		// include a duplicate, which should be written once
+		refs.add(refs.get(0));
+
+		List<Ref<ACell>> results=etch.writeAll(refs);
+		assertEquals(refs.size(),results.size());
+
+		for (int i = 0; i < COUNT; i++) {
+			Ref<ACell> r=refs.get(i);
+			assertEquals(r.getHash(),results.get(i).getHash());
+			Ref<ACell> r2 = etch.read(r.getHash());
+			assertNotNull(r2);
+			assertEquals(r.getValue(),r2.getValue());
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		EtchStore store=EtchStore.createTemp();
+		Etch etch = store.getEtch();
+
+		int COUNT = 20000;
+		Hash[] hashes=new Hash[COUNT];
+		AtomicInteger written=new AtomicInteger();
+		AtomicInteger failures=new AtomicInteger();
+
+		// readers only look up keys already written, so every read must succeed
+		Thread[] readers=new Thread[4];
+		for (int t=0; t<readers.length; t++) {
+			readers[t]=new Thread(()->{
+				try {
+					while (written.get()<COUNT) {
+						int n=written.get();
+						if (n==0) continue;
+						Hash h=hashes[ThreadLocalRandom.current().nextInt(n)];
+						if (etch.read(h)==null) failures.incrementAndGet();
+					}
+				} catch (IOException e) {
+					failures.incrementAndGet();
+				}
+			});
+			readers[t].start();
+		}
+
+		for (int i = 0; i < COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i,"concurrent");
+			Ref<ACell> r=v.getRef();
+			etch.write(r.getHash(), r);
+			hashes[i]=r.getHash();
+			written.set(i+1);
+		}
+
+		for (Thread t: readers) t.join();
+		assertEquals(0,failures.get());
+		assertTrue(etch.contains(hashes[COUNT-1]));
+	}
+
+	@Test
+	public void testFilter() throws IOException {
+		File file=File.createTempFile("etch-filter",null);
+		file.deleteOnExit();
+		EtchStore store=EtchStore.create(file);
+		Etch etch = store.getEtch();
+
+		// enough keys to require the filter to grow
+		int COUNT = 10000;
+		ArrayList<Ref<ACell>> refs=new ArrayList<>();
+		for (int i = 0; i < COUNT; i++) {
+			AVector<CVMLong> v=Vectors.of(i,"filter");
+			refs.add(v.getRef());
+		}
+		etch.writeAll(refs);
+
+		Hash absent=Vectors.of(-1,"filter").getHash();
+		long rejects=Counters.etchFilterReject;
+		long falsePositives=Counters.etchFilterFalsePositive;
+		assertNull(etch.read(absent));
+		assertFalse(etch.contains(absent));
+		assertEquals(1,(Counters.etchFilterReject-rejects)+(Counters.etchFilterFalsePositive-falsePositives));
+		store.close();
+
+		// filter must be rebuilt with all keys when reopened
+		EtchStore store2=EtchStore.create(file);
+		Etch etch2 = store2.getEtch();
+		for (Ref<ACell> r: refs) {
+			assertTrue(etch2.contains(r.getHash()));
+		}
+		assertNull(etch2.read(absent));
+		store2.close();
+	}
+
 	@Test
 	public void testLargeStore() throws IOException {
 		EtchStore store=EtchStore.createTemp();
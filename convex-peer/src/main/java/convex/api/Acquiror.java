@@ -0,0 +1,343 @@
+package convex.api;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.Constants;
+import convex.core.data.ACell;
+import convex.core.data.AVector;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.data.VectorLeaf;
+import convex.core.data.Vectors;
+import convex.core.exceptions.MissingDataException;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
+import convex.core.util.Counters;
+import convex.core.util.Utils;
+import convex.net.Connection;
+
+/**
+ * State machine for acquiring a complete data structure from a remote Peer, driven by DATA
+ * messages received on a Connection.
+ *
+ * Missing cells are requested in batches with DATA_REQUEST, with at most ACQUIRE_WINDOW hashes
+ * in flight. Each cell is scanned for missing children once, when it arrives, and the future
+ * completes as soon as the last missing cell is received. Children within the requested depth
+ * are expected to arrive with the response, so are not requested again.
+ *
+ * A shallow Acquiror fetches only the requested cell, completing with its value as soon as it
+ * is stored. Children may still be missing.
+ *
+ * Also used by Peers to acquire Beliefs over existing Peer Connections, in which case
+ * received DATA must be passed to onData by the Peer.
+ *
+ * A shared scheduler thread re-requests cells if nothing arrives for ACQUIRE_RETRY_INTERVAL,
+ * and fails the acquisition if no progress is made for ACQUIRE_TIMEOUT.
+ *
+ * @param <T> Type of value being acquired
+ */
+public class Acquiror<T extends ACell> {
+
+	private static final Logger log = LoggerFactory.getLogger(Acquiror.class.getName());
+
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "Acquire scheduler");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Hash hash;
+	private final AStore store;
+	private final Connection connection;
+	private final Consumer<Acquiror<?>> onDone;
+	private final boolean shallow;
+	private final CompletableFuture<T> future = new CompletableFuture<>();
+
+	// State below must be accessed holding lock on this Acquiror
+
+	/**
+	 * Hashes known to be missing, not yet requested
+	 */
+	private final LinkedHashSet<Hash> missing = new LinkedHashSet<>();
+
+	/**
+	 * Hashes requested and not yet received
+	 */
+	private final HashSet<Hash> requested = new HashSet<>();
+
+	/**
+	 * Hashes of children expected in responses to requests, with the remaining depth of
+	 * their own children expected
+	 */
+	private final HashMap<Hash, Integer> expected = new HashMap<>();
+
+	/**
+	 * Hashes already scanned or found missing, so shared subtrees are only scanned once
+	 */
+	private final HashSet<Hash> scanned = new HashSet<>();
+
+	private long lastProgress;
+
+	private long acquiredBytes = 0;
+
+	private ScheduledFuture<?> check = null;
+
+	/**
+	 * Creates an Acquiror
+	 * @param hash Hash of value to acquire
+	 * @param store Store to acquire the value into
+	 * @param connection Connection to request missing data on
+	 * @param onDone Action to run when the acquisition is done, e.g. to stop delivery of DATA
+	 * @param shallow True to acquire only the requested cell, false to acquire the complete structure
+	 */
+	public Acquiror(Hash hash, AStore store, Connection connection, Consumer<Acquiror<?>> onDone, boolean shallow) {
+		this.hash = hash;
+		this.store = store;
+		this.connection = connection;
+		this.onDone = onDone;
+		this.shallow = shallow;
+	}
+
+	/**
+	 * Gets the future for the value being acquired
+	 * @return Future
+	 */
+	public CompletableFuture<T> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Gets the number of encoded bytes received for this acquisition
+	 * @return Number of bytes
+	 */
+	public synchronized long getAcquiredBytes() {
+		return acquiredBytes;
+	}
+
+	/**
+	 * Starts the acquisition, requesting any missing data.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void start() {
+		lastProgress = Utils.getCurrentTimestamp();
+		scanned.add(hash);
+		Ref<ACell> ref = store.refForHash(hash);
+		if (ref == null) {
+			missing.add(hash);
+		} else if (shallow) {
+			completeShallow((T) ref.getValue());
+			return;
+		} else if (ref.getStatus() < Ref.PERSISTED) {
+			scan(ref.getValue(), 0);
+		}
+		update();
+		if (!future.isDone()) {
+			long interval = Constants.ACQUIRE_RETRY_INTERVAL / 2;
+			check = scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Handles a cell received from the remote Peer. Should be called after the cell is stored.
+	 *
+	 * @param ref Ref to the received cell
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void onData(Ref<ACell> ref) {
+		if (future.isDone()) return;
+		Hash h = ref.getHash();
+		int depth;
+		if (requested.remove(h)) {
+			depth = shallow ? 0 : Constants.DATA_REQUEST_DEPTH;
+			missing.remove(h);
+		} else if (expected.containsKey(h)) {
+			depth = expected.remove(h);
+			missing.remove(h);
+		} else if (missing.remove(h)) {
+			depth = 0;
+		} else {
+			return; // found by scanning its parent if needed
+		}
+
+		if (store != Stores.current()) {
+			try {
+				ref = store.storeTopRef(ref, Ref.STORED, null);
+			} catch (MissingDataException e) {
+				// store needs children, will be stored again when complete
+			}
+		}
+		lastProgress = Utils.getCurrentTimestamp();
+		long length = ref.getValue().getEncodingLength();
+		acquiredBytes += length;
+		Counters.acquireCells++;
+		Counters.acquireBytes += length;
+		if (shallow) {
+			completeShallow((T) ref.getValue());
+			return;
+		}
+		scan(ref.getValue(), depth);
+		update();
+	}
+
+	private void completeShallow(T value) {
+		future.complete(value);
+		finish();
+	}
+
+	/**
+	 * Scans the children of a cell, adding any not in the store to the missing set, or to the
+	 * expected set if within the given depth. Embedded children don't count towards depth,
+	 * since their encoding is part of the parent.
+	 */
+	private void scan(ACell cell, int depth) {
+		ArrayDeque<ACell> stack = new ArrayDeque<>();
+		ArrayDeque<Integer> depths = new ArrayDeque<>();
+		stack.push(cell);
+		depths.push(depth);
+		while (!stack.isEmpty()) {
+			ACell c = stack.pop();
+			int d = depths.pop();
+			int n = c.getRefCount();
+			for (int i = 0; i < n; i++) {
+				Ref<ACell> child = c.getRef(i);
+				if (child.isEmbedded()) {
+					ACell v = child.getValue();
+					if (v != null) {
+						stack.push(v);
+						depths.push(d);
+					}
+					continue;
+				}
+				Hash ch = child.getHash();
+				if (!scanned.add(ch)) continue;
+				Ref<ACell> stored = store.refForHash(ch);
+				if (stored == null) {
+					if (d > 0) {
+						expected.put(ch, d - 1);
+					} else {
+						missing.add(ch);
+					}
+				} else if (stored.getStatus() < Ref.PERSISTED) {
+					stack.push(stored.getValue());
+					depths.push(Math.max(0, d - 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Completes if nothing is missing, otherwise requests more data
+	 */
+	private void update() {
+		if (future.isDone()) {
+			finish();
+		} else if (missing.isEmpty() && requested.isEmpty() && expected.isEmpty()) {
+			complete();
+		} else {
+			requestMore();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void complete() {
+		AStore temp = Stores.current();
+		try {
+			Stores.setCurrent(store);
+			Ref<T> ref = store.refForHash(hash);
+			ref = store.storeTopRef(ref, Ref.PERSISTED, null);
+			future.complete(ref.getValue());
+			finish();
+		} catch (MissingDataException e) {
+			// shouldn't normally happen, but request anything we missed and carry on
+			Hash h = e.getMissingHash();
+			log.debug("Still missing: {}", h);
+			missing.add(h);
+			requestMore();
+		} catch (Throwable t) {
+			future.completeExceptionally(t);
+			finish();
+		} finally {
+			Stores.setCurrent(temp);
+		}
+	}
+
+	/**
+	 * Requests missing hashes in batches, until the in-flight window is full
+	 */
+	private void requestMore() {
+		try {
+			while (!missing.isEmpty() && (requested.size() < Constants.ACQUIRE_WINDOW)) {
+				AVector<Hash> batch = Vectors.empty();
+				Iterator<Hash> it = missing.iterator();
+				while (it.hasNext() && (batch.count() < VectorLeaf.MAX_SIZE)) {
+					batch = batch.conj(it.next());
+					it.remove();
+				}
+				log.debug("Request missing data: {} hashes", batch.count());
+				long depth = shallow ? 0 : Constants.DATA_REQUEST_DEPTH;
+				if (!connection.sendDataRequest(batch, depth)) {
+					// send queue full, retry on next check
+					for (Hash h : batch) {
+						missing.add(h);
+					}
+					break;
+				}
+				for (Hash h : batch) {
+					requested.add(h);
+				}
+			}
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+			finish();
+		}
+	}
+
+	/**
+	 * Periodic check on the scheduler thread
+	 */
+	private synchronized void check() {
+		if (future.isDone()) {
+			finish();
+			return;
+		}
+		if (connection.isClosed()) {
+			future.completeExceptionally(new IOException("Connection closed while acquiring " + hash));
+			finish();
+			return;
+		}
+		long idle = Utils.getCurrentTimestamp() - lastProgress;
+		if (idle >= Constants.ACQUIRE_TIMEOUT) {
+			future.completeExceptionally(new TimeoutException("No data received while acquiring " + hash));
+			finish();
+			return;
+		}
+		if (idle >= Constants.ACQUIRE_RETRY_INTERVAL) {
+			// requests may have been dropped, so send them again
+			missing.addAll(requested);
+			missing.addAll(expected.keySet());
+			requested.clear();
+			expected.clear();
+		}
+		requestMore();
+	}
+
+	private void finish() {
+		if (check != null) check.cancel(false);
+		onDone.accept(this);
+	}
+}
@@ -2,13 +2,14 @@ package convex.api;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -80,36 +81,60 @@ public abstract class Convex {
 	private boolean autoSequence = true;
 
 	/**
-	 * Sequence number for this client, or null if not yet known. Used to number new
-	 * transactions if not otherwise specified.
+	 * Value of sequence when not yet known
 	 */
-	protected Long sequence = null;
+	protected static final long UNKNOWN_SEQUENCE = -1;
+
+	/**
+	 * Sequence number of the last transaction allocated by this client, or UNKNOWN_SEQUENCE
+	 * if not yet known. Used to number new transactions if not otherwise specified. Allocated
+	 * while holding sequenceLock, so many transactions can be in flight from different threads.
+	 */
+	protected final AtomicLong sequence = new AtomicLong(UNKNOWN_SEQUENCE);
+
+	/**
+	 * Lock for sending auto-sequenced transactions in sequence order
+	 */
+	private final Object sendLock = new Object();
+
+	/**
+	 * Lock for allocating sequence numbers. May be acquired while holding sendLock, but not the reverse.
+	 */
+	private final Object sequenceLock = new Object();
+
+	/**
+	 * Highest sequence number sent, or UNKNOWN_SEQUENCE. Must hold sendLock.
+	 */
+	private long sentSequence = UNKNOWN_SEQUENCE;
+
+	/**
+	 * Incremented when a transaction fails to send, which invalidates all sequence numbers
+	 * allocated after it. Must hold both sendLock and sequenceLock to update.
+	 */
+	private volatile long sequenceEpoch = 0;
 
 	/**
 	 * Map of results awaiting completion. May be pending missing data.
 	 */
-	protected HashMap<Long, CompletableFuture<Result>> awaiting = new HashMap<>();
+	protected final ConcurrentHashMap<Long, CompletableFuture<Result>> awaiting = new ConcurrentHashMap<>();
 
 	protected final Consumer<Message> internalHandler = new ResultConsumer() {
 		@Override
-		protected synchronized void handleResult(long id, Result v) {
+		protected void handleResult(long id, Result v) {
+			checkSequenceError(v);
 
-			if ((v != null) && (ErrorCodes.SEQUENCE.equals(v.getErrorCode()))) {
-				// We probably got a wrong sequence number. Kill the stored value.
-				sequence = null;
+			CompletableFuture<Result> cf = awaiting.remove(id);
+			if (cf != null) {
+				cf.complete(v);
+				log.debug("Completed Result received for message ID: {}", id);
+			} else {
+				log.debug("Ignored Result received for unexpected message ID: {}", id);
 			}
+		}
 
-			// TODO: maybe extract method?
-			synchronized (awaiting) {
-				CompletableFuture<Result> cf = awaiting.get(id);
-				if (cf != null) {
-					awaiting.remove(id);
-					cf.complete(v);
-					log.debug("Completed Result received for message ID: {}", id);
-				} else {
-					log.debug("Ignored Result received for unexpected message ID: {}", id);
-				}
-			}
+		@Override
+		protected void handleData(Ref<ACell> ref) {
+			onData(ref);
 		}
 
 		@Override
@@ -128,6 +153,29 @@ public abstract class Convex {
 
 	private Consumer<Message> delegatedHandler = null;
 
+	/**
+	 * Called when a DATA message is received from the connected Peer, after the data is stored.
+	 * May be overridden, e.g. to drive acquisition of missing data.
+	 *
+	 * @param ref Ref to the received cell
+	 */
+	protected void onData(Ref<ACell> ref) {
+		// nothing to do by default
+	}
+
+	/**
+	 * Checks a Result for a sequence error, in which case the sequence number is reset so that
+	 * it is fetched again for the next transaction.
+	 *
+	 * @param r Result received
+	 */
+	protected void checkSequenceError(Result r) {
+		if ((r != null) && (ErrorCodes.SEQUENCE.equals(r.getErrorCode()))) {
+			// We probably got a wrong sequence number. Kill the stored value.
+			sequence.set(UNKNOWN_SEQUENCE);
+		}
+	}
+
 	protected Convex(Address address, AKeyPair keyPair) {
 		this.keyPair = keyPair;
 		this.address = address;
@@ -204,7 +252,7 @@ public abstract class Convex {
 			return;
 		this.address = address;
 		// clear sequence, since we don't know the new account sequence number yet
-		sequence = null;
+		sequence.set(UNKNOWN_SEQUENCE);
 	}
 
 	/**
@@ -223,20 +271,12 @@ public abstract class Convex {
 		this.keyPair = kp;
 	}
 
-	/**
-	 * Gets the next sequence number for this Client, which should be used for
-	 * building new signed transactions.
-	 *
-	 * @return Sequence number as a Long value greater than zero
-	 */
-	private long getIncrementedSequence() {
-		long next = getSequence() + 1L;
-		sequence = next;
-		return next;
-	}
 
 	public void setNextSequence(long nextSequence) {
-		this.sequence = nextSequence - 1L;
+		synchronized (sendLock) {
+			this.sequence.set(nextSequence - 1L);
+			sentSequence = nextSequence - 1L;
+		}
 	}
 
 	public void setHandler(Consumer<Message> handler) {
@@ -253,21 +293,35 @@ public abstract class Convex {
 	 * @return Sequence number as a Long value (zero or positive)
 	 */
 	public long getSequence() {
-		if (sequence == null) {
-			try {
-				Future<Result> f = query(Special.forSymbol(Symbols.STAR_SEQUENCE));
-				Result r = f.get();
-				if (r.isError())
-					throw new Error("Error querying *sequence*: " + r.getErrorCode() + " " + r.getValue());
-				ACell result = r.getValue();
-				if (!(result instanceof CVMLong))
-					throw new Error("*sequence* query did not return Long, got: " + result);
-				sequence = RT.jvm(result);
-			} catch (IOException | InterruptedException | ExecutionException e) {
-				throw new Error("Error trying to get sequence number", e);
-			}
+		long seq = sequence.get();
+		if (seq != UNKNOWN_SEQUENCE) return seq;
+
+		// another thread may fetch the sequence number concurrently, first one wins
+		long current = lookupSequence();
+		synchronized (sendLock) {
+			if (sequence.compareAndSet(UNKNOWN_SEQUENCE, current)) sentSequence = current;
+		}
+		return sequence.get();
+	}
+
+	/**
+	 * Looks up the sequence number for the current Address from the network.
+	 *
+	 * @return Sequence number as a Long value (zero or positive)
+	 */
+	protected long lookupSequence() {
+		try {
+			Future<Result> f = query(Special.forSymbol(Symbols.STAR_SEQUENCE));
+			Result r = f.get();
+			if (r.isError())
+				throw new Error("Error querying *sequence*: " + r.getErrorCode() + " " + r.getValue());
+			ACell result = r.getValue();
+			if (!(result instanceof CVMLong))
+				throw new Error("*sequence* query did not return Long, got: " + result);
+			return RT.jvm(result);
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			throw new Error("Error trying to get sequence number", e);
 		}
-		return sequence;
 	}
 	
 	/**
@@ -301,10 +355,8 @@ public abstract class Convex {
 			ATransaction trans=signed.getValue();
 			if (!isAutoSequence()) return;
 			if (!Utils.equals(trans.getOrigin(),address)) return;
-			Long seq=this.sequence;
-			if (seq==null) return;
-			seq++;
-			if (seq==trans.getSequence()) sequence=seq;
+			long seq=trans.getSequence();
+			sequence.compareAndSet(seq-1, seq);
 		} catch (Exception e) {
 			// do nothing. Shouldn't happen except in some adversarial test cases.
 		}
@@ -358,49 +410,92 @@ public abstract class Convex {
 	 */
 	public abstract boolean isConnected();
 
-	/**
-	 * Updates the given transaction to have the next sequence number.
-	 *
-	 * @param t Any transaction, for which the correct next sequence number is
-	 *          desired
-	 * @return The updated transaction
-	 */
-	private synchronized ATransaction applyNextSequence(ATransaction t) {
-		if (sequence != null) {
-			// if already we know the next sequence number to be applied, set it
-			return t.withSequence(++sequence);
-		} else {
-			return t.withSequence(getIncrementedSequence());
-		}
-	}
-
 	/**
 	 * Submits a transaction to the Convex network, returning a future once the
 	 * transaction has been successfully queued. Signs the transaction with the
 	 * currently set key pair
 	 *
-	 * Should be thread safe as long as multiple clients do not attempt to submit
-	 * transactions for the same account concurrently.
+	 * Thread safe: sequence numbers are allocated atomically and signing is done without
+	 * holding a lock, so many threads may submit transactions concurrently. Transactions are
+	 * sent in sequence order, since a Peer rejects a transaction that arrives before those
+	 * with lower sequence numbers. Should not be used if other clients submit transactions
+	 * for the same account concurrently.
 	 *
 	 * @param transaction Transaction to execute
 	 * @return A Future for the result of the transaction
 	 * @throws IOException If the connection is broken, or the send buffer is full
 	 */
-	public synchronized CompletableFuture<Result> transact(ATransaction transaction) throws IOException {
+	public CompletableFuture<Result> transact(ATransaction transaction) throws IOException {
 		if (transaction.getOrigin() == null) {
 			transaction = transaction.withOrigin(address);
 		}
+		long seq = 0;
+		long epoch = 0;
 		if (autoSequence && (transaction.getSequence() <= 0)) {
 			// apply sequence if using expected address
 			if (Utils.equals(transaction.getOrigin(), address)) {
-				transaction = applyNextSequence(transaction);
+				while (true) {
+					// fetch sequence from the network if needed, without holding the lock
+					getSequence();
+					synchronized (sequenceLock) {
+						long current = sequence.get();
+						if (current == UNKNOWN_SEQUENCE) continue;
+						seq = current + 1;
+						sequence.set(seq);
+						epoch = sequenceEpoch;
+						break;
+					}
+				}
+				transaction = transaction.withSequence(seq);
 			} else {
 				// ignore??
 			}
 		}
 		SignedData<ATransaction> signed = keyPair.signData(transaction);
-		CompletableFuture<Result> r= transact(signed);
-		return r;
+		if (seq <= 0) return transact(signed);
+		return transactInOrder(seq, epoch, signed);
+	}
+
+	/**
+	 * Sends a transaction with an allocated sequence number, after any transactions with lower
+	 * sequence numbers allocated by this client. Stops waiting after the client timeout, in
+	 * case an earlier transaction was never sent.
+	 *
+	 * If a transaction fails to send, all transactions with later sequence numbers would fail
+	 * with a SEQUENCE error. These fail immediately instead, and the failed sequence number is
+	 * allocated again to the next transaction.
+	 */
+	private CompletableFuture<Result> transactInOrder(long seq, long epoch, SignedData<ATransaction> signed) throws IOException {
+		synchronized (sendLock) {
+			long deadline = Utils.getTimeMillis() + timeout;
+			while ((epoch == sequenceEpoch) && (sentSequence != UNKNOWN_SEQUENCE) && (seq > sentSequence + 1)) {
+				long wait = deadline - Utils.getTimeMillis();
+				if (wait <= 0) break;
+				try {
+					sendLock.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (epoch != sequenceEpoch) {
+				throw new IOException("Transaction not sent because an earlier transaction failed to send");
+			}
+			try {
+				CompletableFuture<Result> cf = transact(signed);
+				sentSequence = Math.max(sentSequence, seq);
+				return cf;
+			} catch (IOException | RuntimeException e) {
+				// abandon later sequence numbers, and reuse this one for the next transaction
+				synchronized (sequenceLock) {
+					sequenceEpoch++;
+					sequence.set(seq - 1);
+				}
+				throw e;
+			} finally {
+				sendLock.notifyAll();
+			}
+		}
 	}
 
 	/**
@@ -410,14 +505,15 @@ public abstract class Convex {
 	 * @return A Future for the result of the transaction
 	 * @throws IOException If the connection is broken, or the send buffer is full
 	 */
-	public synchronized CompletableFuture<Result> transact(String code) throws IOException {
+	public CompletableFuture<Result> transact(String code) throws IOException {
 		ATransaction trans = buildTransaction(code);
 		return transact(trans);
 	}
 
 	private ATransaction buildTransaction(String code) {
 		ACell form = buildCodeForm(code);
-		return Invoke.create(getAddress(), getIncrementedSequence(), form);
+		// sequence number applied when transaction is submitted
+		return Invoke.create(getAddress(), 0, form);
 	}
 
 	private ACell buildCodeForm(String code) {
@@ -440,7 +536,7 @@ public abstract class Convex {
 	 *                          full
 	 * @throws TimeoutException If the transaction times out
 	 */
-	public synchronized Result transactSync(String code) throws IOException, TimeoutException {
+	public Result transactSync(String code) throws IOException, TimeoutException {
 		ATransaction trans = buildTransaction(code);
 		return transactSync(trans);
 	}
@@ -653,8 +749,8 @@ public abstract class Convex {
 	public abstract CompletableFuture<Result> requestStatus();
 
 	/**
-	 * Method to start waiting for a complete result. Should be called with lock on
-	 * `awaiting` map to prevent risk of missing results before it is called.
+	 * Method to start waiting for a complete result. Should be called before the request
+	 * is sent, to prevent risk of missing results before it is called.
 	 * 
 	 * @param id ID of result message to await
 	 * @return
@@ -2,6 +2,7 @@ package convex.api;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import convex.core.Result;
@@ -44,24 +45,21 @@ public class ConvexLocal extends Convex {
 	}
 
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends ACell> CompletableFuture<T> acquire(Hash hash, AStore store) {
-		CompletableFuture<T> f = new CompletableFuture<T>();
-		new Thread(new Runnable() {
-			@SuppressWarnings("unchecked")
-			@Override
-			public void run() {
-				AStore remoteStore=server.getStore();
-				Ref<ACell> ref=remoteStore.refForHash(hash);
-				if (ref==null) {
-					f.completeExceptionally(new MissingDataException(remoteStore,hash));
-				} else {
-					ref=store.storeTopRef(ref, Ref.PERSISTED, null);
-					f.complete((T) ref.getValue());
-				}
-			}
-		}).run();
-		return f;
+		// Data is available locally, so no need for another thread
+		AStore remoteStore=server.getStore();
+		Ref<ACell> ref=remoteStore.refForHash(hash);
+		if (ref==null) {
+			return CompletableFuture.failedFuture(new MissingDataException(remoteStore,hash));
+		}
+		try {
+			ref=store.storeTopRef(ref, Ref.PERSISTED, null);
+			return CompletableFuture.completedFuture((T) ref.getValue());
+		} catch (Throwable t) {
+			return CompletableFuture.failedFuture(t);
+		}
 	}
 
 	@Override
@@ -87,10 +85,10 @@ public class ConvexLocal extends Convex {
 		return makeMessageFuture(MessageType.QUERY,Vectors.of(makeID(),query,address));
 	}
 	
-	private long idCounter=0;
+	private final AtomicLong idCounter=new AtomicLong(0);
 	
 	private long makeID() {
-		return idCounter++;
+		return idCounter.getAndIncrement();
 	}
 
 	private CompletableFuture<Result> makeMessageFuture(MessageType type, ACell payload) {
@@ -108,6 +106,7 @@ public class ConvexLocal extends Convex {
 
 	private Consumer<Result> makeResultHandler(CompletableFuture<Result> cf) {
 		return r->{
+			checkSequenceError(r);
 			cf.complete(r);
 		};
 	}
@@ -127,11 +126,8 @@ public class ConvexLocal extends Convex {
 	}
 	
 	@Override
-	public long getSequence() {
-		if (sequence==null) {
-			sequence=getState().getAccount(address).getSequence();
-		}
-		return sequence;
+	protected long lookupSequence() {
+		return getState().getAccount(address).getSequence();
 	}
 	
 	@Override
@@ -2,8 +2,9 @@ package convex.api;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -21,10 +22,8 @@ import convex.core.data.Address;
 import convex.core.data.Hash;
 import convex.core.data.Ref;
 import convex.core.data.SignedData;
-import convex.core.exceptions.MissingDataException;
 import convex.core.lang.RT;
 import convex.core.store.AStore;
-import convex.core.store.Stores;
 import convex.core.transactions.ATransaction;
 import convex.core.util.Utils;
 import convex.net.Connection;
@@ -35,6 +34,11 @@ public class ConvexRemote extends Convex {
 	 */
 	protected Connection connection;
 	
+	/**
+	 * Acquisitions in progress, which receive all DATA from the connected Peer
+	 */
+	private final Set<Acquiror<?>> acquirors = ConcurrentHashMap.newKeySet();
+
 	private static final Logger log = LoggerFactory.getLogger(ConvexRemote.class.getName());
 
 	
@@ -121,143 +125,131 @@ public class ConvexRemote extends Convex {
 	}
 	
 	@Override
-	public synchronized CompletableFuture<Result> transact(SignedData<ATransaction> signed) throws IOException {
-		CompletableFuture<Result> cf;
-		long id = -1;
+	public CompletableFuture<Result> transact(SignedData<ATransaction> signed) throws IOException {
+		Connection c = connection;
+		if (c == null) throw new IOException("Not connected");
 
-		synchronized (awaiting) {
+		// Store future for completion by result message, before the result can arrive
+		long id = Connection.nextID();
+		CompletableFuture<Result> cf = awaitResult(id);
+		try {
 			// loop until request is queued
-			while (id < 0) {
-				id = connection.sendTransaction(signed);
-				if (id < 0) {
-					try {
-						Thread.sleep(10);
-					} catch (InterruptedException e) {
-						// Ignore
-					}
+			while (!c.sendTransaction(signed, id)) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					// Ignore
 				}
 			}
-
-			// Store future for completion by result message
-			cf = awaitResult(id);
-			maybeUpdateSequence(signed);
+		} catch (IOException | RuntimeException e) {
+			awaiting.remove(id);
+			throw e;
 		}
+		maybeUpdateSequence(signed);
 
 		log.debug("Sent transaction with message ID: {} awaiting count = {}", id, awaiting.size());
 		return cf;
 	}
-	
-
 
 	@Override
 	public CompletableFuture<Result> query(ACell query, Address address) throws IOException {
-		synchronized (awaiting) {
-			long id = connection.sendQuery(query, address);
-			if (id < 0) {
-				throw new IOException("Failed to send query due to full buffer");
-			}
+		Connection c = connection;
+		if (c == null) throw new IOException("Not connected");
 
-			return awaitResult(id);
+		long id = Connection.nextID();
+		CompletableFuture<Result> cf = awaitResult(id);
+		boolean sent;
+		try {
+			sent = c.sendQuery(query, address, id);
+		} catch (IOException | RuntimeException e) {
+			awaiting.remove(id);
+			throw e;
 		}
+		if (!sent) {
+			awaiting.remove(id);
+			throw new IOException("Failed to send query due to full buffer");
+		}
+		return cf;
 	}
-	
+
 	@Override
 	public CompletableFuture<Result> requestStatus() {
+		long id = Connection.nextID();
 		try {
-			synchronized (awaiting) {
-				long id = connection.sendStatusRequest();
-				if (id < 0) {
-					return CompletableFuture.failedFuture(new IOException("Failed to send status request due to full buffer"));
-				}
-	
-				// TODO: ensure status is fully loaded
-				// Store future for completion by result message
-				CompletableFuture<Result> cf = awaitResult(id);
-	
-				return cf;
+			// TODO: ensure status is fully loaded
+			// Store future for completion by result message
+			CompletableFuture<Result> cf = awaitResult(id);
+			if (!connection.sendStatusRequest(id)) {
+				awaiting.remove(id);
+				return CompletableFuture.failedFuture(new IOException("Failed to send status request due to full buffer"));
 			}
+			return cf;
 		} catch (Throwable t) {
+			awaiting.remove(id);
 			return CompletableFuture.failedFuture(t);
 		}
 	}
-	
+
 	@Override
 	public CompletableFuture<Result> requestChallenge(SignedData<ACell> data) throws IOException {
-		synchronized (awaiting) {
-			long id = connection.sendChallenge(data);
-			if (id < 0) {
-				// TODO: too fragile?
-				throw new IOException("Failed to send challenge due to full buffer");
-			}
+		Connection c = connection;
+		if (c == null) throw new IOException("Not connected");
 
-			// Store future for completion by result message
-			return awaitResult(id);
+		// Store future for completion by result message, before the result can arrive
+		long id = Connection.nextID();
+		CompletableFuture<Result> cf = awaitResult(id);
+		boolean sent;
+		try {
+			sent = c.sendChallenge(data, id);
+		} catch (IOException | RuntimeException e) {
+			awaiting.remove(id);
+			throw e;
 		}
+		if (!sent) {
+			awaiting.remove(id);
+			throw new IOException("Failed to send challenge due to full buffer");
+		}
+		return cf;
 	}
-	
+
 	@Override
 	public <T extends ACell> CompletableFuture<T> acquire(Hash hash, AStore store) {
-		CompletableFuture<T> f = new CompletableFuture<T>();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				Stores.setCurrent(store); // use store for calling thread
-				try {
-					Ref<T> ref = store.refForHash(hash);
-					HashSet<Hash> missingSet = new HashSet<>();
+		Connection c = connection;
+		if (c == null) return CompletableFuture.failedFuture(new IOException("Not connected"));
+		Acquiror<T> acquiror = new Acquiror<>(hash, store, c, acquirors::remove, false);
+		acquirors.add(acquiror);
+		acquiror.start();
+		return acquiror.getFuture();
+	}
 
-					// Loop until future is complete or cancelled
-					while (!f.isDone()) {
-						missingSet.clear();
+	/**
+	 * Acquires a single cell for the given hash from the connected Peer, without acquiring
+	 * its children. Useful to explore the structure of a large value before acquiring parts
+	 * of it, e.g. from different Peers.
+	 *
+	 * The store must be the store used by this client's connection, since the cell is
+	 * stored as soon as it is received.
+	 *
+	 * @param hash  Hash of cell to acquire.
+	 * @param store Store to acquire the cell to.
+	 * @return Future for the cell, which may have missing children
+	 */
+	public <T extends ACell> CompletableFuture<T> acquireCell(Hash hash, AStore store) {
+		Connection c = connection;
+		if (c == null) return CompletableFuture.failedFuture(new IOException("Not connected"));
+		Acquiror<T> acquiror = new Acquiror<>(hash, store, c, acquirors::remove, true);
+		acquirors.add(acquiror);
+		acquiror.start();
+		return acquiror.getFuture();
+	}
 
-						if (ref == null) {
-							missingSet.add(hash);
-						} else {
-							if (ref.getStatus() >= Ref.PERSISTED) {
-								// we have everything!
-								f.complete(ref.getValue());
-								return;
-							}
-							ref.findMissing(missingSet);
-						}
-						for (Hash h : missingSet) {
-							// send missing data requests until we fill pipeline
-							log.debug("Request missing data: {}", h);
-							boolean sent = connection.sendMissingData(h);
-							if (!sent) {
-								log.debug("Send Queue full!");
-								break;
-							}
-						}
-						// if too low, can send multiple requests, and then block the peer
-						Thread.sleep(100);
-						ref = store.refForHash(hash);
-						if (ref != null) {
-							if (ref.getStatus() >= Ref.PERSISTED) {
-								// we have everything!
-								f.complete(ref.getValue());
-								return;
-							}
-							// maybe complete, but not sure
-							try {
-								ref = ref.persist();
-								f.complete(ref.getValue());
-							} catch (MissingDataException e) {
-								Hash missing = e.getMissingHash();
-								log.debug("Still missing: {}", missing);
-								connection.sendMissingData(missing);
-							}
-						}
-					}
-				} catch (Throwable t) {
-					// catch any errors, probably IO?
-					f.completeExceptionally(t);
-				}
-			}
-		}).start();
-		return f;
+	@Override
+	protected void onData(Ref<ACell> ref) {
+		for (Acquiror<?> acquiror : acquirors) {
+			acquiror.onData(ref);
+		}
 	}
-	
+
 	/**
 	 * Disconnects the client from the network, closing the underlying connection.
 	 */
@@ -15,7 +15,9 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,7 +68,7 @@ public class Connection {
 	/**
 	 * Counter for IDs of all messages sent from this JVM
 	 */
-	private static long idCounter = 0;
+	private static final AtomicLong idCounter = new AtomicLong(0);
 
 	/**
 	 * Store to use for this connection. Required for responding to incoming
@@ -81,14 +83,18 @@ public class Connection {
 
 	private static final Logger log = LoggerFactory.getLogger(Connection.class.getName());
 
+	private final MessageReceiver receiver;
+	private final MessageSender sender;
+
 	/**
-	 * Pre-allocated direct buffer for message sending TODO: is one per connection
-	 * OK? Users should synchronise on this briefly while building message.
+	 * Cells known to be held by the remote end, which need not be sent as DATA
 	 */
-	private final ByteBuffer frameBuf = ByteBuffer.allocateDirect(Format.LIMIT_ENCODING_LENGTH + 20);
+	private volatile KnownCells knownCells = new KnownCells(Constants.KNOWN_CELLS_SIZE);
 
-	private final MessageReceiver receiver;
-	private final MessageSender sender;
+	/**
+	 * Action to run once when this Connection is closed, or null if none
+	 */
+	private Runnable closeAction = null;
 
 	private Connection(ByteChannel clientChannel, Consumer<Message> receiveAction, AStore store,
 			AccountKey trustedPeerKey) {
@@ -119,12 +125,41 @@ public class Connection {
 		return new Connection(channel, receiveAction, store, trustedPeerKey);
 	}
 	
+	/**
+	 * Sets an Executor for decoding and delivering received messages. If not set, messages are
+	 * decoded on the thread that reads from the channel.
+	 *
+	 * @param executor Executor to use, which must run tasks in submission order
+	 */
+	public void setReceiveExecutor(Executor executor) {
+		receiver.setExecutor(executor);
+	}
+
+	/**
+	 * Sets the maximum number of bytes read from the channel at a time. All complete messages in
+	 * each read are received together.
+	 *
+	 * @param chunkSize Chunk size in bytes, or 0 to read exactly one message at a time
+	 */
+	public void setReceiveChunkSize(int chunkSize) {
+		receiver.setChunkSize(chunkSize);
+	}
+
 	/**
 	 * Gets the global message ID counter
 	 * @return Message ID counter for last message sent
 	 */
 	public static long getCounter() {
-		return idCounter;
+		return idCounter.get();
+	}
+
+	/**
+	 * Allocates a new message ID, unique for all messages sent from this JVM. Clients can use
+	 * this to register for a result before a request is sent.
+	 * @return New message ID
+	 */
+	public static long nextID() {
+		return idCounter.incrementAndGet();
 	}
 
 	/**
@@ -272,7 +307,53 @@ public class Connection {
 	public boolean sendData(ACell value) throws IOException {
 		log.trace("Sending data: {}", value);
 		ByteBuffer buf = Format.encodedBuffer(value);
-		return sendBuffer(MessageType.DATA, buf);
+		return sendDataBuffer(value, buf);
+	}
+
+	/**
+	 * Sends a DATA Message on this connection, unless the remote end is known to hold
+	 * the value already, e.g. because it was sent previously.
+	 *
+	 * @param value Any data object, which will be encoded and sent as a single cell
+	 * @param buf Buffer containing the encoded value, which is not modified so may be shared.
+	 *            May be null, in which case the value is encoded here.
+	 * @return true if buffered successfully or not needed, false otherwise (not sent)
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean maybeSendData(ACell value, ByteBuffer buf) throws IOException {
+		if (knownCells.contains(value.getHash())) {
+			Counters.dataBytesSaved += value.getEncodingLength();
+			return true;
+		}
+		buf = (buf == null) ? Format.encodedBuffer(value) : buf.duplicate();
+		return sendDataBuffer(value, buf);
+	}
+
+	private boolean sendDataBuffer(ACell value, ByteBuffer buf) throws IOException {
+		int length = buf.remaining();
+		boolean sent = sendBuffer(MessageType.DATA, buf);
+		if (sent) {
+			Counters.dataBytesSent += length;
+			knownCells.add(value.getHash());
+		}
+		return sent;
+	}
+
+	/**
+	 * Gets the set of cells known to be held by the remote end of this Connection
+	 * @return KnownCells instance
+	 */
+	public KnownCells getKnownCells() {
+		return knownCells;
+	}
+
+	/**
+	 * Sets the cells known to be held by the remote end, e.g. to share them between
+	 * all Connections with the same Peer
+	 * @param knownCells KnownCells instance
+	 */
+	public void setKnownCells(KnownCells knownCells) {
+		this.knownCells = knownCells;
 	}
 
 	/**
@@ -287,6 +368,22 @@ public class Connection {
 		return sendObject(MessageType.MISSING_DATA, value);
 	}
 
+	/**
+	 * Sends a DATA_REQUEST Message on this connection, requesting a batch of missing
+	 * data including children down to the given depth.
+	 *
+	 * @param hashes Vector of missing data hashes. Should be at most one chunk, so the
+	 *               request fits in a single message.
+	 * @param depth  Number of levels of child cells requested
+	 * @return true if buffered successfully, false otherwise (not sent)
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendDataRequest(AVector<Hash> hashes, long depth) throws IOException {
+		log.trace("Requested missing data for {} hashes with store {}", hashes.count(), Stores.current());
+		AVector<ACell> v = Vectors.of(hashes, depth);
+		return sendObject(MessageType.DATA_REQUEST, v);
+	}
+
 	/**
 	 * Sends a QUERY Message on this connection with a null Address
 	 *
@@ -307,16 +404,27 @@ public class Connection {
 	 * @throws IOException If IO error occurs
 	 */
 	public long sendQuery(ACell form, Address address) throws IOException {
+		long id = nextID();
+		return sendQuery(form, address, id) ? id : -1;
+	}
+
+	/**
+	 * Sends a QUERY Message on this connection with a given message ID.
+	 *
+	 * @param form    A data object representing the query form
+	 * @param address The address with which to run the query, which may be null
+	 * @param id      Message ID, e.g. from nextID()
+	 * @return True if buffered for sending successfully, false otherwise
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendQuery(ACell form, Address address, long id) throws IOException {
 		AStore temp = Stores.current();
 		try {
-			long id = ++idCounter;
 			AVector<ACell> v = Vectors.of(id, form, address);
-			boolean sent = sendObject(MessageType.QUERY, v);
-			return sent ? id : -1;
+			return sendObject(MessageType.QUERY, v);
 		} finally {
 			Stores.setCurrent(temp);
 		}
-
 	}
 
 	/**
@@ -326,12 +434,23 @@ public class Connection {
 	 * @throws IOException If IO error occurs
 	 */
 	public long sendStatusRequest() throws IOException {
+		long id = nextID();
+		sendStatusRequest(id);
+		return id;
+	}
+
+	/**
+	 * Sends a STATUS Request Message on this connection with a given message ID.
+	 *
+	 * @param id Message ID, e.g. from nextID()
+	 * @return True if buffered for sending successfully, false otherwise
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendStatusRequest(long id) throws IOException {
 		AStore temp = Stores.current();
 		try {
-			long id = ++idCounter;
 			CVMLong idPayload = CVMLong.create(id);
-			sendObject(MessageType.STATUS, idPayload);
-			return id;
+			return sendObject(MessageType.STATUS, idPayload);
 		} finally {
 			Stores.setCurrent(temp);
 		}
@@ -348,11 +467,23 @@ public class Connection {
 	 *
 	 */
 	public long sendChallenge(SignedData<ACell> challenge) throws IOException {
+		long id = nextID();
+		return sendChallenge(challenge, id) ? id : -1;
+	}
+
+	/**
+	 * Sends a CHALLENGE Request Message on this connection for a given message ID. The caller
+	 * should register for the result under this ID before sending.
+	 *
+	 * @param challenge Challenge a Vector that has been signed by the sending peer.
+	 * @param id Message ID, e.g. from nextID()
+	 * @return true if sent, false if the send buffer is full
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendChallenge(SignedData<ACell> challenge, long id) throws IOException {
 		AStore temp = Stores.current();
 		try {
-			long id = ++idCounter;
-			boolean sent = sendObject(MessageType.CHALLENGE, challenge);
-			return (sent) ? id : -1;
+			return sendObject(MessageType.CHALLENGE, challenge);
 		} finally {
 			Stores.setCurrent(temp);
 		}
@@ -370,7 +501,7 @@ public class Connection {
 	public long sendResponse(SignedData<ACell> response) throws IOException {
 		AStore temp = Stores.current();
 		try {
-			long id = ++idCounter;
+			long id = nextID();
 			boolean sent = sendObject(MessageType.RESPONSE, response);
 			return (sent) ? id : -1;
 		} finally {
@@ -392,13 +523,24 @@ public class Connection {
 	 * @throws IOException In the event of an IO error, e.g. closed connection
 	 */
 	public long sendTransaction(SignedData<ATransaction> signed) throws IOException {
+		long id = nextID();
+		return sendTransaction(signed, id) ? id : -1;
+	}
+
+	/**
+	 * Sends a transaction with a given message ID, if possible.
+	 *
+	 * @param signed Signed transaction
+	 * @param id     Message ID, e.g. from nextID()
+	 * @return True if buffered for sending successfully, false otherwise (send buffer full)
+	 * @throws IOException In the event of an IO error, e.g. closed connection
+	 */
+	public boolean sendTransaction(SignedData<ATransaction> signed, long id) throws IOException {
 		AStore temp = Stores.current();
 		try {
 			Stores.setCurrent(store);
-			long id = ++idCounter;
 			AVector<ACell> v = Vectors.of(id, signed);
-			boolean sent = sendObject(MessageType.TRANSACT, v);
-			return (sent) ? id : -1;
+			return sendObject(MessageType.TRANSACT, v);
 		} finally {
 			Stores.setCurrent(temp);
 		}
@@ -457,7 +599,7 @@ public class Connection {
 		// only send this value if not embedded
 		if (!o.isEmbedded()) {
 			try {
-				sendData(o);
+				maybeSendData(o, null);
 			} catch (IOException e) {
 				throw Utils.sneakyThrow(e);
 			}
@@ -497,7 +639,7 @@ public class Connection {
 			try {
 				ACell data = r.getValue();
 				if (data==sendVal) return; // skip sending top payload
-				if (!Format.isEmbedded(data)) sendData(data);
+				if (!Format.isEmbedded(data)) maybeSendData(data, null);
 			} catch (IOException e) {
 				throw Utils.sneakyThrow(e);
 			}
@@ -512,6 +654,36 @@ public class Connection {
 		return sent;
 	}
 
+	/**
+	 * Sends a message with an already encoded payload. The payload must already be persisted,
+	 * with any novelty sent. Used to send the same message to many Connections, encoding it only once.
+	 *
+	 * @param type    Type of message
+	 * @param buf     Buffer containing the encoded payload. Not modified, so may be shared.
+	 * @return true if message queued successfully, false otherwise
+	 * @throws IOException If IO error occurs
+	 */
+	public boolean sendEncoded(MessageType type, ByteBuffer buf) throws IOException {
+		Counters.sendCount++;
+		return sendBuffer(type, buf.duplicate());
+	}
+
+	/**
+	 * Gets the number of bytes queued for sending on this Connection
+	 * @return Number of bytes
+	 */
+	public long getSendQueueBytes() {
+		return sender.getQueuedBytes();
+	}
+
+	/**
+	 * Gets the time the oldest unsent message on this Connection has been waiting
+	 * @return Lag in milliseconds, or 0 if nothing is waiting to be sent
+	 */
+	public long getSendLag() {
+		return sender.getLag();
+	}
+
 	/**
 	 * Sends a message with the given message type and data buffer.
 	 *
@@ -525,29 +697,19 @@ public class Connection {
 
 		// Total length field is message code + encoded object length
 		int messageLength = dataLength + 1;
-		boolean sent;
-		int headerLength;
 
-		// synchronize in case we are sending messages from different threads
-		// This is OK but need to avoid corrupted messages.
-		synchronized (frameBuf) {
-			// ensure frameBuf is clear and ready for writing
-			frameBuf.clear();
+		// header is queued separately, so the message data is not copied
+		ByteBuffer header = ByteBuffer.allocate(3);
+		Format.writeMessageLength(header, messageLength);
+		header.put(type.getMessageCode());
+		header.flip();
 
-			// write message header
-			Format.writeMessageLength(frameBuf, messageLength);
-			frameBuf.put(type.getMessageCode());
-			headerLength = frameBuf.position();
-
-			// now write message
-			frameBuf.put(buf);
-			frameBuf.flip(); // ensure frameBuf is ready to write to channel
-
-			sent = sender.bufferMessage(frameBuf);
-		}
+		boolean sent = sender.bufferMessage(type, header, buf);
 
 		if (sent) {
-			if (channel instanceof SocketChannel) {
+			// Only the first message since the queue was last emptied needs to register
+			// write interest, so a burst of messages causes a single selector wakeup
+			if ((channel instanceof SocketChannel) && sender.requestWrite()) {
 				SocketChannel chan = (SocketChannel) channel;
 				// register interest in both reads and writes
 				try {
@@ -571,14 +733,25 @@ public class Connection {
 	}
 
 	public synchronized void close() {
-		SocketChannel chan = (SocketChannel) channel;
-		if (chan != null) {
+		if (channel != null) {
 			try {
-				chan.close();
+				channel.close();
 			} catch (IOException e) {
 				// TODO OK to ignore?
 			}
 		}
+		Runnable action = closeAction;
+		closeAction = null;
+		if (action != null) action.run();
+	}
+
+	/**
+	 * Sets an action to run once when this Connection is closed, e.g. to update connection counts
+	 *
+	 * @param action Action to run, or null for none
+	 */
+	public synchronized void setCloseAction(Runnable action) {
+		this.closeAction = action;
 	}
 
 	/**
@@ -696,6 +869,7 @@ public class Connection {
 		} catch (ClosedChannelException e) {
 			log.debug("Channel closed from: {}", conn.getRemoteAddress());
 			key.cancel();
+			conn.close();
 		} catch (BadFormatException e) {
 			log.warn("Cancelled connection to Peer: Bad data format from: " + conn.getRemoteAddress() + " "
 					+ e.getMessage());
@@ -740,6 +914,11 @@ public class Connection {
 		if (allSent) {
 			// deregister interest in writing
 			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+			// a message may have been queued since, which will not register interest again
+			if (pc.sender.hasQueued()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
 		} else {
 			// we want to continue writing
 		}
@@ -0,0 +1,85 @@
+package convex.net;
+
+import convex.core.data.Hash;
+
+/**
+ * Bounded set of hashes of cells known to be held by the remote end of a Connection, because
+ * they were sent to it or received from it. Used to skip sending DATA the remote end already has.
+ *
+ * Direct mapped and lock-free, like the signature cache: entries are overwritten on collision,
+ * so a hash may be forgotten (and the data sent again), but is never reported as known unless added.
+ */
+public final class KnownCells {
+
+	/**
+	 * Runtime switch for known cells tracking, enabled by default
+	 */
+	private static volatile boolean enabled = true;
+
+	private final int size;
+
+	/**
+	 * Slots for known hashes, allocated on first use since many Connections never need them
+	 */
+	private volatile Hash[] hashes = null;
+
+	/**
+	 * Creates a KnownCells set
+	 * @param size Number of slots. Must be a power of 2.
+	 */
+	public KnownCells(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Checks if known cells tracking is enabled
+	 * @return True if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables known cells tracking. Disabling sends all DATA regardless, e.g.
+	 * for diagnosis or to measure the bandwidth saved.
+	 * @param value True to enable, false to disable
+	 */
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	/**
+	 * Records that the remote end holds the cell with the given hash
+	 * @param hash Hash of cell
+	 */
+	public void add(Hash hash) {
+		Hash[] hs = hashes;
+		if (hs == null) {
+			synchronized (this) {
+				hs = hashes;
+				if (hs == null) {
+					hs = new Hash[size];
+					hashes = hs;
+				}
+			}
+		}
+		hs[calcIndex(hash)] = hash;
+	}
+
+	/**
+	 * Checks if the remote end is known to hold the cell with the given hash
+	 * @param hash Hash of cell
+	 * @return True if known to be held, false otherwise
+	 */
+	public boolean contains(Hash hash) {
+		if (!enabled) return false;
+		Hash[] hs = hashes;
+		if (hs == null) return false;
+		Hash h = hs[calcIndex(hash)];
+		return (h != null) && h.equals(hash);
+	}
+
+	private int calcIndex(Hash hash) {
+		return Long.hashCode(hash.toLong()) & (size - 1);
+	}
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -22,8 +24,12 @@ import convex.net.message.Message;
  *
  * ByteBuffers received must be passed in via @receiveFromChannel
  *
+ * By default exactly one message is read per call. If a chunk size is set, bytes are read from the
+ * channel in chunks of up to that size and every complete message in a chunk is dispatched, with any
+ * partial message kept until the next read.
+ *
  * Passes any successfully received objects to a specified Consumer, using the same thread on which the
- * MessageReceiver was called.
+ * MessageReceiver was called, or on an Executor if one is set.
  *
  * <blockquote>
  *   <p>"There are only two hard problems in distributed systems: 2. Exactly-once
@@ -43,12 +49,38 @@ public class MessageReceiver {
 	 * 
 	 * Maybe use a direct buffer since we are copying from the socket channel? But probably doesn't make any difference.
 	 */
-	private ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+	private ByteBuffer buffer = null;
+
+	/**
+	 * Direct buffers for chunked reads, shared by all receivers read on the same thread
+	 */
+	private static final ThreadLocal<ByteBuffer> chunkBuffers = new ThreadLocal<>();
+
+	/**
+	 * Maximum number of bytes read per chunk, or 0 to read one message at a time
+	 */
+	private int chunkSize = 0;
+
+	/**
+	 * Partial message left over from the last chunk, sized to the whole message frame once its
+	 * length is known, or null if none
+	 */
+	private byte[] tail = null;
+
+	/**
+	 * Number of bytes of the partial message received so far
+	 */
+	private int tailLength = 0;
 
 	private final Consumer<Message> action;
 	private final Connection connection;
 
-	private long receivedMessageCount = 0;
+	private volatile long receivedMessageCount = 0;
+
+	/**
+	 * Executor for decoding and delivering messages, or null to do this on the receiving thread
+	 */
+	private Executor executor = null;
 
 	private static final Logger log = LoggerFactory.getLogger(MessageReceiver.class.getName());
 
@@ -61,6 +93,28 @@ public class MessageReceiver {
 		return action;
 	}
 
+	/**
+	 * Sets an Executor for decoding and delivering received messages, so that the thread reading from
+	 * the channel is not blocked by decoding. The Executor must run tasks in submission order.
+	 * @param executor Executor to use, or null to decode on the receiving thread
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum number of bytes to read from the channel per call. All complete messages
+	 * in each chunk read are dispatched, which saves a read per message at high message rates. A consumer blocking on dispatch still throttles the client, but up to a chunk of messages
+	 * may be accepted ahead of it.
+	 *
+	 * Should be set before any bytes are received.
+	 *
+	 * @param chunkSize Chunk size in bytes, or 0 to read exactly one message per call
+	 */
+	public synchronized void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(0, chunkSize);
+	}
+
 	/**
 	 * Get the number of messages received in total by this Receiver
 	 * @return Count of messages received
@@ -76,8 +130,9 @@ public class MessageReceiver {
 	 * May be called multiple times during receipt of a single message, i.e. can
 	 * handle partial message receipt.
 	 *
-	 * Will consume enough bytes from channel to handle exactly one message. Bytes
-	 * will be left unconsumed on the channel if more are available.
+	 * Unless a chunk size is set, will consume enough bytes from channel to handle
+	 * exactly one message. Bytes will be left unconsumed on the channel if more are
+	 * available.
 	 *
 	 * This hopefully
 	 * creates sufficient backpressure on clients sending a lot of messages.
@@ -88,6 +143,8 @@ public class MessageReceiver {
 	 * @throws BadFormatException If a bad encoding is received
 	 */
 	public synchronized int receiveFromChannel(ReadableByteChannel chan) throws IOException, BadFormatException {
+		if (chunkSize>0) return receiveChunk(chan);
+		if (buffer==null) buffer=ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
 		int numRead=0;
 
 		// first read a message length
@@ -96,7 +153,7 @@ public class MessageReceiver {
 			numRead = chan.read(buffer);
 
 			if (numRead < 0) {
-				chan.close();
+				connection.close();
 			    throw new ClosedChannelException();
 			}
 
@@ -115,7 +172,10 @@ public class MessageReceiver {
 		// try to read more bytes up to limit of total message size
 		{
 			int n=chan.read(buffer);
-			if (n < 0) throw new ClosedChannelException();
+			if (n < 0) {
+				connection.close();
+				throw new ClosedChannelException();
+			}
 			numRead+=n;
 		}
 
@@ -135,8 +195,7 @@ public class MessageReceiver {
 		buffer.get(bs);
 		assert(!buffer.hasRemaining()); // should consume entire buffer!
 		Blob encoding=Blob.wrap(bs);
-
-		receiveMessage(type, encoding);
+		dispatch(type,encoding);
 
 		// clear buffer
 		buffer.clear();
@@ -144,21 +203,132 @@ public class MessageReceiver {
 	}
 
 	/**
-	 * Reads exactly one message from the ByteBuffer, checking that the position is
-	 * advanced as expected. Buffer must contain sufficient bytes for given message length.
-	 *
-	 * Expects a message code at the buffer's current position.
+	 * Reads one chunk from the channel and dispatches all complete messages. Messages are parsed
+	 * directly from the per-thread chunk buffer, with each encoding copied into its own array, so
+	 * only a partial message at the end of a chunk is kept by this receiver.
+	 */
+	private int receiveChunk(ReadableByteChannel chan) throws IOException, BadFormatException {
+		ByteBuffer bb=chunkBuffers.get();
+		if ((bb==null)||(bb.capacity()<chunkSize)) {
+			bb=ByteBuffer.allocateDirect(chunkSize);
+			chunkBuffers.set(bb);
+		}
+		bb.clear();
+		bb.limit(chunkSize);
+		int numRead=chan.read(bb);
+		if (numRead < 0) {
+			connection.close();
+			throw new ClosedChannelException();
+		}
+		if (numRead==0) return 0;
+		bb.flip();
+
+		// complete any partial message from the last chunk first
+		if ((tail!=null)&&!fillTail(bb)) return numRead;
+
+		int needed=2;
+		while (bb.remaining()>=2) {
+			int pos=bb.position();
+			int len = Format.peekMessageLength(bb.slice());
+			int lengthLength = (len < 64) ? 1 : 2;
+			int totalFrameSize=lengthLength + len;
+			if (bb.remaining()<totalFrameSize) {
+				needed=totalFrameSize;
+				break;
+			}
+
+			MessageType type=MessageType.decode(bb.get(pos+lengthLength));
+			byte[] bs=new byte[len-1]; // message length after type byte
+			bb.position(pos+lengthLength+1);
+			bb.get(bs);
+			dispatch(type,Blob.wrap(bs));
+		}
+
+		int remaining=bb.remaining();
+		if (remaining>0) {
+			tail=new byte[Math.max(needed, remaining)];
+			tailLength=remaining;
+			bb.get(tail, 0, remaining);
+		}
+		return numRead;
+	}
+
+	/**
+	 * Adds bytes from a chunk to the partial message, dispatching it if complete
+	 * @return true if the partial message was completed, false if more bytes are needed
+	 */
+	private boolean fillTail(ByteBuffer bb) throws BadFormatException {
+		if (tailLength<2) {
+			// only part of the message length was received
+			int n=Math.min(2-tailLength, bb.remaining());
+			bb.get(tail, tailLength, n);
+			tailLength+=n;
+			if (tailLength<2) return false;
+			int len = Format.peekMessageLength(ByteBuffer.wrap(tail, 0, 2));
+			int totalFrameSize=((len < 64) ? 1 : 2) + len;
+			if (totalFrameSize!=tail.length) tail=Arrays.copyOf(tail, totalFrameSize);
+		}
+
+		int n=Math.min(tail.length-tailLength, bb.remaining());
+		bb.get(tail, tailLength, n);
+		tailLength+=n;
+		if (tailLength<tail.length) return false;
+
+		byte[] frame=tail;
+		tail=null;
+		tailLength=0;
+		int len = Format.peekMessageLength(ByteBuffer.wrap(frame));
+		int lengthLength = (len < 64) ? 1 : 2;
+		MessageType type=MessageType.decode(frame[lengthLength]);
+		dispatch(type,Blob.wrap(frame, lengthLength+1, len-1));
+		return true;
+	}
+
+	private void dispatch(MessageType type, Blob encoding) throws BadFormatException {
+		Executor ex=executor;
+		if (ex==null) {
+			receiveMessage(type, encoding);
+		} else {
+			ex.execute(()->deferredReceive(type,encoding));
+		}
+	}
+
+	/**
+	 * Receives a message on the Executor. A bad encoding closes the Connection, as it would
+	 * if decoded on the receiving thread. Any other failure to decode also closes the Connection,
+	 * so that a malformed message cannot stop the Executor.
+	 */
+	private void deferredReceive(MessageType type, ABlob encoding) {
+		try {
+			receiveMessage(type, encoding);
+		} catch (BadFormatException e) {
+			log.warn("Closing connection: Bad data format from: {} message: {}", connection.getRemoteAddress(), e.getMessage());
+			connection.close();
+		} catch (Throwable e) {
+			log.warn("Closing connection: Failed to decode message from: {} error: {}", connection.getRemoteAddress(), e.toString());
+			connection.close();
+		}
+	}
+
+	/**
+	 * Decodes one message from its encoding, excluding the length and message type.
 	 *
 	 * Calls the receive action with the message if successfully received. Should be called with
 	 * the correct store for this Connection.
 	 *
-	 * SECURITY: Gets called on NIO server thread
+	 * SECURITY: Gets called on NIO server thread, or the decoder thread if an Executor is set
 	 *
-	 * @throws BadFormatException if the message is incorrectly formatted`
+	 * @param type Message type
+	 * @param encoding Encoding of message payload
+	 * @throws BadFormatException if the message is incorrectly formatted
 	 */
 	private void receiveMessage(MessageType type, ABlob encoding) throws BadFormatException {
 		
 		ACell payload = connection.getStore().decode(encoding);
+		if ((type == MessageType.DATA) && (payload != null)) {
+			// remote end must hold this, so no need to send it back
+			connection.getKnownCells().add(payload.getHash());
+		}
 
 		Message message = Message.create(connection, type, payload);
 		receivedMessageCount++;
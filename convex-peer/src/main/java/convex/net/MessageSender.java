@@ -3,78 +3,241 @@ package convex.net;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.core.Constants;
+import convex.core.util.Counters;
+import convex.core.util.Utils;
 
 /**
- * Message sender responsible for moving bytes from a ByteBuffer to a ByteChannel
- * 
- * Must call maybeSendBytes to attempt to flush buffer to channel.
+ * Message sender responsible for moving queued message frames to a ByteChannel
+ *
+ * Frames are queued as ByteBuffers without copying, and written with gathering writes
+ * where the channel supports them. Must call maybeSendBytes to attempt to flush the
+ * queue to the channel.
+ *
+ * Frames are sent in priority order BELIEF, then DATA, then all other messages. A BELIEF is
+ * never sent ahead of DATA queued before it, since the DATA may be needed to complete the
+ * Belief. At most one BELIEF is queued: a newer BELIEF supersedes one not yet sent, so a
+ * lagging peer only receives the latest Belief.
+ *
+ * A BELIEF_DELTA is queued in order with DATA, and never superseded, since later deltas
+ * depend on it.
+ *
+ * High water mark policy: a frame other than a BELIEF is rejected if the bytes already queued
+ * are at or above the high water mark. A frame is always accepted if the queue is empty, so
+ * large frames cannot be starved.
  */
 public class MessageSender {
-	public static final int SEND_BUFFER_SIZE = Constants.SEND_BUFFER_SIZE;
+	public static final int SEND_QUEUE_HIGH_WATER = Constants.SEND_QUEUE_HIGH_WATER;
+
+	/**
+	 * Maximum number of buffers passed to a single gathering write
+	 */
+	static final int MAX_GATHER = 64;
 
 	private final ByteChannel channel;
 
 	/**
-	 * Buffer for send bytes. Retained in a state ready for reading, so we flip on
-	 * initialisation. Must be accessed holding lock on buffer.
+	 * A queued message frame
 	 */
-	private final ByteBuffer buffer = ByteBuffer.allocate(SEND_BUFFER_SIZE).flip();
+	private static final class Frame {
+		final ByteBuffer header;
+		final ByteBuffer body;
+		final long seq;
+		final long time;
+
+		Frame(ByteBuffer header, ByteBuffer body, long seq) {
+			this.header = header;
+			this.body = body;
+			this.seq = seq;
+			this.time = Utils.getCurrentTimestamp();
+		}
+
+		long remaining() {
+			return header.remaining() + body.remaining();
+		}
+	}
+
+	// Queues below must be accessed holding lock on this sender.
+
+	/**
+	 * Frames committed to be written next, in order
+	 */
+	private final ArrayDeque<Frame> wire = new ArrayDeque<>();
+
+	private Frame belief = null;
+	private final ArrayDeque<Frame> data = new ArrayDeque<>();
+	private final ArrayDeque<Frame> other = new ArrayDeque<>();
+
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+	private final int highWater;
+
+	private long queuedBytes = 0;
+
+	private long seq = 0;
+
+	/**
+	 * True if a write has been requested since the queue was last emptied
+	 */
+	private boolean writeRequested = false;
 
 	protected static final Logger log = LoggerFactory.getLogger(MessageSender.class.getName());
 
 	public MessageSender(ByteChannel channel) {
+		this(channel, SEND_QUEUE_HIGH_WATER);
+	}
+
+	/**
+	 * Creates a MessageSender with a specific high water mark
+	 * @param channel Channel to send to
+	 * @param highWater Number of queued bytes at which further messages are rejected
+	 */
+	public MessageSender(ByteChannel channel, int highWater) {
 		this.channel = channel;
+		this.highWater = highWater;
 	}
 
 	/**
-	 * Buffers a message for sending.
-	 * 
-	 * @param messageFrame Source ByteBuffer containing complete message bytes (including length)
-	 * @return True if successfully buffered, false otherwise (insufficient send buffer
-	 *         size)
+	 * Queues a message for sending. Buffers are retained until sent, and must not be modified
+	 * by the caller.
+	 *
+	 * @param type Type of message, which determines send priority
+	 * @param header Buffer containing message length and type
+	 * @param body Buffer containing message data
+	 * @return True if successfully queued, false otherwise (high water mark reached)
 	 */
-	public boolean bufferMessage(ByteBuffer messageFrame) {
-		synchronized (buffer) {
-			// compact buffer, ready for writing			
-			buffer.compact();
-			
-			// return false if insufficient space to send
-			if (buffer.remaining() < messageFrame.remaining()) {
-				// flip to maintain readiness for writing
-				buffer.flip();
+	public synchronized boolean bufferMessage(MessageType type, ByteBuffer header, ByteBuffer body) {
+		Frame frame = new Frame(header, body, seq++);
+		if (type == MessageType.BELIEF) {
+			if (belief != null) {
+				queuedBytes -= belief.remaining();
+				Counters.beliefSuperseded++;
+			}
+			belief = frame;
+		} else {
+			if ((queuedBytes >= highWater) && hasQueued()) {
+				Counters.sendQueueFull++;
 				return false;
 			}
-			buffer.put(messageFrame);
-			// flip so ready for reading once again
-			buffer.flip();
+			if ((type == MessageType.DATA) || (type == MessageType.BELIEF_DELTA)) {
+				data.add(frame);
+			} else {
+				other.add(frame);
+			}
 		}
+		queuedBytes += frame.remaining();
+		return true;
+	}
+
+	/**
+	 * Marks that a write has been requested for queued messages. Senders only need to
+	 * request a write (e.g. wake up a selector) if this returns true, so a burst of
+	 * messages costs a single request.
+	 *
+	 * @return True if no write was already requested since the queue was last emptied
+	 */
+	public synchronized boolean requestWrite() {
+		if (writeRequested) return false;
+		writeRequested = true;
 		return true;
 	}
 
+	/**
+	 * Checks if there are any bytes waiting to be sent
+	 * @return True if bytes are queued, false otherwise
+	 */
+	public synchronized boolean hasQueued() {
+		return !(wire.isEmpty() && (belief == null) && data.isEmpty() && other.isEmpty());
+	}
+
+	/**
+	 * Gets the number of bytes waiting to be sent
+	 * @return Number of queued bytes
+	 */
+	public synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Gets the time the oldest unsent message has been waiting to be sent
+	 * @return Lag in milliseconds, or 0 if nothing is queued
+	 */
+	public synchronized long getLag() {
+		long oldest = Long.MAX_VALUE;
+		if (!wire.isEmpty()) oldest = Math.min(oldest, wire.peek().time);
+		if (belief != null) oldest = Math.min(oldest, belief.time);
+		if (!data.isEmpty()) oldest = Math.min(oldest, data.peek().time);
+		if (!other.isEmpty()) oldest = Math.min(oldest, other.peek().time);
+		if (oldest == Long.MAX_VALUE) return 0;
+		return Math.max(0, Utils.getCurrentTimestamp() - oldest);
+	}
+
+	/**
+	 * Moves frames from the priority queues to the wire, in the order they should be sent
+	 */
+	private void fillWire() {
+		while (wire.size() < MAX_GATHER / 2) {
+			if ((belief != null) && (data.isEmpty() || (data.peek().seq > belief.seq))) {
+				wire.add(belief);
+				belief = null;
+			} else if (!data.isEmpty()) {
+				wire.add(data.poll());
+			} else if (!other.isEmpty()) {
+				wire.add(other.poll());
+			} else {
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Try to send bytes on the outbound channel.
-	 * 
+	 *
 	 * @return True if all bytes have been sent, false otherwise.
 	 * @throws IOException If IO error occurs
 	 */
-	public boolean maybeSendBytes() throws IOException {
-		synchronized (buffer) {
-			if (!buffer.hasRemaining()) return true;
+	public synchronized boolean maybeSendBytes() throws IOException {
+		while (true) {
+			fillWire();
+			if (wire.isEmpty()) break;
 
-			// write to channel if possible. May write zero or more bytes
-			channel.write(buffer);
-
-			if (buffer.hasRemaining()) {
-				log.debug("Send buffer full!");
-				return false;
+			long written;
+			if (channel instanceof GatheringByteChannel) {
+				int n = 0;
+				for (Frame f : wire) {
+					gather[n++] = f.header;
+					gather[n++] = f.body;
+				}
+				written = ((GatheringByteChannel) channel).write(gather, 0, n);
+				for (int i = 0; i < n; i++) {
+					gather[i] = null;
+				}
 			} else {
-				return true;
+				Frame f = wire.peek();
+				written = channel.write(f.header.hasRemaining() ? f.header : f.body);
+			}
+			queuedBytes -= written;
+
+			// remove fully sent frames
+			while (!wire.isEmpty() && (wire.peek().remaining() == 0)) {
+				wire.poll();
 			}
+
+			if (written == 0) break;
+		}
+
+		if (!hasQueued()) {
+			writeRequested = false;
+			return true;
+		} else {
+			log.debug("Send buffer full!");
+			return false;
 		}
 	}
 
@@ -101,7 +101,31 @@ public enum MessageType {
 	 *
 	 * Expected Result is a Vector: [signed-belief-hash states-hash initial-state-hash peer-key consensus-state-hash]
 	 */
-	STATUS(11);
+	STATUS(11),
+
+	/**
+	 * Communication of changes to the latest Belief of a Peer.
+	 *
+	 * Payload is a SignedData<Belief> containing only the Orders changed since the
+	 * last Belief sent by the Peer on the same connection. Merged by the receiver in
+	 * the same way as a full Belief.
+	 */
+	BELIEF_DELTA(12),
+
+	/**
+	 * A request to provide a batch of missing data. Subject to the same rules as
+	 * MISSING_DATA.
+	 *
+	 * Payload is: [hashes depth]
+	 *
+	 * Where:
+	 * - hashes is a Vector of the missing data hashes
+	 * - depth is the number of levels of child cells to provide as well
+	 *
+	 * Receiver should respond with a DATA message for each cell available in their
+	 * store, up to a bounded number of cells per request.
+	 */
+	DATA_REQUEST(13);
 
 	private final byte messageCode;
 
@@ -133,6 +157,10 @@ public enum MessageType {
 			return GOODBYE;
 		case 11:
 			return STATUS;
+		case 12:
+			return BELIEF_DELTA;
+		case 13:
+			return DATA_REQUEST;
 		}
 		throw new BadFormatException("Invalid message code: " + i);
 	}
@@ -14,7 +14,13 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +34,10 @@ import convex.peer.Server;
 /**
  * NIO Server implementation that handles incoming messages on a given port.
  *
- * Allocates a single thread for the selector.
+ * Uses a pool of selector threads. The first selector also accepts new connections,
+ * which are spread across selectors by current connection count. Each selector has a
+ * paired decoder thread, so that message decoding does not block socket reads. All
+ * messages from a connection are decoded in order on the same decoder thread.
  *
  * Incoming messages are associated with a Connection (which is created if
  * required), then placed on the receive message queue. This will block if the
@@ -40,13 +49,20 @@ public class NIOServer implements Closeable {
 
 	private static final Logger log = LoggerFactory.getLogger(NIOServer.class.getName());
 
+	/**
+	 * Size of queue for each decoder thread
+	 */
+	static final int DECODE_QUEUE_SIZE = 1000;
+
 	private ServerSocketChannel ssc = null;
 
 	private BlockingQueue<Message> receiveQueue;
 
-	private Selector selector = null;
+	private SelectorLoop[] loops = new SelectorLoop[0];
+
+	private volatile boolean running = false;
 
-	private boolean running = false;
+	private volatile int receiveChunkSize = Constants.DEFAULT_RECEIVE_CHUNK_SIZE;
 
 	private final Server server;
 
@@ -66,11 +82,32 @@ public class NIOServer implements Closeable {
 		return new NIOServer(server, receiveQueue);
 	}
 
+	/**
+	 * Sets the maximum number of bytes read from a client connection at a time. Applies to
+	 * connections accepted after this is called.
+	 *
+	 * @param chunkSize Chunk size in bytes, or 0 to read exactly one message at a time
+	 */
+	public void setReceiveChunkSize(int chunkSize) {
+		this.receiveChunkSize = Math.max(0, chunkSize);
+	}
+
 	public void launch(Integer port) {
 		launch(null, port);
 	}
 
 	public void launch(String bindAddress, Integer port) {
+		launch(bindAddress, port, Constants.DEFAULT_SELECTOR_THREADS);
+	}
+
+	/**
+	 * Launches this NIO server
+	 * 
+	 * @param bindAddress Address to bind to, or null for localhost
+	 * @param port Port to bind to, or null / 0 for any free port
+	 * @param selectorThreads Number of selector threads. Values less than 1 are treated as 1.
+	 */
+	public void launch(String bindAddress, Integer port, int selectorThreads) {
 		if (port == null)
 			port = 0;
 
@@ -87,28 +124,97 @@ public class NIOServer implements Closeable {
 			ssc.configureBlocking(false);
 			port = ssc.socket().getLocalPort();
 
+			int n = Math.max(1, selectorThreads);
+			SelectorLoop[] newLoops = new SelectorLoop[n];
+			for (int i = 0; i < n; i++) {
+				newLoops[i] = new SelectorLoop(i);
+			}
+			loops = newLoops;
+
 			// Register for accept. Do this before selection loop starts and
 			// before we return from launch!
-			selector = Selector.open();
-			ssc.register(selector, SelectionKey.OP_ACCEPT);
+			ssc.register(loops[0].selector, SelectionKey.OP_ACCEPT);
 
 			// set running status now, so that loops don't terminate
 			running = true;
 
-			Thread selectorThread = new Thread(selectorLoop, "NIO Server selector loop on port: " + port);
-			selectorThread.setDaemon(true);
-			selectorThread.start();
-			log.info("NIO server started on port {}", port);
+			for (SelectorLoop loop : loops) {
+				loop.start(port);
+			}
+			log.info("NIO server started on port {} with {} selector threads", port, n);
 		} catch (Exception e) {
 			throw new Error("Can't bind NIOServer to port: " + port, e);
 		}
 	}
 
 	/**
-	 * Runnable class for accepting socket connections and incoming data, one per
-	 * peer If this gets maxed out, rely on backpressure to throttle clients.
+	 * A selector thread handling reads and writes for a subset of connections, with
+	 * a paired decoder thread.
+	 * 
+	 * If this gets maxed out, rely on backpressure to throttle clients.
 	 */
-	private Runnable selectorLoop = new Runnable() {
+	private final class SelectorLoop implements Runnable {
+		final int index;
+		final Selector selector;
+		final Decoder decoder = new Decoder();
+
+		/**
+		 * Accepted channels waiting to be registered with this selector
+		 */
+		final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Number of open connections handed to this selector, including those waiting to be
+		 * registered. Incremented on accept, decremented when the Connection is closed.
+		 */
+		final AtomicInteger connectionCount = new AtomicInteger();
+
+		/**
+		 * Number of read and write operations handled by this selector
+		 */
+		volatile long opCount = 0;
+
+		SelectorLoop(int index) throws IOException {
+			this.index = index;
+			this.selector = Selector.open();
+		}
+
+		void start(int port) {
+			Thread selectorThread = new Thread(this, "NIO Server selector loop " + index + " on port: " + port);
+			selectorThread.setDaemon(true);
+			selectorThread.start();
+
+			Thread decoderThread = new Thread(decoder, "NIO Server decoder " + index + " on port: " + port);
+			decoderThread.setDaemon(true);
+			decoder.thread = decoderThread;
+			decoderThread.start();
+		}
+
+		/**
+		 * Hands over an accepted channel to this selector. May be called from any thread.
+		 */
+		void addChannel(SocketChannel channel) {
+			connectionCount.incrementAndGet();
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		private void registerPending() throws IOException {
+			SocketChannel channel;
+			while ((channel = pending.poll()) != null) {
+				Connection conn = createPC(channel, receiveQueue);
+				conn.setCloseAction(connectionCount::decrementAndGet);
+				conn.setReceiveExecutor(decoder);
+				conn.setReceiveChunkSize(receiveChunkSize);
+				try {
+					channel.register(selector, SelectionKey.OP_READ, conn);
+				} catch (ClosedChannelException e) {
+					log.debug("Client closed channel before registration");
+					conn.close();
+				}
+			}
+		}
+
 		@Override
 		public void run() {
 			// Use the store configured for the owning server.
@@ -117,6 +223,7 @@ public class NIOServer implements Closeable {
 
 				while (running) {
 					selector.select(1000);
+					registerPending();
 
 					Set<SelectionKey> keys = selector.selectedKeys();
 					Iterator<SelectionKey> it = keys.iterator();
@@ -127,24 +234,26 @@ public class NIOServer implements Closeable {
 						try {
 							// Just do one op on each key
 							if (key.isAcceptable()) {
-								accept(selector);
+								accept();
 							} else if (key.isReadable()) {
+								opCount++;
 								selectRead(key);
 							} else if (key.isWritable()) {
+								opCount++;
 								selectWrite(key);
 							}
 						} catch (ClosedChannelException e) {
 							// channel was closed, just lose the key?
 							log.debug("Client closed channel");
-							key.cancel();
+							cancel(key);
 						} catch (IOException e) {
 							log.warn("Unexpected IOException, canceling key: {}", e);
 							// e.printStackTrace();
-							key.cancel();
+							cancel(key);
 						} catch (CancelledKeyException e) {
 							log.warn("Cancelled key: {}", e);
 							// e.printStackTrace();
-							key.cancel();
+							cancel(key);
 						}
 					}
 					// keys.clear();
@@ -159,30 +268,145 @@ public class NIOServer implements Closeable {
 					for (SelectionKey key : selector.keys()) {
 						key.channel().close();
 					}
+					SocketChannel channel;
+					while ((channel = pending.poll()) != null) {
+						channel.close();
+					}
 					selector.close();
-					selector = null;
 				} catch (IOException e) {
 					log.error("IOException while closing NIO server");
 					e.printStackTrace();
-				} finally {
-					selector = null;
 				}
+				connectionCount.set(0);
+				decoder.close();
 
-				if (ssc != null) {
-					try {
-						ssc.close();
-					} catch (IOException e) {
-						log.error("IOException while closing NIO socket channel");
-						e.printStackTrace();
-					} finally {
-						ssc = null;
-					}
+				if (index == 0) closeServerChannel();
+
+				log.info("Selector loop {} ended on port: {}", index, getPort());
+			}
+		}
+	}
+
+	/**
+	 * Decoder thread, running message decoding tasks handed over by a selector in order.
+	 */
+	private final class Decoder implements Runnable, Executor {
+		final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(DECODE_QUEUE_SIZE);
+		Thread thread = null;
+		volatile boolean closed = false;
+
+		/**
+		 * Queues a decoding task. Blocks if the queue is full, applying back-pressure to the selector.
+		 * 
+		 * @throws RejectedExecutionException if interrupted while waiting, since dropping the task
+		 *         would break message order for the connection
+		 */
+		@Override
+		public void execute(Runnable task) {
+			try {
+				queue.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while queuing decoding task");
+			}
+		}
+
+		@Override
+		public void run() {
+			// Use the store configured for the owning server.
+			Stores.setCurrent(server.getStore());
+			while (running && !closed) {
+				Runnable task;
+				try {
+					task = queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					// only stop when closed, a stray interrupt must not kill the decoder
+					log.debug("Decoder thread interrupted");
+					continue;
+				}
+				if (task == null) continue;
+				try {
+					task.run();
+				} catch (Throwable e) {
+					// tasks handle their own connection failures, but the decoder must keep running
+					log.warn("Unexpected exception in decoding task: {}", e);
 				}
+			}
+		}
 
-				log.info("Selector loop ended on port: " + getPort());
+		void close() {
+			closed = true;
+			Thread t = thread;
+			if (t != null) t.interrupt();
+		}
+	}
+
+	private void closeServerChannel() {
+		if (ssc != null) {
+			try {
+				ssc.close();
+			} catch (IOException e) {
+				log.error("IOException while closing NIO socket channel");
+				e.printStackTrace();
+			} finally {
+				ssc = null;
 			}
 		}
-	};
+	}
+
+	/**
+	 * Gets the number of client and peer connections currently open on this server
+	 * 
+	 * @return Connection count
+	 */
+	public int getConnectionCount() {
+		int result = 0;
+		for (SelectorLoop loop : loops) {
+			result += loop.connectionCount.get();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of connections handled by each selector thread
+	 * 
+	 * @return Array of connection counts, one per selector
+	 */
+	public int[] getSelectorConnectionCounts() {
+		SelectorLoop[] ls = loops;
+		int[] result = new int[ls.length];
+		for (int i = 0; i < ls.length; i++) {
+			result[i] = ls[i].connectionCount.get();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of read and write operations handled by each selector thread
+	 * 
+	 * @return Array of operation counts, one per selector
+	 */
+	public long[] getSelectorOpCounts() {
+		SelectorLoop[] ls = loops;
+		long[] result = new long[ls.length];
+		for (int i = 0; i < ls.length; i++) {
+			result[i] = ls[i].opCount;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the total number of received messages waiting to be decoded
+	 * 
+	 * @return Queue depth across all decoder threads
+	 */
+	public int getDecodeQueueDepth() {
+		int result = 0;
+		for (SelectorLoop loop : loops) {
+			result += loop.decoder.queue.size();
+		}
+		return result;
+	}
 
 	/**
 	 * Gets the port that this server instance is listening on.
@@ -220,6 +444,23 @@ public class NIOServer implements Closeable {
 		return Connection.create(sc, server.getReceiveAction(), server.getStore(), null);
 	}
 
+	/**
+	 * Cancels a client key and closes its Connection, so the connection count is updated
+	 */
+	private static void cancel(SelectionKey key) {
+		key.cancel();
+		Object att = key.attachment();
+		if (att instanceof Connection) {
+			((Connection) att).close();
+		} else if (key.channel() instanceof SocketChannel) {
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+				log.debug("IOException closing cancelled channel: {}", e.getMessage());
+			}
+		}
+	}
+
 	protected void selectRead(SelectionKey key) throws IOException {
 
 		// log.info("Connection read from: "+sc.getRemoteAddress()+" with key:"+key);
@@ -233,12 +474,15 @@ public class NIOServer implements Closeable {
 			}
 		} catch (ClosedChannelException | SocketException e) {
 			log.debug("Channel closed from: {}", conn.getRemoteAddress());
-			key.cancel();
+			cancel(key);
 		} catch (BadFormatException e) {
 			log.warn("Cancelled connection: Bad data format from: {} message: {}", conn.getRemoteAddress(),
 					e.getMessage());
 			// TODO: blacklist peer?
-			key.cancel();
+			cancel(key);
+		} catch (RejectedExecutionException e) {
+			log.warn("Cancelled connection: Unable to queue message from: {}", conn.getRemoteAddress());
+			cancel(key);
 		}
 	}
 
@@ -250,13 +494,12 @@ public class NIOServer implements Closeable {
 	@Override
 	public void close() {
 		running = false;
-		if (selector != null) {
-			selector.wakeup();
+		for (SelectorLoop loop : loops) {
+			loop.selector.wakeup();
 		}
-
 	}
 
-	private void accept(Selector selector) throws IOException, ClosedChannelException {
+	private void accept() throws IOException, ClosedChannelException {
 		SocketChannel socketChannel = ssc.accept();
 		if (socketChannel == null)
 			return; // false alarm? Nobody there?
@@ -266,7 +509,15 @@ public class NIOServer implements Closeable {
 		// TODO: Confirm we don't want Nagle?
 		// Generally, we want to send packets as fast as possible.
 		socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
-		socketChannel.register(selector, SelectionKey.OP_READ);
+
+		// hand over to the least loaded selector
+		SelectorLoop target = loops[0];
+		for (SelectorLoop loop : loops) {
+			if (loop.connectionCount.get() < target.connectionCount.get()) {
+				target = loop;
+			}
+		}
+		target.addChannel(socketChannel);
 	}
 
 	/**
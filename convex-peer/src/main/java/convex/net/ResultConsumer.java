@@ -58,10 +58,11 @@ public abstract class ResultConsumer implements Consumer<Message> {
 		// Just store the data, can't guarantee full persistence yet
 		try {
 			ACell o = m.getPayload();
-			Ref<?> r = Ref.get(o);
-			r.persistShallow();
+			Ref<ACell> r = Ref.get(o);
+			r = r.persistShallow();
 			Hash h=r.getHash();
 			log.trace("Recieved DATA for hash {}",h);
+			handleData(r);
 			unbuffer(h);
 		} catch (MissingDataException e) {
 			// ignore?
@@ -81,6 +82,15 @@ public abstract class ResultConsumer implements Consumer<Message> {
 		}
 	}
 
+	/**
+	 * Method called when a DATA message is received, after the data is stored. May be overridden.
+	 *
+	 * @param ref Ref to the received cell
+	 */
+	protected void handleData(Ref<ACell> ref) {
+		// nothing to do by default
+	}
+
 	/**
 	 * Map for messages delayed due to missing data
 	 */
@@ -52,6 +52,10 @@ public abstract class Message {
 		return create(null,MessageType.BELIEF,sb);
 	}
 
+	public static Message createBeliefDelta(SignedData<Belief> delta) {
+		return create(null,MessageType.BELIEF_DELTA,delta);
+	}
+
 	public static Message createChallenge(SignedData<ACell> challenge) {
 		return create(null,MessageType.CHALLENGE, challenge);
 	}
@@ -81,11 +81,10 @@ public class MessageRemote extends Message {
 		Connection pc=getConnection();
 		if (pc==null) return false;
 		try {
-			pc.sendData(data);
+			return pc.sendData(data);
 		} catch (Exception e) {
 			return false;
 		}
-		return true;
 	}
 
 	@Override
@@ -45,12 +45,15 @@ public class API {
 	 * <li>:port (optional, Integer) - Integer port number to use for incoming connections. Zero causes random allocation (also the default).
 	 * <li>:store (optional, AStore) - AStore instance. Defaults to the configured global store
 	 * <li>:source (optional, String) - URL for Peer to replicate initial State/Belief from.
+	 * <li>:snapshot (optional, Boolean) - Sync the source Peer's State history as a snapshot, rather than from genesis. Defaults to false.
+	 * <li>:snapshot-peers (optional, Collection) - Addresses of additional Peers to sync the snapshot from in parallel. Implies :snapshot.
 	 * <li>:state (optional, State) - Genesis state. Defaults to a fresh genesis state for the Peer if neither :source nor :state is specified
 	 * <li>:restore (optional, Boolean) - Boolean Flag to restore from existing store. Default to true
 	 * <li>:persist (optional, Boolean) - Boolean flag to determine if peer state should be persisted in store at server close. Default true.
 	 * <li>:url (optional, String) - public URL for server. If provided, peer will set its public on-chain address based on this, and the bind-address to 0.0.0.0.
 	 * <li>:auto-manage (optional Boolean) - set to true for peer to auto-manage own account. Defaults to true.
      * <li>:bind-address (optional String) - IP address of the ethernet device to bind too. For public peers set too 0.0.0.0. Default to 127.0.0.1.
+	 * <li>:verify-threads (optional, Integer) - Number of threads used to verify signatures on incoming transactions and Beliefs. Zero verifies on the receive thread. Defaults to half the available processors.
 	 * </ul>
 	 *
 	 * @param peerConfig Config map for the new Peer
@@ -2,37 +2,47 @@ package convex.peer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import convex.api.Acquiror;
 import convex.api.Convex;
 import convex.core.Belief;
 import convex.core.Constants;
 import convex.core.Peer;
 import convex.core.Result;
 import convex.core.State;
+import convex.core.crypto.AKeyPair;
 import convex.core.data.ACell;
 import convex.core.data.AString;
 import convex.core.data.AVector;
 import convex.core.data.AccountKey;
+import convex.core.data.BlobMap;
+import convex.core.data.Format;
 import convex.core.data.Hash;
 import convex.core.data.Keywords;
 import convex.core.data.PeerStatus;
+import convex.core.data.Ref;
 import convex.core.data.SignedData;
 import convex.core.data.Vectors;
 import convex.core.lang.RT;
 import convex.core.store.Stores;
+import convex.core.util.Counters;
 import convex.core.util.Utils;
 import convex.net.Connection;
+import convex.net.KnownCells;
+import convex.net.MessageType;
 import convex.net.message.Message;
 import convex.net.message.MessageRemote;
 
@@ -70,6 +80,11 @@ public class ConnectionManager {
 	protected final Server server;
 	private final HashMap<AccountKey,Connection> connections = new HashMap<>();
 
+	/**
+	 * Cells known to be held by each connected Peer, shared by all Connections with that Peer
+	 */
+	private final HashMap<AccountKey,KnownCells> knownCells = new HashMap<>();
+
 	/**
 	 * Planned future connections for this Peer
 	 */
@@ -120,7 +135,12 @@ public class ConnectionManager {
 	};
 
 	/**
-	 * Celled by the connection manager to ensure we are tracking latest Beliefs on the network
+	 * Called by the connection manager to ensure we are tracking latest Beliefs on the network.
+	 *
+	 * Polls a random Peer over the existing Peer Connection: a STATUS request gets the hash of
+	 * the Peer's latest Belief, which is then acquired on the same Connection. The RESULT and
+	 * DATA responses are handled by processResult and processData. At most one poll is
+	 * outstanding at a time.
 	 */
 	private void pollBelief() {
 		try {
@@ -134,29 +154,132 @@ public class ConnectionManager {
 				// log.debug("No connections available to poll!");
 				return;
 			}
-			
-			// TODO: probably shouldn't make a new connection?
-			// Maybe use Convex instance instead of Connection?
-			Connection c = conns.get(random.nextInt(conns.size()));
 
+			Connection c = conns.get(random.nextInt(conns.size()));
 			if (c.isClosed()) return;
-			Convex convex = Convex.connect(c.getRemoteAddress());
-			try {
-				// use requestStatusSync to auto acquire hash of the status instead of the value
-				Result result=convex.requestStatusSync(POLL_TIMEOUT_MILLIS);
-				AVector<ACell> status = result.getValue();
+			pollBelief(c);
+		} catch (Throwable t) {
+			if (server.isLive()) log.warn("Polling failed: {}",t);
+		}
+	}
+
+	/**
+	 * Starts a Belief poll on the given Peer Connection, unless a poll is already outstanding.
+	 * A poll that has timed out is abandoned.
+	 *
+	 * @param c Peer Connection to poll
+	 * @return True if a poll was started, false otherwise
+	 * @throws IOException If IO error occurs
+	 */
+	boolean pollBelief(Connection c) throws IOException {
+		synchronized (pollLock) {
+			if (poll != null) {
+				long elapsed = Utils.getCurrentTimestamp() - poll.start;
+				long timeout = (poll.acquiror == null) ? POLL_TIMEOUT_MILLIS : POLL_ACQUIRE_TIMEOUT_MILLIS;
+				if (elapsed < timeout) return false; // still waiting for outstanding poll
+				log.debug("Belief poll timed out after {}ms", elapsed);
+				failPoll();
+			}
+
+			// send under lock, so the RESULT can't be processed before the poll is set
+			long id = c.sendStatusRequest();
+			poll = new BeliefPoll(c, id);
+			return true;
+		}
+	}
+
+	/**
+	 * State of an outstanding Belief poll
+	 */
+	private static class BeliefPoll {
+		final Connection connection;
+		final long id;
+		final long start = Utils.getCurrentTimestamp();
+		Acquiror<SignedData<Belief>> acquiror = null;
+
+		BeliefPoll(Connection connection, long id) {
+			this.connection = connection;
+			this.id = id;
+		}
+	}
 
-				Hash h=RT.ensureHash(status.get(0));
-				@SuppressWarnings("unchecked")
+	private final Object pollLock = new Object();
 
-				SignedData<Belief> sb=(SignedData<Belief>) convex.acquire(h).get(POLL_ACQUIRE_TIMEOUT_MILLIS,TimeUnit.MILLISECONDS);
+	/**
+	 * Outstanding Belief poll, or null if none. Must hold pollLock.
+	 */
+	private BeliefPoll poll = null;
 
-				server.queueEvent(sb);
-			} finally {
-				convex.close();
+	/**
+	 * Processes a RESULT received on a Peer Connection, which may be the STATUS response for
+	 * a Belief poll.
+	 *
+	 * @param m RESULT message
+	 */
+	void processResult(Message m) {
+		Acquiror<SignedData<Belief>> acquiror;
+		synchronized (pollLock) {
+			if ((poll == null) || (poll.acquiror != null)) return;
+			if (!(m instanceof MessageRemote) || (((MessageRemote) m).getConnection() != poll.connection)) return;
+			if (m.getID().longValue() != poll.id) return;
+
+			Result result = m.getPayload();
+			AVector<ACell> status = result.isError() ? null : result.getValue();
+			Hash h = (status == null) ? null : RT.ensureHash(status.get(0));
+			if (h == null) {
+				log.debug("Bad status response to Belief poll: {}", result);
+				failPoll();
+				return;
 			}
-		} catch (Throwable t) {
-			if (server.isLive()) log.warn("Polling failed: {}",t);
+
+			acquiror = new Acquiror<>(h, server.getStore(), poll.connection, a -> {}, false);
+			poll.acquiror = acquiror;
+			acquiror.getFuture().whenComplete((sb, e) -> completePoll(acquiror, sb, e));
+		}
+		// start outside lock, since completion takes the lock
+		acquiror.start();
+	}
+
+	/**
+	 * Processes DATA received on a Peer Connection, after it is stored.
+	 *
+	 * @param ref Ref to received cell
+	 */
+	void processData(Ref<ACell> ref) {
+		Acquiror<?> acquiror;
+		synchronized (pollLock) {
+			if ((poll == null) || (poll.acquiror == null)) return;
+			acquiror = poll.acquiror;
+		}
+		acquiror.onData(ref);
+	}
+
+	private void completePoll(Acquiror<SignedData<Belief>> acquiror, SignedData<Belief> sb, Throwable e) {
+		synchronized (pollLock) {
+			if ((poll == null) || (poll.acquiror != acquiror)) return; // poll already ended
+			if (e != null) {
+				log.debug("Belief poll failed to acquire Belief: {}", e.getMessage());
+				failPoll();
+				return;
+			}
+			Counters.beliefPolls++;
+			Counters.beliefPollMillis += Utils.getCurrentTimestamp() - poll.start;
+			Counters.beliefPollBytes += acquiror.getAcquiredBytes();
+			poll = null;
+		}
+		try {
+			server.queueEvent(sb);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void failPoll() {
+		BeliefPoll p = poll;
+		poll = null;
+		Counters.beliefPollFailures++;
+		if (p.acquiror != null) {
+			p.acquiror.getFuture().completeExceptionally(new TimeoutException("Belief poll ended"));
 		}
 	}
 
@@ -295,6 +418,7 @@ public class ConnectionManager {
 	}
 
 	public synchronized void setConnection(AccountKey peerKey, Connection peerConnection) {
+		peerConnection.setKnownCells(getKnownCells(peerKey));
 		if (connections.containsKey(peerKey)) {
 			connections.get(peerKey).close();
 			connections.replace(peerKey, peerConnection);
@@ -317,10 +441,25 @@ public class ConnectionManager {
 				conn.close();
 			}
 			connections.remove(peerKey);
+			synchronized(knownCells) {
+				knownCells.remove(peerKey);
+			}
 			server.raiseServerChange("connection");
 		}
 	}
 
+	/**
+	 * Gets the cells known to be held by a Peer, shared by all Connections with that Peer
+	 *
+	 * @param peerKey Peer key
+	 * @return KnownCells instance for the Peer
+	 */
+	public KnownCells getKnownCells(AccountKey peerKey) {
+		synchronized(knownCells) {
+			return knownCells.computeIfAbsent(peerKey, k -> new KnownCells(Constants.KNOWN_CELLS_SIZE));
+		}
+	}
+
 	/**
 	 * Close all outgoing connections from this Peer
 	 */
@@ -572,24 +711,188 @@ public class ConnectionManager {
 	}
 
 	/**
+	 * Broadcasts a message to connected Peers. The message is persisted and encoded once,
+	 * with any novelty sent ahead of it as DATA. Messages are queued on each Connection,
+	 * so a slow Peer does not delay the others.
 	 *
 	 * @param msg Message to broadcast
 	 *
 	 * @param requireTrusted If true, only broadcast to trusted peers
 	 *
 	 */
-	public synchronized void broadcast(Message msg, boolean requireTrusted) {
-		synchronized(connections) {
-			for (Connection pc : connections.values()) {
-				try {
+	public void broadcast(Message msg, boolean requireTrusted) {
+		ArrayList<Connection> targets = new ArrayList<>();
+		synchronized(this) {
+			synchronized(connections) {
+				for (Connection pc : connections.values()) {
 					if ( (requireTrusted && pc.isTrusted()) || !requireTrusted) {
-						pc.sendMessage(msg);
+						targets.add(pc);
 					}
-				} catch (IOException e) {
-					log.error("Error in broadcast: ", e);
 				}
 			}
 		}
+		broadcast(msg, targets);
+	}
+
+	/**
+	 * Broadcasts a message to the given Connections
+	 * @return Connections to which the message could not be sent
+	 */
+	private ArrayList<Connection> broadcast(Message msg, ArrayList<Connection> targets) {
+		ArrayList<Connection> failed = new ArrayList<>();
+		if (targets.isEmpty()) return failed;
+
+		ACell payload = msg.getPayload();
+		ArrayList<ACell> novelty = new ArrayList<>();
+		ACell.createPersisted(payload, r -> {
+			ACell data = r.getValue();
+			if ((data != payload) && !Format.isEmbedded(data)) novelty.add(data);
+		});
+
+		for (ACell data : novelty) {
+			sendAll(targets, MessageType.DATA, data, failed);
+		}
+		sendAll(targets, msg.getType(), payload, failed);
+		return failed;
+	}
+
+	private void sendAll(ArrayList<Connection> targets, MessageType type, ACell payload, ArrayList<Connection> failed) {
+		ByteBuffer buf = Format.encodedBuffer(payload);
+		for (Connection pc : targets) {
+			try {
+				boolean sent;
+				if (type == MessageType.DATA) {
+					// skip if the Peer is known to have this already
+					sent = pc.maybeSendData(payload, buf);
+				} else {
+					sent = pc.sendEncoded(type, buf);
+				}
+				if (!sent) failed.add(pc);
+			} catch (IOException e) {
+				log.error("Error in broadcast: ", e);
+				failed.add(pc);
+			}
+		}
+	}
+
+	/**
+	 * Last Belief sent to a Peer, against which the next delta is computed
+	 */
+	private static final class BeliefBaseline {
+		final Connection connection;
+		final Belief belief;
+		final int deltaCount;
+
+		BeliefBaseline(Connection connection, Belief belief, int deltaCount) {
+			this.connection = connection;
+			this.belief = belief;
+			this.deltaCount = deltaCount;
+		}
+	}
+
+	private final HashMap<AccountKey, BeliefBaseline> beliefBaselines = new HashMap<>();
+
+	/**
+	 * Broadcasts a Belief to connected Peers. Peers are sent a delta with only the Orders
+	 * changed since the last Belief sent on the same Connection. A full Belief is sent
+	 * instead if there is no previous Belief, a previous send failed, or every
+	 * {@link Constants#BELIEF_FULL_INTERVAL} broadcasts to resync the Peer.
+	 *
+	 * Cells making up the Belief itself are not announced as novelty, so are sent here
+	 * only to Peers receiving a full Belief.
+	 *
+	 * @param sb Signed Belief of this Peer
+	 * @param keyPair Key pair of this Peer, used to sign deltas
+	 */
+	public void broadcastBelief(SignedData<Belief> sb, AKeyPair keyPair) {
+		HashMap<AccountKey, Connection> targets;
+		synchronized(this) {
+			synchronized(connections) {
+				targets = new HashMap<>(connections);
+			}
+		}
+		if (targets.isEmpty()) return;
+		Belief belief = sb.getValue();
+
+		// Group Peers by the last Belief sent, so each distinct delta is only created once
+		ArrayList<Connection> full = new ArrayList<>();
+		IdentityHashMap<Belief, ArrayList<Connection>> groups = new IdentityHashMap<>();
+		HashMap<Connection, AccountKey> keys = new HashMap<>();
+		synchronized(beliefBaselines) {
+			beliefBaselines.keySet().retainAll(targets.keySet());
+			for (Map.Entry<AccountKey, Connection> e : targets.entrySet()) {
+				Connection pc = e.getValue();
+				keys.put(pc, e.getKey());
+				BeliefBaseline base = beliefBaselines.get(e.getKey());
+				if ((base == null) || (base.connection != pc) || (base.deltaCount >= Constants.BELIEF_FULL_INTERVAL)) {
+					full.add(pc);
+				} else {
+					groups.computeIfAbsent(base.belief, k -> new ArrayList<>()).add(pc);
+				}
+			}
+		}
+
+		ArrayList<Connection> failed = new ArrayList<>();
+		if (!full.isEmpty()) {
+			ArrayList<ACell> cells = new ArrayList<>();
+			collectBeliefCells(belief, cells);
+			for (ACell c : cells) {
+				sendAll(full, MessageType.DATA, c, failed);
+			}
+			failed.addAll(broadcast(Message.createBelief(sb), full));
+			Counters.beliefFullSent += full.size();
+		}
+		for (Map.Entry<Belief, ArrayList<Connection>> e : groups.entrySet()) {
+			Belief delta = belief.createDelta(e.getKey().getOrders());
+			failed.addAll(broadcast(Message.createBeliefDelta(keyPair.signData(delta)), e.getValue()));
+			Counters.beliefDeltaSent += e.getValue().size();
+		}
+
+		synchronized(beliefBaselines) {
+			for (Connection pc : full) {
+				beliefBaselines.put(keys.get(pc), new BeliefBaseline(pc, belief, 0));
+			}
+			for (ArrayList<Connection> group : groups.values()) {
+				for (Connection pc : group) {
+					AccountKey key = keys.get(pc);
+					beliefBaselines.put(key, new BeliefBaseline(pc, belief, beliefBaselines.get(key).deltaCount + 1));
+				}
+			}
+			// resync with a full Belief next time
+			for (Connection pc : failed) {
+				beliefBaselines.remove(keys.get(pc));
+			}
+		}
+	}
+
+	/**
+	 * Collects the non-embedded cells making up a Belief, i.e. the Belief and the nodes of its
+	 * map of Orders but not the Orders themselves, in the order they should be sent
+	 *
+	 * @param c Belief, or map node
+	 * @param cells List to add cells to
+	 */
+	static void collectBeliefCells(ACell c, ArrayList<ACell> cells) {
+		int n = c.getRefCount();
+		for (int i = 0; i < n; i++) {
+			ACell child = c.getRef(i).getValue();
+			if (child instanceof BlobMap) collectBeliefCells(child, cells);
+		}
+		if (!Format.isEmbedded(c)) cells.add(c);
+	}
+
+	/**
+	 * Gets the send lag for each outbound Peer connection, i.e. how long the oldest unsent
+	 * message has been waiting
+	 *
+	 * @return Map of Peer keys to lag in milliseconds
+	 */
+	public synchronized HashMap<AccountKey,Long> getSendLags() {
+		HashMap<AccountKey,Long> result = new HashMap<>();
+		for (Map.Entry<AccountKey,Connection> e : connections.entrySet()) {
+			result.put(e.getKey(), e.getValue().getSendLag());
+		}
+		return result;
 	}
 
 	/**
@@ -618,6 +921,7 @@ public class ConnectionManager {
 			synchronized(connections) {
 				// reopen with connection to the peer and handle server messages
 				newConn = Connection.connect(hostAddress, server.peerReceiveAction, server.getStore(), null,Constants.SOCKET_PEER_BUFFER_SIZE,Constants.SOCKET_PEER_BUFFER_SIZE);
+				newConn.setKnownCells(getKnownCells(peerKey));
 				connections.put(peerKey, newConn);
 			}
 			server.raiseServerChange("connection");
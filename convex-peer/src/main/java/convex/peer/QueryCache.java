@@ -0,0 +1,146 @@
+package convex.peer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import convex.core.Result;
+import convex.core.State;
+import convex.core.data.ACell;
+import convex.core.data.Address;
+import convex.core.util.Counters;
+
+/**
+ * Cache of query Results for the current consensus State of a Peer, keyed by (caller Address, form).
+ *
+ * Query execution is deterministic given the State, Address and form, so a cached Result is
+ * identical to re-executing the query. All entries are dropped when the consensus State changes.
+ * Only queries that leave the State unchanged are cached.
+ *
+ * Bounded by number of entries and by total memory size of cached Results, evicting the least
+ * recently used entries first. Results larger than 1/16 of the memory bound are not cached.
+ */
+public class QueryCache {
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	private static final class Key {
+		final Address address;
+		final ACell form;
+
+		Key(Address address, ACell form) {
+			this.address = address;
+			this.form = form;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(form) * 31 + Objects.hashCode(address);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return Objects.equals(address, k.address) && Objects.equals(form, k.form);
+		}
+	}
+
+	private static final class Entry {
+		final Result result;
+		final long size;
+
+		Entry(Result result, long size) {
+			this.result = result;
+			this.size = size;
+		}
+	}
+
+	// State below must be accessed holding lock on this cache
+
+	/**
+	 * State for which entries are valid
+	 */
+	private State state = null;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long bytes = 0;
+
+	/**
+	 * Creates a QueryCache
+	 * @param maxEntries Maximum number of cached Results
+	 * @param maxBytes Maximum total memory size of cached Results
+	 */
+	public QueryCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a cached Result for a query
+	 * @param state Consensus State the query would be executed against
+	 * @param address Address for query, may be null
+	 * @param form Query form
+	 * @return Result with null message ID, or null if not cached
+	 */
+	public synchronized Result get(State state, Address address, ACell form) {
+		if (state != this.state) {
+			clear(state);
+			Counters.queryCacheMiss++;
+			return null;
+		}
+		Entry e = entries.get(new Key(address, form));
+		if (e == null) {
+			Counters.queryCacheMiss++;
+			return null;
+		}
+		Counters.queryCacheHit++;
+		return e.result;
+	}
+
+	/**
+	 * Caches the Result of a query. Ignored if the query changed the State, or the Result is
+	 * too large.
+	 *
+	 * @param state Consensus State the query was executed against
+	 * @param address Address for query, may be null
+	 * @param form Query form
+	 * @param resultState State after query execution
+	 * @param result Result of query
+	 */
+	public synchronized void put(State state, Address address, ACell form, State resultState, Result result) {
+		if (resultState != state) return;
+		if (state != this.state) clear(state);
+
+		Result r = result.withID(null);
+		long size = r.getMemorySize();
+		if (size > maxBytes / 16) return;
+
+		Entry old = entries.put(new Key(address, form), new Entry(r, size));
+		if (old != null) bytes -= old.size;
+		bytes += size;
+
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (((entries.size() > maxEntries) || (bytes > maxBytes)) && it.hasNext()) {
+			bytes -= it.next().getValue().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Gets the number of cached Results
+	 * @return Number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void clear(State newState) {
+		entries.clear();
+		bytes = 0;
+		state = newState;
+	}
+}
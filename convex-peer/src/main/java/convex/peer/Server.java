@@ -4,10 +4,13 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -17,11 +20,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.api.Convex;
+import convex.api.ConvexRemote;
 import convex.core.Belief;
 import convex.core.Block;
 import convex.core.BlockResult;
 import convex.core.Constants;
 import convex.core.ErrorCodes;
+import convex.core.Order;
 import convex.core.Peer;
 import convex.core.Result;
 import convex.core.State;
@@ -56,9 +61,13 @@ import convex.core.transactions.ATransaction;
 import convex.core.transactions.Invoke;
 import convex.core.util.Shutdown;
 import convex.core.util.Utils;
+import convex.net.Connection;
+import convex.net.KnownCells;
 import convex.net.MessageType;
 import convex.net.NIOServer;
 import convex.net.message.Message;
+import convex.net.message.MessageRemote;
+import etch.EtchStore;
 
 
 /**
@@ -66,6 +75,7 @@ import convex.net.message.Message;
  *
  * Server creates the following threads:
  * - A ReceiverThread that processes message from the Server's receive Queue
+ * - A pool of Verifier threads that check signatures on incoming transactions and Beliefs
  * - An UpdateThread that handles Belief updates and transaction processing
  * - A ConnectionManager thread, via the ConnectionManager
  *
@@ -137,9 +147,31 @@ public class Server implements Closeable {
 	private volatile boolean isRunning = false;
 
 	private NIOServer nio;
+
+	/**
+	 * Signature verification stage, or null if verifying on the receiver thread
+	 */
+	private VerificationStage verifier = null;
 	private Thread receiverThread = null;
 	private Thread updateThread = null;
 
+	/**
+	 * Cache of query Results for the current consensus State
+	 */
+	private final QueryCache queryCache = new QueryCache(Constants.QUERY_CACHE_SIZE, Constants.QUERY_CACHE_BYTES);
+
+	/**
+	 * Number of latest States, and time in milliseconds, for which States are retained in memory
+	 */
+	private long retainStates;
+	private long retainTime;
+
+	/**
+	 * Interval in milliseconds between store compactions, and timestamp of the last compaction
+	 */
+	private long gcInterval;
+	private long lastCompaction;
+
 	/**
 	 * The Peer instance current state for this server. Will be updated based on peer events.
 	 */
@@ -168,7 +200,7 @@ public class Server implements Closeable {
 	 * The list of new beliefs received from remote peers the block being created
 	 * Should only modify with the lock for this Server held.
 	 */
-	private HashMap<AccountKey, SignedData<Belief>> newBeliefs = new HashMap<>();
+	private HashMap<AccountKey, Belief> newBeliefs = new HashMap<>();
 
 
 	/**
@@ -204,6 +236,16 @@ public class Server implements Closeable {
 
 			nio = NIOServer.create(this, receiveQueue);
 
+			retainStates=establishLong(Keywords.RETAIN_STATES,Constants.DEFAULT_RETAIN_STATES);
+			retainTime=establishLong(Keywords.RETAIN_TIME,Constants.DEFAULT_RETAIN_TIME);
+			gcInterval=establishLong(Keywords.GC_INTERVAL,Constants.DEFAULT_GC_INTERVAL);
+			lastCompaction=Utils.getCurrentTimestamp();
+
+			int verifyThreads=establishVerifyThreads();
+			if (verifyThreads>0) {
+				verifier = VerificationStage.create(this, verifyThreads);
+			}
+
 		} finally {
 			Stores.setCurrent(savedStore);
 		}
@@ -257,9 +299,20 @@ public class Server implements Closeable {
 				}
 				Hash beliefHash=RT.ensureHash(status.get(0));
 				Hash networkID=RT.ensureHash(status.get(2));
+				AccountKey remoteKey=RT.ensureAccountKey(status.get(3));
+				Hash consensusHash=RT.ensureHash(status.get(4));
+
 				log.info("Attempting to sync genesis state with network: "+networkID);
 				State genF=(State) convex.acquire(networkID).get(timeout,TimeUnit.MILLISECONDS);
 				log.info("Retreived Genesis State: "+networkID);
+
+				List<InetSocketAddress> snapshotPeers=establishSnapshotPeers(sourceAddr);
+				State consensusState=null;
+				if (snapshotPeers!=null) {
+					log.info("Attempting snapshot sync of consensus State: "+consensusHash);
+					consensusState=syncSnapshot(snapshotPeers, consensusHash);
+					log.info("Retreived consensus State: "+consensusHash);
+				}
 				
 				// Belief acquisition
 				log.info("Attempting to obtain peer Belief: "+beliefHash);
@@ -275,6 +328,11 @@ public class Server implements Closeable {
 				}
 				log.info("Retreived Peer Signed Belief: "+beliefHash+ " with memory size: "+belF.getMemorySize());
 
+				if (consensusState!=null) {
+					Order remoteOrder=belF.getValue().getOrder(remoteKey);
+					if (remoteOrder==null) throw new Error("Remote Peer has no Order in its Belief");
+					return Peer.create(keyPair, genF, consensusState, remoteOrder.getConsensusPoint(), belF.getValue());
+				}
 				Peer peer=Peer.create(keyPair, genF, belF.getValue());
 				return peer;
 
@@ -300,11 +358,66 @@ public class Server implements Closeable {
 				log.info("Created new genesis state: "+genesisState.getHash()+ " with initial peer: "+peerKey);
 			}
 			return Peer.createGenesisPeer(keyPair,genesisState);
-		} catch (ExecutionException|InterruptedException e) {
+		} catch (ExecutionException|InterruptedException|InvalidDataException e) {
 			throw Utils.sneakyThrow(e);
 		}
 	}
 
+	/**
+	 * Gets the Peers to sync a snapshot from, if snapshot sync is configured
+	 * @param source Source Peer address
+	 * @return List of Peer addresses starting with the source, or null for a normal sync
+	 */
+	private List<InetSocketAddress> establishSnapshotPeers(InetSocketAddress source) {
+		Object peers=getConfig().get(Keywords.SNAPSHOT_PEERS);
+		if (!(Utils.bool(getConfig().get(Keywords.SNAPSHOT))||(peers!=null))) return null;
+
+		ArrayList<InetSocketAddress> result=new ArrayList<>();
+		result.add(source);
+		if (peers instanceof Collection) {
+			for (Object p: (Collection<?>)peers) {
+				InetSocketAddress addr=Utils.toInetSocketAddress(p);
+				if ((addr!=null)&&!result.contains(addr)) result.add(addr);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Syncs a snapshot of the consensus State from the given Peers in parallel
+	 */
+	private State syncSnapshot(List<InetSocketAddress> peers, Hash consensusHash) throws InterruptedException, ExecutionException, TimeoutException, InvalidDataException {
+		ArrayList<ConvexRemote> sources=new ArrayList<>();
+		try {
+			for (InetSocketAddress addr: peers) {
+				try {
+					sources.add(Convex.connect(addr, null, null, store));
+				} catch (IOException|TimeoutException e) {
+					log.warn("Unable to connect to {} for snapshot sync: {}", addr, e.getMessage());
+				}
+			}
+			if (sources.isEmpty()) throw new TimeoutException("No Peers available for snapshot sync");
+			return new SnapshotSync(sources, store).sync(consensusHash);
+		} finally {
+			for (ConvexRemote c: sources) {
+				c.close();
+			}
+		}
+	}
+
+	private int establishVerifyThreads() {
+		Object maybeThreads=getConfig().get(Keywords.VERIFY_THREADS);
+		if (maybeThreads==null) return Constants.DEFAULT_VERIFY_THREADS;
+		return Math.max(0, Utils.toInt(maybeThreads));
+	}
+
+	private long establishLong(Keyword key, long defaultValue) {
+		Object value=getConfig().get(key);
+		if (value==null) return defaultValue;
+		long v=(value instanceof Number)?((Number)value).longValue():Utils.toInt(value);
+		return Math.max(0L, v);
+	}
+
 	private long establishTimeout() {
 		Object maybeTimeout=getConfig().get(Keywords.TIMEOUT);
 		if (maybeTimeout==null) return Constants.PEER_SYNC_TIMEOUT;
@@ -365,7 +478,8 @@ public class Server implements Closeable {
 			Object p = config.get(Keywords.PORT);
 			Integer port = (p == null) ? null : Utils.toInt(p);
 
-			nio.launch((String)config.get(Keywords.BIND_ADDRESS), port);
+			nio.setReceiveChunkSize((int)establishLong(Keywords.RECEIVE_CHUNK_SIZE,Constants.DEFAULT_RECEIVE_CHUNK_SIZE));
+			nio.launch((String)config.get(Keywords.BIND_ADDRESS), port, (int)establishLong(Keywords.SELECTOR_THREADS,Constants.DEFAULT_SELECTOR_THREADS));
 			port = nio.getPort(); // Get the actual port (may be auto-allocated)
 
 			if (getConfig().containsKey(Keywords.URL)) {
@@ -387,6 +501,8 @@ public class Server implements Closeable {
 			receiverThread.setDaemon(true);
 			receiverThread.start();
 
+			if (verifier!=null) verifier.launch(port);
+
 			// Start Peer update thread
 			updateThread = new Thread(beliefMergeLoop, "Update Loop on port: " + port);
 			updateThread.setDaemon(true);
@@ -443,6 +559,7 @@ public class Server implements Closeable {
 		try {
 			switch (type) {
 			case BELIEF:
+			case BELIEF_DELTA:
 				processBelief(m);
 				break;
 			case CHALLENGE:
@@ -459,10 +576,14 @@ public class Server implements Closeable {
 			case MISSING_DATA:
 				processMissingData(m);
 				break;
+			case DATA_REQUEST:
+				processDataRequest(m);
+				break;
 			case QUERY:
 				processQuery(m);
 				break;
 			case RESULT:
+				manager.processResult(m);
 				break;
 			case TRANSACT:
 				processTransact(m);
@@ -523,6 +644,88 @@ public class Server implements Closeable {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private void processDataRequest(Message m) throws BadFormatException {
+		// payload for a data request should be a vector [hashes depth]
+		ACell payload = m.getPayload();
+		if (!(payload instanceof AVector)) throw new BadFormatException("Vector required for data request message");
+		AVector<ACell> v = (AVector<ACell>) payload;
+		if (v.count() != 2) throw new BadFormatException("Data request should be [hashes depth]");
+		ACell hashes = v.get(0);
+		if (!(hashes instanceof AVector)) throw new BadFormatException("Vector of hashes required for data request");
+		CVMLong depth = RT.ensureLong(v.get(1));
+		if (depth == null) throw new BadFormatException("Depth required for data request");
+
+		ArrayList<ACell> cells = new ArrayList<>();
+		collectData(store, (AVector<ACell>) hashes, depth.longValue(), Constants.DATA_REQUEST_LIMIT, cells);
+		for (ACell data : cells) {
+			try {
+				if (!m.sendData(data)) {
+					log.debug("Can't send all requested data due to full buffer");
+					break;
+				}
+			} catch (Exception e) {
+				log.warn("Unable to deliver requested data due to exception: {}", e);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Collects cells from a store for a DATA_REQUEST. Requested cells come first, followed by
+	 * child cells in breadth first order down to the given depth. Embedded children are
+	 * skipped since they are included in the encoding of their parent, but their own children
+	 * are still collected. Cells not in the store are ignored.
+	 *
+	 * @param store Store to read cells from
+	 * @param hashes Vector of requested hashes
+	 * @param depth Number of levels of child cells to collect
+	 * @param limit Maximum number of cells to collect
+	 * @param cells List to add cells to
+	 */
+	static void collectData(AStore store, AVector<ACell> hashes, long depth, int limit, List<ACell> cells) {
+		HashSet<Hash> seen = new HashSet<>();
+		ArrayList<ACell> level = new ArrayList<>();
+		long n = hashes.count();
+		for (long i = 0; i < n; i++) {
+			Hash h = RT.ensureHash(hashes.get(i));
+			if ((h == null) || !seen.add(h)) continue;
+			Ref<ACell> r = store.refForHash(h);
+			if (r == null) continue;
+			level.add(r.getValue());
+		}
+
+		for (long d = 0; !level.isEmpty(); d++) {
+			for (ACell c : level) {
+				if (cells.size() >= limit) return;
+				cells.add(c);
+			}
+			if (d >= depth) return;
+
+			ArrayList<ACell> next = new ArrayList<>();
+			for (ACell c : level) {
+				collectChildren(store, c, seen, next);
+			}
+			level = next;
+		}
+	}
+
+	private static void collectChildren(AStore store, ACell cell, HashSet<Hash> seen, List<ACell> next) {
+		int rc = cell.getRefCount();
+		for (int i = 0; i < rc; i++) {
+			Ref<ACell> child = cell.getRef(i);
+			if (child.isEmbedded()) {
+				ACell value = child.getValue();
+				if (value != null) collectChildren(store, value, seen, next);
+				continue;
+			}
+			Hash h = child.getHash();
+			if (!seen.add(h)) continue;
+			Ref<ACell> r = store.refForHash(h);
+			if (r != null) next.add(r.getValue());
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private void processTransact(Message m) {
 		// query is a vector [id , signed-object]
@@ -535,33 +738,101 @@ public class Server implements Closeable {
 		// If we already have the transaction persisted, will get signature status
 		ACell.createPersisted(sd);
 
-		if (!sd.checkSignature()) {
-			// terminate the connection, dishonest client?
-			try {
-				// TODO: throttle?
-				Result r=Result.create(m.getID(), Strings.BAD_SIGNATURE, ErrorCodes.SIGNATURE);
-				m.reportResult(r);
-			} catch (Exception e) {
-				// Ignore?? Connection probably gone anyway
-			}
-			log.info("Bad signature from Client! {}" , sd);
-			return;
-		}
-		
-		if (!(sd.getValue() instanceof ATransaction)) {
-			Result r=Result.create(m.getID(), Strings.BAD_FORMAT, ErrorCodes.FORMAT);
-			m.reportResult(r);
-			return;
-		}
-
-		registerInterest(sd.getHash(), m);
 		try {
-			eventQueue.put(sd);
+			verify(m, sd);
 		} catch (InterruptedException e) {
 			log.warn("Unexpected interruption adding transaction to event queue!");
 		}
 	}
 
+	/**
+	 * Verifies the signature of a received transaction or Belief, either via the
+	 * verification stage or directly if no verification threads are configured.
+	 *
+	 * Runs on receiver thread
+	 *
+	 * @param m Message containing the signed value
+	 * @param sd Signed value, already persisted
+	 * @throws InterruptedException
+	 */
+	private void verify(Message m, SignedData<?> sd) throws InterruptedException {
+		if (verifier!=null) {
+			if (!verifier.submit(m, sd)) {
+				log.warn("Verification queue full, dropping {} message",m.getType());
+				if (m.getType()==MessageType.TRANSACT) {
+					m.reportResult(Result.create(m.getID(), Strings.PEER_OVERLOADED, ErrorCodes.LOAD));
+				}
+			}
+		} else {
+			processVerified(m, sd, sd.checkSignature());
+		}
+	}
+
+	/**
+	 * Handles a transaction or Belief once its signature has been verified, adding it
+	 * to the event queue if valid.
+	 *
+	 * Runs on a verifier thread, or the receiver thread if verifying inline. Calls are
+	 * in order for any given Connection.
+	 *
+	 * @param m Message containing the signed value
+	 * @param sd Signed value
+	 * @param valid True if the signature is valid, false otherwise
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	void processVerified(Message m, SignedData<?> sd, boolean valid) throws InterruptedException {
+		switch (m.getType()) {
+		case TRANSACT:
+			if (!valid) {
+				// terminate the connection, dishonest client?
+				try {
+					// TODO: throttle?
+					Result r=Result.create(m.getID(), Strings.BAD_SIGNATURE, ErrorCodes.SIGNATURE);
+					m.reportResult(r);
+				} catch (Exception e) {
+					// Ignore?? Connection probably gone anyway
+				}
+				log.info("Bad signature from Client! {}" , sd);
+				return;
+			}
+
+			if (!(sd.getValue() instanceof ATransaction)) {
+				Result r=Result.create(m.getID(), Strings.BAD_FORMAT, ErrorCodes.FORMAT);
+				m.reportResult(r);
+				return;
+			}
+
+			registerInterest(sd.getHash(), m);
+			eventQueue.put((SignedData<ATransaction>)sd);
+			break;
+
+		case BELIEF:
+		case BELIEF_DELTA:
+			if (!valid) {
+				// we got sent a bad signature.
+				// TODO: Probably need to slash peer? but ignore for now
+				log.warn("Bad signed belief from peer: " + Utils.print(sd));
+				return;
+			}
+
+			// TODO: validate trusted connection?
+			// TODO: can drop Beliefs if under pressure?
+
+			if (!(sd.getValue() instanceof Belief)) {
+				Result r=Result.create(m.getID(), Strings.BAD_FORMAT, ErrorCodes.FORMAT);
+				m.reportResult(r);
+				return;
+			}
+
+			eventQueue.put((SignedData<Belief>)sd);
+			break;
+
+		default:
+			log.debug("Unexpected message type for verification: {}",m.getType());
+		}
+	}
+
 	/**
 	 * Called by a remote peer to close connections to the remote peer.
 	 *
@@ -615,7 +886,7 @@ public class Server implements Closeable {
 	/**
 	 * Register of client interests in receiving transaction responses
 	 */
-	private HashMap<Hash, Message> interests = new HashMap<>();
+	private ConcurrentHashMap<Hash, Message> interests = new ConcurrentHashMap<>();
 
 	/**
 	 * Register interest in receiving a result for a transaction
@@ -680,9 +951,20 @@ public class Server implements Closeable {
 	private void broadcastBelief(Belief belief) {
 		// At this point we know something updated our belief, so we want to rebroadcast
 		// belief to network
+
+		// Cells of the Belief itself are sent by the ConnectionManager only to Peers that need them
+		SignedData<Belief> signedBelief = peer.getSignedBelief();
+		HashSet<Hash> beliefCells = new HashSet<>();
+		beliefCells.add(signedBelief.getHash());
+		ArrayList<ACell> cells = new ArrayList<>();
+		ConnectionManager.collectBeliefCells(belief, cells);
+		for (ACell c : cells) {
+			beliefCells.add(c.getHash());
+		}
+
 		Consumer<Ref<ACell>> noveltyHandler = r -> {
+			if (beliefCells.contains(r.getHash())) return; // skip Belief cells, see above
 			ACell o = r.getValue();
-			if (o == belief) return; // skip sending data for belief cell itself, will be BELIEF payload
 			Message msg = Message.createData(o);
             // broadcast to all peers trusted or not
 			manager.broadcast(msg, false);
@@ -692,13 +974,14 @@ public class Server implements Closeable {
 		// (ensure we can handle missing data requests etc.)
 		peer=peer.persistState(noveltyHandler);
 
-		// Broadcast latest Belief to connected Peers
-		SignedData<Belief> sb = peer.getSignedBelief();
+		// release older history from memory, now it is safely persisted
+		peer=peer.archiveHistory(retainStates, retainTime);
 
-		Message msg = Message.createBelief(sb);
+		// Broadcast latest Belief to connected Peers, as a delta where possible
+		SignedData<Belief> sb = peer.getSignedBelief();
 
         // at the moment broadcast to all peers trusted or not TODO: recheck this
-		manager.broadcast(msg, false);
+		manager.broadcastBelief(sb, getKeyPair());
 		lastBroadcastBelief=Utils.getCurrentTimestamp();
 		broadcastCount++;
 	}
@@ -836,7 +1119,7 @@ public class Server implements Closeable {
 				beliefs = new Belief[n];
 				int i = 0;
 				for (AccountKey addr : newBeliefs.keySet()) {
-					beliefs[i++] = newBeliefs.get(addr).getValue();
+					beliefs[i++] = newBeliefs.get(addr);
 				}
 				newBeliefs.clear();
 			}
@@ -908,10 +1191,19 @@ public class Server implements Closeable {
 			log.debug( "Processing query: {} with address: {}" , form, address);
 			// log.log(LEVEL_MESSAGE, "Processing query: " + form + " with address: " +
 			// address);
-			Context<ACell> resultContext = peer.executeQuery(form, address);
+			Peer p=peer;
+			State state=p.getConsensusState();
+			Result result=queryCache.get(state, address, form);
+			if (result==null) {
+				Context<ACell> resultContext = p.executeQuery(form, address);
+				result=Result.fromContext(id, resultContext);
+				queryCache.put(state, address, form, resultContext.getState(), result);
+			} else {
+				result=result.withID(id);
+			}
 			
 			// Report result back to message sender
-			boolean resultReturned= m.reportResult(Result.fromContext(id, resultContext));
+			boolean resultReturned= m.reportResult(result);
 
 			if (!resultReturned) {
 				log.warn("Failed to send query result back to client with ID: {}", id);
@@ -922,6 +1214,7 @@ public class Server implements Closeable {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
 	private void processData(Message m) {
 		ACell payload = m.getPayload();
 
@@ -936,6 +1229,9 @@ public class Server implements Closeable {
 		}
 		// if our data satisfies a missing data object, need to process it
 		maybeProcessPartial(r.getHash());
+
+		// may be needed for a Belief poll
+		manager.processData((Ref<ACell>) r);
 	}
 
 	/**
@@ -954,25 +1250,19 @@ public class Server implements Closeable {
 
 			@SuppressWarnings("unchecked")
 			SignedData<Belief> receivedBelief = (SignedData<Belief>) o;
-			receivedBelief.validateSignature();
 
-			// TODO: validate trusted connection?
-			// TODO: can drop Beliefs if under pressure?
-			
-			if (!(receivedBelief.getValue() instanceof Belief)) {
-				Result r=Result.create(m.getID(), Strings.BAD_FORMAT, ErrorCodes.FORMAT);
-				m.reportResult(r);
-				return;
+			// Share cells known by this Peer with our outbound Connection to it
+			AccountKey peerKey = receivedBelief.getAccountKey();
+			if ((m instanceof MessageRemote) && (peer.getConsensusState().getPeer(peerKey) != null)) {
+				Connection pc = ((MessageRemote) m).getConnection();
+				KnownCells known = manager.getKnownCells(peerKey);
+				if (pc.getKnownCells() != known) pc.setKnownCells(known);
 			}
 
-			eventQueue.put(receivedBelief);
+			verify(m, receivedBelief);
 		} catch (ClassCastException e) {
 			// bad message?
 			log.warn("Exception due to bad message from peer? {}" ,e);
-		} catch (BadSignatureException e) {
-			// we got sent a bad signature.
-			// TODO: Probably need to slash peer? but ignore for now
-			log.warn("Bad signed belief from peer: " + Utils.print(o));
 		} catch (InterruptedException e) {
 			throw Utils.sneakyThrow(e);
 		}
@@ -1033,6 +1323,8 @@ public class Server implements Closeable {
 						}
 					}
 
+					maybeCompactStore(timestamp);
+
 					// Maybe sleep a bit, wait for some new events to accumulate
 					awaitEvents();
 				}
@@ -1061,12 +1353,13 @@ public class Server implements Closeable {
 			} else if (event instanceof Belief) {
 				SignedData<Belief> receivedBelief=(SignedData<Belief>)signedEvent;
 				AccountKey addr = receivedBelief.getAccountKey();
-				SignedData<Belief> current = newBeliefs.get(addr);
+				Belief received = receivedBelief.getValue();
+				Belief current = newBeliefs.get(addr);
 				// Make sure the Belief is the latest from a Peer
-				if ((current == null) || (current.getValue().getTimestamp() <= receivedBelief.getValue()
-						.getTimestamp())) {
-					// Add to map of new Beliefs received for each Peer
-					newBeliefs.put(addr, receivedBelief);
+				if ((current == null) || (current.getTimestamp() <= received.getTimestamp())) {
+					// Add to map of new Beliefs received for each Peer. Accumulate if a Belief is
+					// already waiting to be merged, since either may be a delta.
+					newBeliefs.put(addr, (current == null) ? received : current.applyDelta(received));
 
 					// Notify the update thread that there is something new to handle
 					log.debug("Valid belief received by peer at {}: {}"
@@ -1102,6 +1395,22 @@ public class Server implements Closeable {
 		}
 	}
 
+	/**
+	 * Gets the signature verification stage for this Server
+	 * @return Verification stage, or null if signatures are verified on the receiver thread
+	 */
+	public VerificationStage getVerificationStage() {
+		return verifier;
+	}
+
+	/**
+	 * Gets the NIO server handling incoming connections for this Server
+	 * @return NIO server instance
+	 */
+	public NIOServer getNIOServer() {
+		return nio;
+	}
+
 	/**
 	 * Gets the port that this Server is currently accepting connections on
 	 * @return Port number
@@ -1136,6 +1445,26 @@ public class Server implements Closeable {
 		}
 	}
 
+	/**
+	 * Compacts the Server's store if the GC interval has elapsed since the last compaction
+	 */
+	private void maybeCompactStore(long timestamp) {
+		if (gcInterval<=0) return;
+		if (timestamp<lastCompaction+gcInterval) return;
+		lastCompaction=timestamp;
+		compactStore();
+	}
+
+	/**
+	 * Compacts the Server's store in a background thread, retaining only data reachable from
+	 * the current Peer data. Does nothing if the store is not an Etch store.
+	 */
+	public void compactStore() {
+		if (!(store instanceof EtchStore)) return;
+		persistPeerData();
+		((EtchStore)store).launchGC();
+	}
+
 	@Override
 	public void close() {
 		// persist peer state if necessary
@@ -1171,6 +1500,9 @@ public class Server implements Closeable {
 				// Ignore
 			}
 		}
+		if (verifier != null) {
+			verifier.close();
+		}
 		manager.close();
 		nio.close();
 		// Note we don't do store.close(); because we don't own the store.
@@ -0,0 +1,174 @@
+package convex.peer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.api.ConvexRemote;
+import convex.core.Constants;
+import convex.core.data.ACell;
+import convex.core.data.Hash;
+import convex.core.data.Ref;
+import convex.core.exceptions.InvalidDataException;
+import convex.core.store.AStore;
+import convex.core.util.Counters;
+import convex.core.util.Utils;
+
+/**
+ * Sync of a large data structure, e.g. the consensus State of a Peer, from several Peers in
+ * parallel.
+ *
+ * The top of the tree is fetched one level at a time until there are enough subtrees to share
+ * between the source Peers. Each subtree is then acquired from one Peer, and from the next
+ * Peer if that fails. Finally the root is acquired, which only needs to fetch data missed in
+ * the subtrees and persists the whole structure.
+ *
+ * All source clients must use the target store for their connections.
+ */
+public class SnapshotSync {
+
+	private static final Logger log = LoggerFactory.getLogger(SnapshotSync.class.getName());
+
+	private final List<ConvexRemote> sources;
+	private final AStore store;
+
+	/**
+	 * Creates a SnapshotSync
+	 * @param sources Clients connected to the source Peers. Must be non-empty.
+	 * @param store Store to sync into
+	 */
+	public SnapshotSync(List<ConvexRemote> sources, AStore store) {
+		if (sources.isEmpty()) throw new IllegalArgumentException("Snapshot sync needs at least one source Peer");
+		this.sources = sources;
+		this.store = store;
+	}
+
+	/**
+	 * Syncs the complete data structure with the given root hash into the store.
+	 *
+	 * @param <T> Type of value
+	 * @param root Hash of root cell
+	 * @return Value with the given root hash, fully persisted in the store
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws ExecutionException If acquiring from all source Peers failed
+	 * @throws TimeoutException If no progress was made for too long
+	 * @throws InvalidDataException If the synced value does not match the root hash
+	 */
+	public <T extends ACell> T sync(Hash root) throws InterruptedException, ExecutionException, TimeoutException, InvalidDataException {
+		long start = Utils.getCurrentTimestamp();
+		long startCells = Counters.acquireCells;
+		long startBytes = Counters.acquireBytes;
+
+		List<Hash> partitions = partition(root, sources.size() * Constants.SNAPSHOT_PARTITIONS_PER_PEER);
+		int n = partitions.size();
+		log.info("Snapshot sync of {} in {} partitions from {} Peers", root, n, sources.size());
+
+		ArrayList<CompletableFuture<ACell>> futures = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			futures.add(acquirePartition(partitions.get(i), i, 0));
+		}
+		CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[n]));
+		while (true) {
+			try {
+				all.get(Constants.SNAPSHOT_PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+				break;
+			} catch (TimeoutException e) {
+				int done = 0;
+				for (CompletableFuture<ACell> f : futures) {
+					if (f.isDone()) done++;
+				}
+				reportProgress(done + "/" + n + " partitions", start, startCells, startBytes);
+			}
+		}
+
+		// Subtrees are complete, so this only needs the top of the tree
+		T result = sources.get(0).<T>acquire(root, store).get();
+		if (!root.equals(result.getHash())) {
+			throw new InvalidDataException("Snapshot sync produced wrong root hash " + result.getHash(), result);
+		}
+		reportProgress("complete", start, startCells, startBytes);
+		return result;
+	}
+
+	/**
+	 * Acquires a subtree from one source Peer, trying the other Peers in turn if it fails. Retries
+	 * are started asynchronously, so they don't run on the receive thread of the failed client.
+	 */
+	private CompletableFuture<ACell> acquirePartition(Hash h, int i, int attempt) {
+		ConvexRemote source = sources.get((i + attempt) % sources.size());
+		CompletableFuture<ACell> f = source.acquire(h, store);
+		if (attempt + 1 >= sources.size()) return f;
+		return f.handleAsync((v, e) -> {
+			if (e == null) return CompletableFuture.completedFuture(v);
+			log.info("Snapshot sync retrying partition {} after: {}", h, e.getMessage());
+			return acquirePartition(h, i, attempt + 1);
+		}).thenCompose(x -> x);
+	}
+
+	/**
+	 * Fetches the top of the tree one level at a time, until there are at least the target
+	 * number of subtrees to acquire or no further levels are needed.
+	 *
+	 * @return Hashes of subtrees to acquire
+	 */
+	private List<Hash> partition(Hash root, int target) throws InterruptedException, ExecutionException {
+		ArrayList<Hash> frontier = new ArrayList<>();
+		Ref<ACell> rootRef = store.refForHash(root);
+		if ((rootRef != null) && (rootRef.getStatus() >= Ref.PERSISTED)) return frontier;
+		frontier.add(root);
+
+		for (int level = 0; level < Constants.SNAPSHOT_PARTITION_LEVELS; level++) {
+			if (frontier.size() >= target) break;
+
+			// fetch the cells of this level in parallel
+			int n = frontier.size();
+			ArrayList<CompletableFuture<ACell>> cells = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				cells.add(sources.get(i % sources.size()).acquireCell(frontier.get(i), store));
+			}
+
+			ArrayList<Hash> next = new ArrayList<>();
+			HashSet<Hash> seen = new HashSet<>();
+			for (CompletableFuture<ACell> f : cells) {
+				addChildren(f.get(), next, seen);
+			}
+			frontier = next;
+		}
+		return frontier;
+	}
+
+	/**
+	 * Adds the hashes of non-embedded children of a cell that are not already persisted
+	 */
+	private void addChildren(ACell cell, List<Hash> next, HashSet<Hash> seen) {
+		int rc = cell.getRefCount();
+		for (int i = 0; i < rc; i++) {
+			Ref<ACell> child = cell.getRef(i);
+			if (child.isEmbedded()) {
+				ACell value = child.getValue();
+				if (value != null) addChildren(value, next, seen);
+				continue;
+			}
+			Hash h = child.getHash();
+			if (!seen.add(h)) continue;
+			Ref<ACell> stored = store.refForHash(h);
+			if ((stored != null) && (stored.getStatus() >= Ref.PERSISTED)) continue;
+			next.add(h);
+		}
+	}
+
+	private void reportProgress(String stage, long start, long startCells, long startBytes) {
+		long elapsed = Math.max(1, Utils.getCurrentTimestamp() - start);
+		long cells = Counters.acquireCells - startCells;
+		long bytes = Counters.acquireBytes - startBytes;
+		log.info("Snapshot sync {}: {} cells, {} bytes in {}ms ({} cells/s, {} KB/s)", stage, cells, bytes, elapsed,
+				cells * 1000 / elapsed, bytes / elapsed);
+	}
+}
@@ -0,0 +1,240 @@
+package convex.peer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import convex.core.data.SignedData;
+import convex.core.store.Stores;
+import convex.net.message.Message;
+import convex.net.message.MessageRemote;
+
+/**
+ * Server pipeline stage that verifies signatures on incoming transactions and Beliefs
+ * using a pool of worker threads, before passing them on to the Server event queue.
+ *
+ * Each worker thread owns a separate queue ("lane"). All messages from the same Connection
+ * are assigned to the same lane, so per-connection ordering is preserved while messages
+ * from different connections are verified concurrently.
+ *
+ * Submitting will block if the lane queue is full, applying back-pressure to the
+ * Server receive thread, but gives up after a timeout so that the receive thread
+ * cannot be blocked indefinitely.
+ */
+public class VerificationStage {
+
+	private static final Logger log = LoggerFactory.getLogger(VerificationStage.class.getName());
+
+	/**
+	 * Size of queue for each verification lane
+	 */
+	static final int LANE_QUEUE_SIZE = 2000;
+
+	/**
+	 * Maximum time to wait for space in a lane queue, in milliseconds
+	 */
+	static final long SUBMIT_TIMEOUT = 1000;
+
+	private final Server server;
+
+	private final Lane[] lanes;
+
+	/**
+	 * Number of signatures verified by this stage
+	 */
+	private final AtomicLong verifyCount = new AtomicLong();
+
+	/**
+	 * Total time spent in signature verification, in nanoseconds
+	 */
+	private final AtomicLong verifyTime = new AtomicLong();
+
+	/**
+	 * Total time from submission to completion of verification, in nanoseconds
+	 */
+	private final AtomicLong latencyTime = new AtomicLong();
+
+	private VerificationStage(Server server, int threads) {
+		this.server = server;
+		this.lanes = new Lane[threads];
+		for (int i = 0; i < threads; i++) {
+			lanes[i] = new Lane();
+		}
+	}
+
+	/**
+	 * Creates a new (unlaunched) verification stage for a Server
+	 * @param server Server instance
+	 * @param threads Number of verification threads. Must be positive.
+	 * @return New VerificationStage instance
+	 */
+	public static VerificationStage create(Server server, int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("Verification stage requires at least one thread");
+		return new VerificationStage(server, threads);
+	}
+
+	/**
+	 * A pending verification task
+	 */
+	private static final class Task {
+		final Message message;
+		final SignedData<?> signed;
+		final long submitTime;
+
+		Task(Message message, SignedData<?> signed) {
+			this.message = message;
+			this.signed = signed;
+			this.submitTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * A single verification worker with its own queue
+	 */
+	private final class Lane implements Runnable {
+		final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(LANE_QUEUE_SIZE);
+		Thread thread = null;
+
+		@Override
+		public void run() {
+			Stores.setCurrent(server.getStore()); // ensure the lane uses the Server's store
+			// Lane must keep running until the Server stops, otherwise submissions would block
+			while (server.isLive()) {
+				Task task;
+				try {
+					task = queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					log.debug("Verification thread interrupted");
+					continue;
+				}
+				if (task == null) continue;
+				try {
+					process(task);
+				} catch (Throwable e) {
+					log.warn("Error verifying message: {}", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts the verification threads
+	 * @param port Port of the Server, used for naming threads
+	 */
+	public void launch(int port) {
+		for (int i = 0; i < lanes.length; i++) {
+			Thread t = new Thread(lanes[i], "Verifier " + i + " on port: " + port);
+			t.setDaemon(true);
+			lanes[i].thread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Submits a signed value for verification. May block if the relevant lane is full,
+	 * up to SUBMIT_TIMEOUT.
+	 *
+	 * @param m Message the signed value was received in
+	 * @param signed Signed value to verify
+	 * @return true if submitted, false if the lane remained full
+	 * @throws InterruptedException If interrupted while waiting for queue space
+	 */
+	public boolean submit(Message m, SignedData<?> signed) throws InterruptedException {
+		return lanes[laneIndex(m)].queue.offer(new Task(m, signed), SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the lane for a message. Messages from the same Connection always map to the same lane.
+	 */
+	private int laneIndex(Message m) {
+		if (lanes.length == 1) return 0;
+		Object origin = (m instanceof MessageRemote) ? ((MessageRemote) m).getConnection() : null;
+		if (origin == null) return 0;
+		return Math.floorMod(System.identityHashCode(origin), lanes.length);
+	}
+
+	private void process(Task task) {
+		SignedData<?> signed = task.signed;
+		long start = System.nanoTime();
+		boolean valid = signed.checkSignature();
+		long end = System.nanoTime();
+		verifyCount.incrementAndGet();
+		verifyTime.addAndGet(end - start);
+		latencyTime.addAndGet(end - task.submitTime);
+
+		try {
+			server.processVerified(task.message, signed, valid);
+		} catch (InterruptedException e) {
+			// only happens on shutdown, which the lane checks before taking the next task
+			log.debug("Verified message dropped due to interrupt");
+		} catch (Throwable e) {
+			log.warn("Error processing verified message: {}", e);
+		}
+	}
+
+	/**
+	 * Gets the total number of signed values waiting for verification
+	 * @return Queue depth across all lanes
+	 */
+	public int getQueueDepth() {
+		int result = 0;
+		for (Lane lane : lanes) {
+			result += lane.queue.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of verification threads
+	 * @return Thread count
+	 */
+	public int getThreadCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * Gets the number of signatures verified by this stage
+	 * @return Count of verifications
+	 */
+	public long getVerifyCount() {
+		return verifyCount.get();
+	}
+
+	/**
+	 * Gets the mean time taken to verify a signature
+	 * @return Mean verification time in nanoseconds, or 0 if nothing verified yet
+	 */
+	public long getMeanVerifyTime() {
+		long n = verifyCount.get();
+		return (n == 0) ? 0 : verifyTime.get() / n;
+	}
+
+	/**
+	 * Gets the mean latency of verification, including time spent waiting in the queue
+	 * @return Mean latency in nanoseconds, or 0 if nothing verified yet
+	 */
+	public long getMeanLatency() {
+		long n = verifyCount.get();
+		return (n == 0) ? 0 : latencyTime.get() / n;
+	}
+
+	/**
+	 * Stops the verification threads. Pending tasks are discarded.
+	 */
+	public void close() {
+		for (Lane lane : lanes) {
+			Thread t = lane.thread;
+			if (t == null) continue;
+			t.interrupt();
+			try {
+				t.join(100);
+			} catch (InterruptedException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -2,9 +2,16 @@ package convex.api;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -20,6 +27,7 @@ import convex.core.data.ACell;
 import convex.core.data.Address;
 import convex.core.data.Ref;
 import convex.core.data.SignedData;
+import convex.core.data.prim.CVMLong;
 import convex.core.lang.Reader;
 import convex.core.lang.ops.Constant;
 import convex.core.transactions.ATransaction;
@@ -109,4 +117,47 @@ public class ConvexLocalTest {
 		}
 	}
 
+	@Test
+	public void testSendFailureInFlight() throws Exception {
+		// fails to send sequence 2 once all later transactions have been allocated
+		List<Long> sent = Collections.synchronizedList(new ArrayList<>());
+		ConvexLocal convex = new ConvexLocal(network.SERVER, ADDRESS, KEYPAIR) {
+			boolean failed = false;
+
+			@Override
+			public CompletableFuture<Result> transact(SignedData<ATransaction> signed) {
+				long seq = signed.getValue().getSequence();
+				if ((seq == 2) && !failed) {
+					failed = true;
+					while (sequence.get() < 5) Thread.yield();
+					throw new IllegalStateException("Injected send failure");
+				}
+				sent.add(seq);
+				return CompletableFuture.completedFuture(Result.create(CVMLong.create(seq), CVMLong.create(seq)));
+			}
+		};
+		convex.setNextSequence(1);
+		convex.transact(Invoke.create(ADDRESS, 0, Constant.of(1)));
+
+		ExecutorService ex = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<CompletableFuture<Result>>> fs = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				fs.add(ex.submit(() -> convex.transact(Invoke.create(ADDRESS, 0, Constant.of(2)))));
+			}
+			// failed transaction and all later ones in flight fail without being sent
+			for (Future<CompletableFuture<Result>> f : fs) {
+				assertThrows(ExecutionException.class, () -> f.get(5000, TimeUnit.MILLISECONDS));
+			}
+		} finally {
+			ex.shutdownNow();
+		}
+		assertEquals(List.of(1L), sent);
+
+		// failed sequence number is used again
+		Result r = convex.transact(Invoke.create(ADDRESS, 0, Constant.of(3))).get();
+		assertEquals(CVMLong.create(2), r.getValue());
+		assertEquals(List.of(1L, 2L), sent);
+	}
+
 }
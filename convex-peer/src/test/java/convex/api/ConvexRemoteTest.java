@@ -6,7 +6,11 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -18,15 +22,22 @@ import convex.core.ErrorCodes;
 import convex.core.Result;
 import convex.core.crypto.AKeyPair;
 import convex.core.crypto.Ed25519Signature;
+import convex.core.data.ACell;
+import convex.core.data.AVector;
 import convex.core.data.Address;
+import convex.core.data.Blobs;
 import convex.core.data.Ref;
 import convex.core.data.SignedData;
+import convex.core.data.Vectors;
 import convex.core.lang.Reader;
 import convex.core.lang.ops.Constant;
+import convex.core.store.AStore;
+import convex.core.store.Stores;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Invoke;
 import convex.core.util.Utils;
 import convex.peer.TestNetwork;
+import etch.EtchStore;
 
 /**
  * Tests for a Convex Client connection
@@ -62,6 +73,31 @@ public class ConvexRemoteTest {
 		}
 	}
 
+	@Test
+	public void testAcquire() throws IOException, TimeoutException, InterruptedException, ExecutionException {
+		synchronized (network.SERVER) {
+			// data only available in the Peer's store
+			AStore serverStore = network.SERVER.getStore();
+			AVector<ACell> v = Vectors.of(Blobs.createRandom(new Random(5678), 100000), Blobs.createRandom(new Random(5679), 5000));
+			AStore temp = Stores.current();
+			try {
+				Stores.setCurrent(serverStore);
+				serverStore.storeTopRef(v.getRef(), Ref.PERSISTED, null);
+			} finally {
+				Stores.setCurrent(temp);
+			}
+
+			EtchStore clientStore = EtchStore.createTemp("acquire-test");
+			Convex convex = Convex.connect(network.SERVER.getHostAddress(), ADDRESS, KEYPAIR, clientStore);
+			assertNull(clientStore.refForHash(v.getHash()));
+
+			AVector<ACell> result = convex.<AVector<ACell>>acquire(v.getHash(), clientStore).get(10000, TimeUnit.MILLISECONDS);
+			assertEquals(v, result);
+			assertTrue(clientStore.refForHash(v.getHash()).getStatus() >= Ref.PERSISTED);
+			convex.close();
+		}
+	}
+
 	@Test
 	public void testConvex() throws IOException, TimeoutException {
 		synchronized (network.SERVER) {
@@ -100,4 +136,30 @@ public class ConvexRemoteTest {
 		}
 	}
 
+	@Test
+	public void testConcurrentTransactions() throws IOException, TimeoutException, InterruptedException, ExecutionException {
+		synchronized (network.SERVER) {
+			Convex convex = Convex.connect(network.SERVER.getHostAddress(), ADDRESS, KEYPAIR);
+			long start = convex.getSequence();
+			int threads = 8;
+			int n = 20;
+			ExecutorService ex = Executors.newFixedThreadPool(threads);
+			ArrayList<Future<Result>> rs = new ArrayList<>();
+			for (int i = 0; i < threads * n; i++) {
+				long v = i;
+				rs.add(ex.submit(() -> convex.transactSync(Invoke.create(ADDRESS, 0, Constant.of(v)), 10000)));
+			}
+			for (Future<Result> f : rs) {
+				Result r = f.get(20000, TimeUnit.MILLISECONDS);
+				assertNull(r.getErrorCode(), "Error:" + r.toString());
+			}
+			ex.shutdown();
+
+			// every transaction got its own sequence number
+			assertEquals(start + threads * n, convex.getSequence());
+			assertEquals(start + threads * n, convex.getSequence(ADDRESS));
+			convex.close();
+		}
+	}
+
 }
@@ -0,0 +1,93 @@
+package convex.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class MessageSenderTest {
+
+	private static ByteBuffer bytes(int n, int value) {
+		ByteBuffer bb = ByteBuffer.allocate(n);
+		for (int i = 0; i < n; i++) {
+			bb.put((byte) value);
+		}
+		return bb.flip();
+	}
+
+	@Test
+	public void testHighWater() throws IOException {
+		MemoryByteChannel mc = MemoryByteChannel.create(1000);
+		MessageSender sender = new MessageSender(mc, 100);
+
+		// always accepted when queue is empty, even above high water mark
+		assertTrue(sender.bufferMessage(MessageType.DATA, bytes(1, 1), bytes(150, 2)));
+		assertEquals(151, sender.getQueuedBytes());
+		assertFalse(sender.bufferMessage(MessageType.DATA, bytes(1, 3), bytes(10, 4)));
+
+		// only the first write request needs action
+		assertTrue(sender.requestWrite());
+		assertFalse(sender.requestWrite());
+
+		assertTrue(sender.maybeSendBytes());
+		assertFalse(sender.hasQueued());
+		assertEquals(0, sender.getQueuedBytes());
+		assertTrue(sender.requestWrite());
+	}
+
+	@Test
+	public void testPartialSend() throws IOException {
+		MemoryByteChannel mc = MemoryByteChannel.create(100);
+		MessageSender sender = new MessageSender(mc, 1000);
+
+		assertTrue(sender.bufferMessage(MessageType.DATA, bytes(1, 1), bytes(79, 2)));
+		assertTrue(sender.bufferMessage(MessageType.DATA, bytes(1, 3), bytes(39, 4)));
+
+		// channel only has room for 100 bytes
+		assertFalse(sender.maybeSendBytes());
+		assertEquals(20, sender.getQueuedBytes());
+
+		ByteBuffer received = ByteBuffer.allocate(200);
+		mc.read(received);
+		assertTrue(sender.maybeSendBytes());
+		mc.read(received);
+		received.flip();
+
+		assertEquals(120, received.remaining());
+		assertEquals(1, received.get(0));
+		assertEquals(2, received.get(79));
+		assertEquals(3, received.get(80));
+		assertEquals(4, received.get(119));
+	}
+
+	@Test
+	public void testPriority() throws IOException {
+		MemoryByteChannel mc = MemoryByteChannel.create(1000);
+		MessageSender sender = new MessageSender(mc, 1000);
+
+		assertTrue(sender.bufferMessage(MessageType.RESULT, bytes(1, 1), bytes(1, 1)));
+		assertTrue(sender.bufferMessage(MessageType.DATA, bytes(1, 2), bytes(1, 2)));
+		assertTrue(sender.bufferMessage(MessageType.BELIEF, bytes(1, 3), bytes(1, 3)));
+		assertTrue(sender.bufferMessage(MessageType.DATA, bytes(1, 4), bytes(1, 4)));
+
+		// newer Belief supersedes the unsent one
+		assertTrue(sender.bufferMessage(MessageType.BELIEF, bytes(1, 5), bytes(1, 5)));
+		assertEquals(8, sender.getQueuedBytes());
+
+		assertTrue(sender.maybeSendBytes());
+		ByteBuffer received = ByteBuffer.allocate(100);
+		mc.read(received);
+		received.flip();
+
+		// DATA queued before the Belief is sent first, Belief is ahead of later messages
+		assertEquals(8, received.remaining());
+		assertEquals(2, received.get(0));
+		assertEquals(4, received.get(2));
+		assertEquals(5, received.get(4));
+		assertEquals(1, received.get(6));
+	}
+}
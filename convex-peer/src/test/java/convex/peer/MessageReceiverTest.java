@@ -53,4 +53,82 @@ public class MessageReceiverTest {
 		Message m1 = received.get(0);
 		assertEquals(MessageType.DATA, m1.getType());
 	}
+
+	@Test
+	public void testChunkedMessages() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+
+		MemoryByteChannel chan = MemoryByteChannel.create(10000);
+		Connection pc = Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), pc);
+		mr.setChunkSize(1000);
+
+		ACell msg1 = RT.cvm("Hello World!");
+		ACell msg2 = RT.cvm(13L);
+		assertTrue(pc.sendData(msg1));
+		assertTrue(pc.sendData(msg2));
+		assertTrue(pc.flushBytes());
+
+		// both messages received in one read
+		mr.receiveFromChannel(chan);
+		assertEquals(2, received.size());
+		assertEquals(msg1, received.get(0).getPayload());
+		assertEquals(msg2, received.get(1).getPayload());
+
+		// tiny chunks, so messages are split across reads
+		mr.setChunkSize(3);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(pc.sendData(RT.cvm((long) i)));
+		}
+		assertTrue(pc.flushBytes());
+		while (mr.receiveFromChannel(chan) > 0) {
+			// keep reading
+		}
+		assertEquals(12, received.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(RT.cvm((long) i), received.get(2 + i).getPayload());
+		}
+		assertEquals(12, mr.getReceivedCount());
+
+		// single byte chunks, with message lengths split across reads
+		mr.setChunkSize(1);
+		ACell big = RT.cvm("A string long enough to need a two byte message length in its frame header");
+		assertTrue(pc.sendData(big));
+		assertTrue(pc.sendData(msg2));
+		assertTrue(pc.flushBytes());
+		while (mr.receiveFromChannel(chan) > 0) {
+			// keep reading
+		}
+		assertEquals(14, received.size());
+		assertEquals(big, received.get(12).getPayload());
+		assertEquals(msg2, received.get(13).getPayload());
+	}
+
+	@Test
+	public void testKnownCells() throws IOException, BadFormatException {
+		final ArrayList<Message> received = new ArrayList<>();
+
+		MemoryByteChannel chan = MemoryByteChannel.create(10000);
+		Connection pc = Connection.create(chan, null, Stores.current(), null);
+		MessageReceiver mr = new MessageReceiver(a -> received.add(a), pc);
+		mr.setChunkSize(1000);
+
+		ACell msg1 = RT.cvm("Hello World! This string is long enough not to be embedded");
+		ACell msg2 = RT.cvm("Another string that is long enough not to be embedded");
+		assertTrue(pc.maybeSendData(msg1, null));
+		assertTrue(pc.maybeSendData(msg1, null)); // already sent, so skipped
+		assertTrue(pc.maybeSendData(msg2, null));
+		assertTrue(pc.flushBytes());
+
+		mr.receiveFromChannel(chan);
+		assertEquals(2, received.size());
+		assertEquals(msg1, received.get(0).getPayload());
+		assertEquals(msg2, received.get(1).getPayload());
+
+		// explicit sends always happen, e.g. for missing data requests
+		assertTrue(pc.sendData(msg1));
+		assertTrue(pc.flushBytes());
+		mr.receiveFromChannel(chan);
+		assertEquals(3, received.size());
+	}
 }
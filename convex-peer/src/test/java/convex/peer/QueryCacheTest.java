@@ -0,0 +1,81 @@
+package convex.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.Result;
+import convex.core.State;
+import convex.core.crypto.AKeyPair;
+import convex.core.data.ACell;
+import convex.core.data.Address;
+import convex.core.data.prim.CVMLong;
+import convex.core.init.Init;
+import convex.core.lang.Context;
+import convex.core.lang.Reader;
+import convex.core.util.Counters;
+
+public class QueryCacheTest {
+	static final AKeyPair KP=AKeyPair.createSeeded(5675);
+	static final State STATE=Init.createState(List.of(KP.getAccountKey()));
+	static final Address HERO=Init.GENESIS_ADDRESS;
+
+	private Result query(QueryCache cache, State state, Address address, String source) {
+		ACell form=Reader.read(source);
+		Result r=cache.get(state, address, form);
+		if (r!=null) return r;
+		Context<ACell> ctx=Context.createFake(state, address).eval(form);
+		r=Result.fromContext(CVMLong.ONE, ctx);
+		cache.put(state, address, form, ctx.getState(), r);
+		return r;
+	}
+
+	@Test
+	public void testHitAndInvalidation() {
+		QueryCache cache=new QueryCache(100,1000000);
+		Result r=query(cache, STATE, HERO, "(balance *address*)");
+		long hits=Counters.queryCacheHit;
+		Result r2=query(cache, STATE, HERO, "(balance *address*)");
+		assertEquals(hits+1,Counters.queryCacheHit);
+		assertEquals(r.getValue(),r2.getValue());
+		assertNull(r2.getID());
+
+		// different Address is a different query
+		assertNull(cache.get(STATE, Init.CORE_ADDRESS, Reader.read("(balance *address*)")));
+
+		// new consensus State drops all entries
+		State s2=STATE.withTimestamp(STATE.getTimeStamp().longValue()+1000);
+		assertNull(cache.get(s2, HERO, Reader.read("(balance *address*)")));
+		assertEquals(0,cache.size());
+	}
+
+	@Test
+	public void testSideEffectsNotCached() {
+		QueryCache cache=new QueryCache(100,1000000);
+		query(cache, STATE, HERO, "(def x 1)");
+		assertEquals(0,cache.size());
+		assertNull(cache.get(STATE, HERO, Reader.read("(def x 1)")));
+	}
+
+	@Test
+	public void testBounds() {
+		QueryCache cache=new QueryCache(3,1000000);
+		for (int i=0; i<10; i++) {
+			query(cache, STATE, HERO, "(+ 1 "+i+")");
+		}
+		assertEquals(3,cache.size());
+		query(cache, STATE, HERO, "(+ 1 7)");
+		query(cache, STATE, HERO, "(+ 1 10)");
+		// least recently used entry evicted
+		assertNull(cache.get(STATE, HERO, Reader.read("(+ 1 8)")));
+		assertEquals(CVMLong.create(8),cache.get(STATE, HERO, Reader.read("(+ 1 7)")).getValue());
+
+		// results too big for memory bound not cached
+		cache=new QueryCache(100,16000);
+		query(cache, STATE, HERO, "(loop [v [] i 0] (if (< i 1000) (recur (conj v i) (inc i)) v))");
+		assertEquals(0,cache.size());
+	}
+}
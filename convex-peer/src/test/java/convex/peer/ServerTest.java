@@ -3,11 +3,15 @@ package convex.peer;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -20,16 +24,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import convex.api.Convex;
+import convex.api.ConvexRemote;
 import convex.core.Belief;
 import convex.core.Coin;
 import convex.core.ErrorCodes;
+import convex.core.Peer;
 import convex.core.Result;
 import convex.core.State;
 import convex.core.crypto.AKeyPair;
+import convex.core.data.ABlob;
 import convex.core.data.ACell;
 import convex.core.data.AVector;
 import convex.core.data.AccountKey;
 import convex.core.data.Address;
+import convex.core.data.Blobs;
 import convex.core.data.Hash;
 import convex.core.data.Keyword;
 import convex.core.data.Keywords;
@@ -39,18 +47,22 @@ import convex.core.data.SignedData;
 import convex.core.data.Vectors;
 import convex.core.data.prim.CVMLong;
 import convex.core.exceptions.BadSignatureException;
+import convex.core.exceptions.InvalidDataException;
 import convex.core.init.Init;
 import convex.core.lang.RT;
 import convex.core.lang.Reader;
 import convex.core.lang.Symbols;
 import convex.core.store.AStore;
+import convex.core.store.MemoryStore;
 import convex.core.store.Stores;
 import convex.core.transactions.ATransaction;
 import convex.core.transactions.Call;
 import convex.core.transactions.Invoke;
 import convex.core.transactions.Transfer;
+import convex.core.util.Counters;
 import convex.core.util.Utils;
 import convex.net.Connection;
+import convex.net.NIOServer;
 import convex.net.ResultConsumer;
 import convex.net.message.Message;
 import etch.EtchStore;
@@ -229,6 +241,131 @@ public class ServerTest {
 		}
 	}
 	
+	@Test
+	public void testCollectData() {
+		MemoryStore ms = new MemoryStore();
+		ABlob b = Blobs.createRandom(new Random(1234), 100000);
+		AStore temp = Stores.current();
+		try {
+			Stores.setCurrent(ms);
+			ms.storeTopRef(b.getRef(), Ref.PERSISTED, null);
+		} finally {
+			Stores.setCurrent(temp);
+		}
+		AVector<ACell> hashes = Vectors.of(b.getHash(), Hash.NULL_HASH);
+
+		// requested cell only, unknown hash ignored
+		ArrayList<ACell> cells = new ArrayList<>();
+		Server.collectData(ms, hashes, 0, 100, cells);
+		assertEquals(1, cells.size());
+		assertEquals(b, cells.get(0));
+
+		// immediate children follow the requested cell
+		cells.clear();
+		Server.collectData(ms, hashes, 1, 100, cells);
+		assertEquals(1 + b.getRefCount(), cells.size());
+		assertEquals(b.getRef(0).getValue(), cells.get(1));
+
+		// whole tree, without duplicates
+		cells.clear();
+		Server.collectData(ms, Vectors.of(b.getHash(), b.getHash()), 10, 100, cells);
+		assertEquals(1 + b.getRefCount() + 25, cells.size());
+
+		// bounded by limit
+		cells.clear();
+		Server.collectData(ms, hashes, 10, 5, cells);
+		assertEquals(5, cells.size());
+	}
+
+	@Test
+	public void testPollBelief() throws IOException, InterruptedException {
+		synchronized(network.SERVER) {
+			ConnectionManager manager = network.SERVER.getConnectionManager();
+			ArrayList<Connection> conns = new ArrayList<>(manager.getConnections().values());
+			assertFalse(conns.isEmpty());
+
+			// poll reuses an existing Peer Connection
+			long polls = Counters.beliefPolls;
+			long count = manager.getConnectionCount();
+			assertTrue(manager.pollBelief(conns.get(0)));
+			long start = Utils.getCurrentTimestamp();
+			while ((Counters.beliefPolls == polls) && (Utils.getCurrentTimestamp() < start + 10000)) {
+				Thread.sleep(10);
+			}
+			assertEquals(polls + 1, Counters.beliefPolls);
+			assertEquals(count, manager.getConnectionCount());
+		}
+	}
+
+	@Test
+	public void testSnapshotSync() throws IOException, InterruptedException, ExecutionException, TimeoutException, InvalidDataException {
+		synchronized(network.SERVER) {
+			// data only available in the Peer's store
+			AStore serverStore = network.SERVER.getStore();
+			Random r = new Random(4321);
+			AVector<ACell> v = Vectors.empty();
+			for (int i = 0; i < 100; i++) {
+				v = v.conj(Blobs.createRandom(r, 5000));
+			}
+			AStore temp = Stores.current();
+			try {
+				Stores.setCurrent(serverStore);
+				serverStore.storeTopRef(v.getRef(), Ref.PERSISTED, null);
+			} finally {
+				Stores.setCurrent(temp);
+			}
+
+			EtchStore store = EtchStore.createTemp("snapshot-test");
+			ArrayList<ConvexRemote> sources = new ArrayList<>();
+			sources.add(Convex.connect(network.SERVER.getHostAddress(), null, null, store));
+			sources.add(Convex.connect(network.SERVER.getHostAddress(), null, null, store));
+			try {
+				AVector<ACell> result = new SnapshotSync(sources, store).sync(v.getHash());
+				assertEquals(v, result);
+				assertTrue(store.refForHash(v.getHash()).getStatus() >= Ref.PERSISTED);
+			} finally {
+				for (ConvexRemote c : sources) c.close();
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotJoin() throws IOException, TimeoutException {
+		synchronized(network.SERVER) {
+			AKeyPair kp=AKeyPair.generate();
+			long STAKE=1000000000;
+
+			// register the new Peer, which also makes some consensus history to skip
+			Convex heroConvex=network.CONVEX;
+			Address controller=heroConvex.createAccountSync(kp.getAccountKey());
+			assertFalse(heroConvex.transferSync(controller,Coin.DIAMOND).isError());
+			Convex convex=Convex.connect(network.SERVER.getHostAddress(), controller, kp);
+			Result trans=convex.transactSync(Invoke.create(controller, 0, "(create-peer "+kp.getAccountKey()+" "+STAKE+")"));
+			assertEquals(RT.cvm(STAKE),trans.getValue());
+			convex.close();
+
+			HashMap<Keyword,Object> config=new HashMap<>();
+			config.put(Keywords.KEYPAIR,kp);
+			config.put(Keywords.STORE,EtchStore.createTemp());
+			config.put(Keywords.SOURCE,network.SERVER.getHostAddress());
+			config.put(Keywords.SNAPSHOT,true);
+			Server newServer=API.launchPeer(config);
+			try {
+				Peer peer=newServer.getPeer();
+				Peer source=network.SERVER.getPeer();
+				long n=peer.getStates().count();
+				assertTrue(n>1);
+
+				// consensus State is at the same index as in the source history
+				assertEquals(source.getNetworkID(),peer.getNetworkID());
+				assertEquals(source.getStates().get(n-1).getHash(),peer.getConsensusState().getHash());
+				assertNull(peer.getBlockResult(0));
+			} finally {
+				newServer.close();
+			}
+		}
+	}
+
 	@Test
 	public void testQueryStrings() throws TimeoutException, IOException {
 		Convex convex=network.CONVEX;
@@ -290,6 +427,68 @@ public class ServerTest {
 			assertTrue( results.containsKey(id5));
 			assertEquals(ErrorCodes.SIGNATURE, results.get(id6bad));
 			assertEquals(ErrorCodes.UNDECLARED, results.get(id6));
+
+			// transactions should have gone through the verification stage
+			VerificationStage verifier=network.SERVER.getVerificationStage();
+			assertNotNull(verifier);
+			assertTrue(verifier.getVerifyCount()>0);
+		}
+	}
+
+	@Test
+	public void testSelectorPool() throws IOException, TimeoutException {
+		AKeyPair kp=AKeyPair.generate();
+		HashMap<Keyword, Object> config=new HashMap<>();
+		config.put(Keywords.KEYPAIR, kp);
+		config.put(Keywords.STATE, Init.createState(List.of(kp.getAccountKey())));
+		config.put(Keywords.STORE, EtchStore.createTemp());
+		config.put(Keywords.SELECTOR_THREADS, 2);
+		Server server=API.launchPeer(config);
+		try {
+			int CLIENTS=4;
+			Convex[] clients=new Convex[CLIENTS];
+			for (int i=0; i<CLIENTS; i++) {
+				clients[i]=Convex.connect(server.getHostAddress(),server.getPeerController(),kp);
+				assertEquals(RT.cvm(1L),clients[i].querySync(CVMLong.ONE).getValue());
+			}
+
+			// connections should be spread across both selectors
+			NIOServer nio=server.getNIOServer();
+			assertFalse(Utils.timeout(5000, ()->nio.getConnectionCount()>=CLIENTS));
+			int[] counts=nio.getSelectorConnectionCounts();
+			assertEquals(2,counts.length);
+			assertTrue(counts[0]>0);
+			assertTrue(counts[1]>0);
+
+			// closed connections are no longer counted
+			int before=nio.getConnectionCount();
+			for (Convex c: clients) c.close();
+			assertFalse(Utils.timeout(5000, ()->nio.getConnectionCount()<=before-CLIENTS));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testStoreCompaction() throws IOException, TimeoutException {
+		AKeyPair kp=AKeyPair.generate();
+		EtchStore store=EtchStore.createTemp("compaction-test");
+		HashMap<Keyword, Object> config=new HashMap<>();
+		config.put(Keywords.KEYPAIR, kp);
+		config.put(Keywords.STATE, Init.createState(List.of(kp.getAccountKey())));
+		config.put(Keywords.STORE, store);
+		config.put(Keywords.GC_INTERVAL, 100);
+		Server server=API.launchPeer(config);
+		try {
+			// peer compacts its store on the configured interval
+			assertFalse(Utils.timeout(5000, ()->store.getGCTotalTime()>0));
+			assertTrue(store.getOpenFileCount()<=3);
+
+			Convex convex=Convex.connect(server.getHostAddress(),server.getPeerController(),kp);
+			assertEquals(RT.cvm(1L),convex.querySync(CVMLong.ONE).getValue());
+			convex.close();
+		} finally {
+			server.close();
 		}
 	}
 